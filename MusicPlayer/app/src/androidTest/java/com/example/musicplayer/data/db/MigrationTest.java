@@ -0,0 +1,161 @@
+package com.example.musicplayer.data.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migrates a version 1 database with data in it to the current version and checks
+ * the result against the exported schema, the data and the plans of the list queries.
+ * Version 1 predates exported schemas; its file in app/schemas was written from the
+ * entities of that release.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    
+    private static final String TEST_DB = "migration-test";
+    private static final int TRACKS = 50;
+    
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), AppDatabase.class);
+    
+    @Test
+    public void migrate1ToCurrentKeepsData() throws IOException {
+        createVersion1();
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 10, true, Migrations.ALL);
+        
+        // Of the two downloads of t1 the newer one stays
+        try (Cursor cursor = db.query("SELECT trackId, status FROM downloads")) {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("t1", cursor.getString(0));
+            assertEquals("FAILED", cursor.getString(1));
+        }
+        
+        assertEquals(TRACKS, count(db, "SELECT COUNT(*) FROM tracks WHERE updatedAt = createdAt"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM favorites"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM recent"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM playlist_tracks"));
+        
+        assertEquals(TRACKS, count(db, "SELECT COUNT(*) FROM tracks_fts WHERE tracks_fts MATCH 'title*'"));
+        assertEquals(TRACKS / 2, count(db, "SELECT COUNT(*) FROM tracks_fts WHERE tracks_fts MATCH 'qawwali'"));
+        
+        // "Sufi, Qawwali" and "ghazal" become three lower-case tags
+        assertEquals(3, count(db, "SELECT COUNT(*) FROM tags"));
+        assertEquals(TRACKS / 2, count(db, "SELECT COUNT(*) FROM track_tags " +
+                "JOIN tags ON tags.id = track_tags.tagId WHERE tags.name = 'sufi'"));
+        assertEquals(TRACKS / 2, count(db, "SELECT COUNT(*) FROM track_tags " +
+                "JOIN tags ON tags.id = track_tags.tagId WHERE tags.name = 'ghazal'"));
+        db.close();
+    }
+    
+    @Test
+    public void homeAndLibraryQueriesUseTheirIndexes() throws IOException {
+        createVersion1();
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 10, true, Migrations.ALL);
+        db.execSQL("ANALYZE");
+        
+        // Home
+        assertUsesIndex(db, "index_tracks_featured_createdAt",
+                "SELECT * FROM tracks WHERE featured = 1 ORDER BY createdAt DESC");
+        assertUsesIndex(db, "index_tracks_createdAt",
+                "SELECT * FROM tracks ORDER BY createdAt DESC LIMIT 10");
+        assertUsesIndex(db, "index_tracks_playCount",
+                "SELECT * FROM tracks ORDER BY playCount DESC LIMIT 10");
+        assertUsesIndex(db, "index_tracks_playCount",
+                "SELECT * FROM tracks WHERE playCount > 0 ORDER BY playCount DESC LIMIT 10");
+        assertUsesIndex(db, "index_tracks_lastPlayedAt",
+                "SELECT * FROM tracks WHERE lastPlayedAt > 0 ORDER BY lastPlayedAt DESC LIMIT 10");
+        
+        // Library
+        assertUsesIndex(db, "index_tracks_isDownloaded_title",
+                "SELECT * FROM tracks WHERE isDownloaded = 1 ORDER BY title ASC");
+        assertUsesIndex(db, "index_favorites_addedAt",
+                "SELECT t.* FROM tracks t INNER JOIN favorites f ON t.id = f.trackId ORDER BY f.addedAt DESC");
+        assertUsesIndex(db, "index_recent_playedAt",
+                "SELECT t.* FROM tracks t INNER JOIN recent r ON t.id = r.trackId ORDER BY r.playedAt DESC LIMIT 20");
+        assertUsesIndex(db, "index_recent_trackId_playedAt",
+                "SELECT * FROM recent WHERE trackId = 't3' ORDER BY playedAt DESC LIMIT 1");
+        
+        // Downloads
+        assertUsesIndex(db, "index_downloads_startedAt",
+                "SELECT * FROM downloads ORDER BY startedAt DESC");
+        assertUsesIndex(db, "index_downloads_status_startedAt",
+                "SELECT * FROM downloads WHERE status = 'COMPLETED' ORDER BY startedAt DESC");
+        db.close();
+    }
+    
+    /**
+     * Writes the database of the first release: tracks with tags, a playlist, a favorite,
+     * a play and two downloads of the same track, which version 1 still allowed
+     */
+    private void createVersion1() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1);
+        for (int i = 0; i < TRACKS; i++) {
+            ContentValues track = new ContentValues();
+            track.put("id", "t" + i);
+            track.put("title", "Title " + i);
+            track.put("artist", "Artist");
+            track.put("album", "Album");
+            track.put("durationMs", 180_000);
+            track.put("tags", i % 2 == 1 ? "Sufi, Qawwali" : "ghazal");
+            track.put("isDownloaded", i % 3 == 0);
+            track.put("playCount", i);
+            track.put("lastPlayedAt", i * 10L);
+            track.put("featured", i % 4 == 0);
+            track.put("createdAt", 1000L + i);
+            db.insert("tracks", SQLiteDatabase.CONFLICT_FAIL, track);
+        }
+        
+        db.execSQL("INSERT INTO playlists (id, name, createdAt, trackCount) VALUES ('p1', 'Road', 1, 1)");
+        db.execSQL("INSERT INTO playlist_tracks (playlistId, trackId, orderIndex, addedAt) VALUES ('p1', 't4', 0, 2)");
+        db.execSQL("INSERT INTO favorites (trackId, addedAt) VALUES ('t2', 5)");
+        db.execSQL("INSERT INTO recent (trackId, playedAt) VALUES ('t3', 7)");
+        db.execSQL("INSERT INTO downloads (trackId, status, progress, bytes, startedAt, finishedAt) " +
+                "VALUES ('t1', 'COMPLETED', 100, 5, 1, 2)");
+        db.execSQL("INSERT INTO downloads (trackId, status, progress, bytes, startedAt, finishedAt) " +
+                "VALUES ('t1', 'FAILED', 0, 0, 3, 4)");
+        db.close();
+    }
+    
+    private static long count(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+    
+    /**
+     * The plan reads the rows in index order: it names the index and sorts nothing
+     */
+    private static void assertUsesIndex(SupportSQLiteDatabase db, String index, String sql) {
+        List<String> plan = new ArrayList<>();
+        try (Cursor cursor = db.query("EXPLAIN QUERY PLAN " + sql)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        }
+        String text = plan.toString();
+        assertTrue(sql + " -> " + text, text.contains(index));
+        assertFalse(sql + " -> " + text, text.contains("TEMP B-TREE"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.musicplayer.data.db.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.entity.Track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class TagDaoTest {
+    
+    private AppDatabase db;
+    private TagDao tagDao;
+    
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).build();
+        tagDao = db.tagDao();
+    }
+    
+    @After
+    public void tearDown() {
+        db.close();
+    }
+    
+    @Test
+    public void pagesFollowTitleThenIdWithoutGapsOrRepeats() {
+        List<Track> tracks = new ArrayList<>();
+        // Equal titles across page boundaries, a missing title and a track of another tag
+        tracks.add(track("b2", "Bol", "sufi"));
+        tracks.add(track("a1", "Aadat", "Sufi, Rock"));
+        tracks.add(track("b1", "Bol", "sufi"));
+        tracks.add(track("n1", null, "sufi"));
+        tracks.add(track("b3", "Bol", "sufi"));
+        tracks.add(track("z1", "Zinda", "sufi"));
+        tracks.add(track("r1", "Rock On", "rock"));
+        db.trackDao().insertNewTracks(tracks);
+        tagDao.replaceTrackTags(tracks);
+        
+        List<String> ids = new ArrayList<>();
+        List<Track> page = tagDao.getTracksByTag("sufi", null, 2);
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= 2);
+            for (Track track : page) {
+                ids.add(track.getId());
+            }
+            page = tagDao.getTracksByTag("sufi", page.get(page.size() - 1), 2);
+        }
+        assertEquals(Arrays.asList("n1", "a1", "b1", "b2", "b3", "z1"), ids);
+        
+        assertEquals(0, tagDao.getTracksByTag("ghazal", null, 10).size());
+    }
+    
+    private static Track track(String id, String title, String tags) {
+        return new Track(id, title, "Artist", "Album", 0, "", "", tags, false, 0);
+    }
+}
@@ -2,21 +2,31 @@ package com.example.musicplayer.data.db;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.example.musicplayer.data.db.dao.DownloadDao;
 import com.example.musicplayer.data.db.dao.FavoriteDao;
 import com.example.musicplayer.data.db.dao.PlaylistDao;
 import com.example.musicplayer.data.db.dao.RecentDao;
+import com.example.musicplayer.data.db.dao.StoredFileDao;
+import com.example.musicplayer.data.db.dao.TagDao;
 import com.example.musicplayer.data.db.dao.TrackDao;
 import com.example.musicplayer.data.db.entity.Download;
 import com.example.musicplayer.data.db.entity.Favorite;
 import com.example.musicplayer.data.db.entity.Playlist;
 import com.example.musicplayer.data.db.entity.PlaylistTrack;
 import com.example.musicplayer.data.db.entity.Recent;
+import com.example.musicplayer.data.db.entity.StorageTotal;
+import com.example.musicplayer.data.db.entity.StoredFile;
+import com.example.musicplayer.data.db.entity.Tag;
 import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.db.entity.TrackFts;
+import com.example.musicplayer.data.db.entity.TrackTag;
+import com.example.musicplayer.utils.SearchUtils;
 
 @Database(
     entities = {
@@ -25,10 +35,15 @@ import com.example.musicplayer.data.db.entity.Track;
         PlaylistTrack.class,
         Recent.class,
         Favorite.class,
-        Download.class
+        Download.class,
+        StoredFile.class,
+        StorageTotal.class,
+        TrackFts.class,
+        Tag.class,
+        TrackTag.class
     },
-    version = 1,
-    exportSchema = false
+    version = 10,
+    exportSchema = true
 )
 public abstract class AppDatabase extends RoomDatabase {
     
@@ -40,6 +55,8 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract RecentDao recentDao();
     public abstract FavoriteDao favoriteDao();
     public abstract DownloadDao downloadDao();
+    public abstract StoredFileDao storedFileDao();
+    public abstract TagDao tagDao();
     
     public static AppDatabase getInstance(Context context) {
         if (INSTANCE == null) {
@@ -50,7 +67,8 @@ public abstract class AppDatabase extends RoomDatabase {
                         AppDatabase.class,
                         DATABASE_NAME
                     )
-                    .fallbackToDestructiveMigration()
+                    .addMigrations(Migrations.ALL)
+                    .addCallback(CALLBACK)
                     .build();
                 }
             }
@@ -58,6 +76,72 @@ public abstract class AppDatabase extends RoomDatabase {
         return INSTANCE;
     }
     
+    // Triggers are not part of Room's schema, so they are (re)created whenever the database opens
+    private static final RoomDatabase.Callback CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            createStorageTriggers(db);
+            createSearchTriggers(db);
+        }
+    };
+    
+    /**
+     * Keep storage_totals in step with stored_files so size totals are a single row read
+     */
+    private static void createStorageTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stored_files_after_insert AFTER INSERT ON stored_files BEGIN " +
+                "INSERT OR IGNORE INTO storage_totals (kind, bytes, files) VALUES (NEW.kind, 0, 0); " +
+                "UPDATE storage_totals SET bytes = bytes + NEW.bytes, files = files + 1 WHERE kind = NEW.kind; " +
+                "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stored_files_after_delete AFTER DELETE ON stored_files BEGIN " +
+                "UPDATE storage_totals SET bytes = bytes - OLD.bytes, files = files - 1 WHERE kind = OLD.kind; " +
+                "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stored_files_after_update AFTER UPDATE OF bytes, kind ON stored_files BEGIN " +
+                "UPDATE storage_totals SET bytes = bytes - OLD.bytes, files = files - 1 WHERE kind = OLD.kind; " +
+                "INSERT OR IGNORE INTO storage_totals (kind, bytes, files) VALUES (NEW.kind, 0, 0); " +
+                "UPDATE storage_totals SET bytes = bytes + NEW.bytes, files = files + 1 WHERE kind = NEW.kind; " +
+                "END");
+    }
+    
+    /**
+     * Keep tracks_fts in step with the searchable columns of tracks, normalized the same
+     * way search queries are
+     */
+    private static void createSearchTriggers(SupportSQLiteDatabase db) {
+        String title = SearchUtils.normalizeSql("NEW.title");
+        String artist = SearchUtils.normalizeSql("NEW.artist");
+        String album = SearchUtils.normalizeSql("NEW.album");
+        String tags = SearchUtils.normalizeSql("NEW.tags");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS tracks_fts_after_insert AFTER INSERT ON tracks BEGIN " +
+                "INSERT INTO tracks_fts (rowid, title, artist, album, tags) VALUES (NEW.rowid, " +
+                title + ", " + artist + ", " + album + ", " + tags + "); " +
+                "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS tracks_fts_after_delete AFTER DELETE ON tracks BEGIN " +
+                "DELETE FROM tracks_fts WHERE rowid = OLD.rowid; " +
+                "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS tracks_fts_after_update AFTER UPDATE OF title, artist, album, tags ON tracks BEGIN " +
+                "UPDATE tracks_fts SET title = " + title + ", artist = " + artist + ", album = " + album +
+                ", tags = " + tags + " WHERE rowid = NEW.rowid; " +
+                "END");
+    }
+    
+    /**
+     * Refill tracks_fts from tracks. The index is keyed by the rowid of tracks, which has
+     * no INTEGER PRIMARY KEY, so a VACUUM may renumber the rows under it.
+     */
+    public static void rebuildSearchIndex(SupportSQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM tracks_fts");
+            db.execSQL("INSERT INTO tracks_fts (rowid, title, artist, album, tags) SELECT rowid, " +
+                    SearchUtils.normalizeSql("title") + ", " + SearchUtils.normalizeSql("artist") + ", " +
+                    SearchUtils.normalizeSql("album") + ", " + SearchUtils.normalizeSql("tags") + " FROM tracks");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+    
     public static void destroyInstance() {
         INSTANCE = null;
     }
@@ -0,0 +1,149 @@
+package com.example.musicplayer.data.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Schema changes between database versions. Every step keeps the user's downloads,
+ * playlists, favorites and history. The statements must create exactly what Room
+ * expects; compare them with the exported schemas in app/schemas when an entity changes.
+ * Triggers are not part of the schema and are created by AppDatabase on open.
+ */
+final class Migrations {
+    
+    private Migrations() {}
+    
+    // Resumable downloads
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `etag` TEXT");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `lastModified` TEXT");
+        }
+    };
+    
+    // Checksums of catalog tracks and of downloaded files
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `checksum` TEXT");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `checksumAlgorithm` TEXT");
+            db.execSQL("ALTER TABLE `tracks` ADD COLUMN `checksum` TEXT");
+            db.execSQL("ALTER TABLE `tracks` ADD COLUMN `checksumAlgorithm` TEXT");
+        }
+    };
+    
+    // Batch downloads
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `batchId` TEXT");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `priority` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `sortOrder` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+    
+    // One download per track; of duplicates the newest row stays
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("DELETE FROM `downloads` WHERE `id` NOT IN (SELECT MAX(`id`) FROM `downloads` GROUP BY `trackId`)");
+            db.execSQL("DROP INDEX IF EXISTS `index_downloads_trackId`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_downloads_trackId` ON `downloads` (`trackId`)");
+        }
+    };
+    
+    // Index of stored files. Starts empty; StorageIndex.reconcile() adds the files on disk.
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `stored_files` (`path` TEXT NOT NULL, `trackId` TEXT NOT NULL, " +
+                    "`kind` TEXT NOT NULL, `bytes` INTEGER NOT NULL, `hash` TEXT, `mtime` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`path`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_stored_files_trackId` ON `stored_files` (`trackId`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `storage_totals` (`kind` TEXT NOT NULL, `bytes` INTEGER NOT NULL, " +
+                    "`files` INTEGER NOT NULL, PRIMARY KEY(`kind`))");
+        }
+    };
+    
+    // Delta sync cursor; until the catalog says otherwise a track was last changed when created
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `tracks` ADD COLUMN `updatedAt` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE `tracks` SET `updatedAt` = `createdAt`");
+        }
+    };
+    
+    // Full-text index, filled with the existing tracks the way the triggers fill it
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `tracks_fts` USING FTS4(`title` TEXT, `artist` TEXT, " +
+                    "`album` TEXT, `tags` TEXT, tokenize=unicode61 `remove_diacritics=1`)");
+            AppDatabase.rebuildSearchIndex(db);
+        }
+    };
+    
+    /**
+     * Adds tags and track_tags and fills them by splitting the comma-separated tags
+     * column of every track, the way Tag.splitNames does
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `tags` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`name` TEXT NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_tags_name` ON `tags` (`name`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `track_tags` (`trackId` TEXT NOT NULL, `tagId` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`trackId`, `tagId`), " +
+                    "FOREIGN KEY(`trackId`) REFERENCES `tracks`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , " +
+                    "FOREIGN KEY(`tagId`) REFERENCES `tags`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_track_tags_tagId_trackId` ON `track_tags` (`tagId`, `trackId`)");
+            
+            String split = "WITH RECURSIVE split(trackId, name, rest) AS (" +
+                    "SELECT id, '', tags || ',' FROM tracks WHERE tags IS NOT NULL AND tags != '' " +
+                    "UNION ALL " +
+                    "SELECT trackId, lower(trim(substr(rest, 1, instr(rest, ',') - 1))), " +
+                    "substr(rest, instr(rest, ',') + 1) FROM split WHERE rest != '') ";
+            db.execSQL(split + "INSERT OR IGNORE INTO tags (name) SELECT DISTINCT name FROM split WHERE name != ''");
+            db.execSQL(split + "INSERT OR IGNORE INTO track_tags (trackId, tagId) " +
+                    "SELECT split.trackId, tags.id FROM split JOIN tags ON tags.name = split.name");
+        }
+    };
+    
+    // Indexes for the Home and Library lists, so none of them sorts a whole table
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_tracks_createdAt` ON `tracks` (`createdAt`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_tracks_featured_createdAt` ON `tracks` (`featured`, `createdAt`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_tracks_playCount` ON `tracks` (`playCount`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_tracks_isDownloaded_title` ON `tracks` (`isDownloaded`, `title`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_tracks_lastPlayedAt` ON `tracks` (`lastPlayedAt`)");
+            
+            db.execSQL("DROP INDEX IF EXISTS `index_recent_trackId`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_recent_trackId_playedAt` ON `recent` (`trackId`, `playedAt`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_recent_playedAt` ON `recent` (`playedAt`)");
+            
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_favorites_addedAt` ON `favorites` (`addedAt`)");
+            
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_downloads_startedAt` ON `downloads` (`startedAt`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_downloads_status_startedAt` ON `downloads` (`status`, `startedAt`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_downloads_batchId` ON `downloads` (`batchId`)");
+        }
+    };
+    
+    static final Migration[] ALL = {
+        MIGRATION_1_2,
+        MIGRATION_2_3,
+        MIGRATION_3_4,
+        MIGRATION_4_5,
+        MIGRATION_5_6,
+        MIGRATION_6_7,
+        MIGRATION_7_8,
+        MIGRATION_8_9,
+        MIGRATION_9_10
+    };
+}
@@ -15,7 +15,8 @@ import java.util.List;
 @Dao
 public interface DownloadDao {
     
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    // One row per track; returns -1 instead of replacing an existing download
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
     long insertDownload(Download download);
     
     @Update
@@ -48,15 +49,30 @@ public interface DownloadDao {
     @Query("UPDATE downloads SET status = :status, progress = :progress, bytes = :bytes WHERE id = :downloadId")
     void updateDownloadProgress(long downloadId, String status, int progress, long bytes);
     
-    @Query("UPDATE downloads SET status = :status, reason = :reason, finishedAt = :finishedAt WHERE id = :downloadId")
+    // A failed download holds no worker any more, so it also gives up its slot
+    @Query("UPDATE downloads SET status = :status, reason = :reason, finishedAt = :finishedAt, workId = NULL " +
+           "WHERE id = :downloadId")
     void updateDownloadFailed(long downloadId, String status, String reason, long finishedAt);
     
-    @Query("UPDATE downloads SET status = :status, progress = 100, finishedAt = :finishedAt WHERE id = :downloadId")
-    void updateDownloadCompleted(long downloadId, String status, long finishedAt);
+    @Query("UPDATE downloads SET status = :status, progress = 100, bytes = :bytes, finishedAt = :finishedAt WHERE id = :downloadId")
+    void updateDownloadCompleted(long downloadId, String status, long bytes, long finishedAt);
     
     @Query("UPDATE downloads SET workId = :workId WHERE id = :downloadId")
     void updateWorkId(long downloadId, String workId);
     
+    @Query("UPDATE downloads SET etag = :etag, lastModified = :lastModified WHERE id = :downloadId")
+    void updateValidators(long downloadId, String etag, String lastModified);
+    
+    @Query("UPDATE downloads SET checksum = :checksum, checksumAlgorithm = :algorithm WHERE id = :downloadId")
+    void updateChecksum(long downloadId, String checksum, String algorithm);
+    
+    @Query("UPDATE downloads SET progress = :progress, bytes = :bytes WHERE id = :downloadId")
+    void updateDownloadBytes(long downloadId, int progress, long bytes);
+    
+    // Leaves a download alone if it was paused while the worker was still running
+    @Query("UPDATE downloads SET status = :status, reason = :reason WHERE id = :downloadId AND status != 'PAUSED'")
+    void updateDownloadRetrying(long downloadId, String status, String reason);
+    
     @Query("DELETE FROM downloads WHERE trackId = :trackId")
     void deleteDownloadByTrackId(String trackId);
     
@@ -66,9 +82,110 @@ public interface DownloadDao {
     @Query("SELECT * FROM downloads WHERE status IN ('QUEUED', 'RUNNING') ORDER BY startedAt ASC")
     List<Download> getActiveDownloads();
     
+    // Queued downloads that have no worker yet, in the order they should be started
+    @Query("SELECT * FROM downloads WHERE status = 'QUEUED' AND workId IS NULL " +
+           "ORDER BY priority DESC, sortOrder ASC, startedAt ASC LIMIT :limit")
+    List<Download> getNextQueuedDownloads(int limit);
+    
+    // Downloads that were handed a worker, running or waiting for a retry
+    @Query("SELECT * FROM downloads WHERE status = 'RUNNING' OR (status = 'QUEUED' AND workId IS NOT NULL)")
+    List<Download> getDispatchedDownloads();
+    
+    @Query("SELECT trackId FROM downloads WHERE batchId = :batchId AND workId IS NOT NULL AND status IN ('QUEUED', 'RUNNING')")
+    List<String> getActiveBatchTrackIds(String batchId);
+    
+    @Query("UPDATE downloads SET status = 'PAUSED', workId = NULL WHERE batchId = :batchId AND status IN ('QUEUED', 'RUNNING')")
+    int pauseBatch(String batchId);
+    
+    @Query("UPDATE downloads SET status = 'QUEUED', workId = NULL WHERE batchId = :batchId AND status = 'PAUSED'")
+    int resumeBatch(String batchId);
+    
+    @Query("SELECT COUNT(*) AS total, " +
+           "SUM(CASE WHEN status = 'COMPLETED' THEN 1 ELSE 0 END) AS completed, " +
+           "SUM(CASE WHEN status = 'FAILED' THEN 1 ELSE 0 END) AS failed, " +
+           "SUM(CASE WHEN status = 'PAUSED' THEN 1 ELSE 0 END) AS paused, " +
+           "SUM(progress) AS progressSum, SUM(bytes) AS bytes " +
+           "FROM downloads WHERE batchId = :batchId")
+    LiveData<BatchProgress> getBatchProgress(String batchId);
+    
+    // Completed downloads that are neither favorites nor in a playlist, least valuable first:
+    // plays per day since the track was last played or downloaded
+    @Query("SELECT d.trackId, d.bytes FROM downloads d " +
+           "INNER JOIN tracks t ON t.id = d.trackId " +
+           "WHERE d.status = 'COMPLETED' AND d.trackId != :excludeTrackId " +
+           "AND d.trackId NOT IN (SELECT trackId FROM favorites) " +
+           "AND d.trackId NOT IN (SELECT trackId FROM playlist_tracks) " +
+           "ORDER BY (1.0 + t.playCount) / (1.0 + (:now - MAX(t.lastPlayedAt, d.finishedAt)) / 86400000.0) ASC " +
+           "LIMIT :limit")
+    List<EvictionCandidate> getEvictionCandidates(String excludeTrackId, long now, int limit);
+    
+    // Downloads that may still own a partial file
+    @Query("SELECT trackId FROM downloads WHERE status != 'COMPLETED'")
+    List<String> getUnfinishedDownloadTrackIds();
+    
+    // Old history: failed downloads, and completed ones whose file is gone. Completed rows
+    // of tracks that are still downloaded are kept, eviction and verification need them.
+    @Query("DELETE FROM downloads WHERE finishedAt > 0 AND finishedAt < :cutoff " +
+           "AND (status = 'FAILED' OR (status = 'COMPLETED' " +
+           "AND trackId NOT IN (SELECT id FROM tracks WHERE isDownloaded = 1)))")
+    int pruneFinishedDownloads(long cutoff);
+    
     @Query("DELETE FROM downloads WHERE status = 'COMPLETED'")
     void deleteCompletedDownloads();
     
     @Query("DELETE FROM downloads WHERE status = 'FAILED'")
     void deleteFailedDownloads();
+    
+    /**
+     * Aggregate state of a download batch
+     */
+    class BatchProgress {
+        private int total;
+        private int completed;
+        private int failed;
+        private int paused;
+        private long progressSum;
+        private long bytes;
+        
+        public int getTotal() { return total; }
+        public void setTotal(int total) { this.total = total; }
+        
+        public int getCompleted() { return completed; }
+        public void setCompleted(int completed) { this.completed = completed; }
+        
+        public int getFailed() { return failed; }
+        public void setFailed(int failed) { this.failed = failed; }
+        
+        public int getPaused() { return paused; }
+        public void setPaused(int paused) { this.paused = paused; }
+        
+        public long getProgressSum() { return progressSum; }
+        public void setProgressSum(long progressSum) { this.progressSum = progressSum; }
+        
+        public long getBytes() { return bytes; }
+        public void setBytes(long bytes) { this.bytes = bytes; }
+        
+        // Overall progress 0-100, every track counts the same
+        public int getOverallProgress() {
+            return total > 0 ? (int) (progressSum / total) : 0;
+        }
+        
+        public boolean isFinished() {
+            return completed + failed == total;
+        }
+    }
+    
+    /**
+     * A downloaded track that the storage quota may evict
+     */
+    class EvictionCandidate {
+        private String trackId;
+        private long bytes;
+        
+        public String getTrackId() { return trackId; }
+        public void setTrackId(String trackId) { this.trackId = trackId; }
+        
+        public long getBytes() { return bytes; }
+        public void setBytes(long bytes) { this.bytes = bytes; }
+    }
 }
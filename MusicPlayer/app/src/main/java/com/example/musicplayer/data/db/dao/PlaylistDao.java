@@ -47,6 +47,9 @@ public interface PlaylistDao {
            "ORDER BY pt.orderIndex ASC")
     LiveData<List<Track>> getPlaylistTracks(String playlistId);
     
+    @Query("SELECT trackId FROM playlist_tracks WHERE playlistId = :playlistId ORDER BY orderIndex ASC")
+    List<String> getPlaylistTrackIds(String playlistId);
+    
     @Query("SELECT COUNT(*) FROM playlist_tracks WHERE playlistId = :playlistId")
     int getPlaylistTrackCount(String playlistId);
     
@@ -41,5 +41,5 @@ public interface RecentDao {
     
     // Keep only the latest N recent entries to prevent unlimited growth
     @Query("DELETE FROM recent WHERE id NOT IN (SELECT id FROM recent ORDER BY playedAt DESC LIMIT :maxEntries)")
-    void limitRecentEntries(int maxEntries);
+    int limitRecentEntries(int maxEntries);
 }
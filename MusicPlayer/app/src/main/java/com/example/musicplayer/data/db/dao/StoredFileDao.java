@@ -0,0 +1,108 @@
+package com.example.musicplayer.data.db.dao;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Upsert;
+
+import com.example.musicplayer.data.db.entity.StorageTotal;
+import com.example.musicplayer.data.db.entity.StoredFile;
+
+import java.util.List;
+
+@Dao
+public interface StoredFileDao {
+    
+    // Upsert rather than REPLACE: a REPLACE delete would not fire the delete trigger
+    // and storage_totals would count the file twice
+    @Upsert
+    void upsertFile(StoredFile file);
+    
+    @Upsert
+    void upsertFiles(List<StoredFile> files);
+    
+    @Query("DELETE FROM stored_files WHERE path = :path")
+    void deleteFile(String path);
+    
+    @Query("DELETE FROM stored_files WHERE path IN (:paths)")
+    void deleteFiles(List<String> paths);
+    
+    @Query("DELETE FROM stored_files WHERE trackId = :trackId")
+    void deleteFilesOfTrack(String trackId);
+    
+    @Query("UPDATE stored_files SET path = :newPath WHERE path = :oldPath")
+    void updatePath(String oldPath, String newPath);
+    
+    @Query("SELECT * FROM stored_files WHERE path = :path")
+    StoredFile getFile(String path);
+    
+    @Query("SELECT * FROM stored_files WHERE trackId = :trackId")
+    List<StoredFile> getFilesOfTrack(String trackId);
+    
+    @Query("SELECT * FROM stored_files")
+    List<StoredFile> getAllFiles();
+    
+    // Downloaded audio that has a checksum, with the algorithm the download used
+    @Query("SELECT s.path, s.trackId, s.bytes, s.hash, d.checksumAlgorithm FROM stored_files s " +
+           "INNER JOIN downloads d ON d.trackId = s.trackId " +
+           "WHERE s.kind = 'audio' AND s.hash IS NOT NULL")
+    List<ChecksummedFile> getChecksummedFiles();
+    
+    @Query("SELECT COALESCE(SUM(bytes), 0) FROM stored_files WHERE trackId = :trackId")
+    long getTrackBytes(String trackId);
+    
+    @Query("SELECT COALESCE((SELECT bytes FROM storage_totals WHERE kind = :kind), 0)")
+    long getTotalBytes(String kind);
+    
+    @Query("SELECT COALESCE(SUM(bytes), 0) FROM storage_totals")
+    long getTotalBytes();
+    
+    @Query("SELECT COALESCE(SUM(bytes), 0) FROM storage_totals")
+    LiveData<Long> getTotalBytesLive();
+    
+    @Query("SELECT * FROM storage_totals")
+    List<StorageTotal> getTotals();
+    
+    @Query("DELETE FROM storage_totals")
+    void clearTotals();
+    
+    @Query("INSERT INTO storage_totals (kind, bytes, files) " +
+           "SELECT kind, SUM(bytes), COUNT(*) FROM stored_files GROUP BY kind")
+    void insertTotalsFromFiles();
+    
+    /**
+     * Recompute the totals from stored_files, repairing any drift
+     */
+    @Transaction
+    default void rebuildTotals() {
+        clearTotals();
+        insertTotalsFromFiles();
+    }
+    
+    /**
+     * A stored file and the checksum it should have
+     */
+    class ChecksummedFile {
+        private String path;
+        private String trackId;
+        private long bytes;
+        private String hash;
+        private String checksumAlgorithm;
+        
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+        
+        public String getTrackId() { return trackId; }
+        public void setTrackId(String trackId) { this.trackId = trackId; }
+        
+        public long getBytes() { return bytes; }
+        public void setBytes(long bytes) { this.bytes = bytes; }
+        
+        public String getHash() { return hash; }
+        public void setHash(String hash) { this.hash = hash; }
+        
+        public String getChecksumAlgorithm() { return checksumAlgorithm; }
+        public void setChecksumAlgorithm(String checksumAlgorithm) { this.checksumAlgorithm = checksumAlgorithm; }
+    }
+}
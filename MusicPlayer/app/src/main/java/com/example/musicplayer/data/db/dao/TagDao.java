@@ -0,0 +1,159 @@
+package com.example.musicplayer.data.db.dao;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.example.musicplayer.data.db.entity.Tag;
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.db.entity.TrackTag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Dao
+public interface TagDao {
+    
+    // Keeps the IN lists of one statement below SQLite's 999 bound variables
+    int MAX_NAMES_PER_QUERY = 500;
+    
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertTags(List<Tag> tags);
+    
+    @Query("SELECT * FROM tags WHERE name IN (:names)")
+    List<Tag> getTagsByNames(List<String> names);
+    
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertTrackTags(List<TrackTag> trackTags);
+    
+    @Query("DELETE FROM track_tags WHERE trackId IN (:trackIds)")
+    void deleteTrackTags(List<String> trackIds);
+    
+    /**
+     * Tags no track carries any more, left behind by deleted or retagged tracks
+     */
+    @Query("DELETE FROM tags WHERE id NOT IN (SELECT tagId FROM track_tags)")
+    int deleteUnusedTags();
+    
+    /**
+     * Tracks carrying tag, by title, after the track with lastTitle and lastId. The rows
+     * come from the (tagId, trackId) index and each page starts where the last one ended,
+     * so a deep page costs no more than the first. A missing title sorts as "".
+     */
+    @Query("SELECT tracks.* FROM track_tags " +
+           "JOIN tracks ON tracks.id = track_tags.trackId " +
+           "WHERE track_tags.tagId = (SELECT id FROM tags WHERE name = :tag) " +
+           "AND (IFNULL(tracks.title, '') > :lastTitle " +
+           "OR (IFNULL(tracks.title, '') = :lastTitle AND tracks.id > :lastId)) " +
+           "ORDER BY IFNULL(tracks.title, ''), tracks.id LIMIT :limit")
+    List<Track> getTracksByTagAfter(String tag, String lastTitle, String lastId, int limit);
+    
+    /**
+     * A page of the tracks carrying tag; after is the last track of the previous page,
+     * or null for the first one
+     */
+    default List<Track> getTracksByTag(String tag, Track after, int limit) {
+        if (after == null) {
+            return getTracksByTagAfter(tag, "", "", limit);
+        }
+        String title = after.getTitle() != null ? after.getTitle() : "";
+        return getTracksByTagAfter(tag, title, after.getId(), limit);
+    }
+    
+    @Query("SELECT tags.name AS name, COUNT(*) AS trackCount FROM tags " +
+           "JOIN track_tags ON track_tags.tagId = tags.id " +
+           "GROUP BY tags.id ORDER BY trackCount DESC, tags.name")
+    LiveData<List<TagCount>> getTagCounts();
+    
+    @Query("SELECT * FROM tracks WHERE id IN (" +
+           "SELECT track_tags.trackId FROM tags " +
+           "JOIN track_tags ON track_tags.tagId = tags.id " +
+           "WHERE tags.name IN (:tags) " +
+           "GROUP BY track_tags.trackId HAVING COUNT(*) = :tagCount) " +
+           "ORDER BY title, id LIMIT :limit")
+    List<Track> getTracksWithTags(List<String> tags, int tagCount, int limit);
+    
+    /**
+     * Tracks carrying every one of tags
+     */
+    default List<Track> getTracksWithAllTags(List<String> tags, int limit) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String tag : tags) {
+            String name = Tag.normalizeName(tag);
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return getTracksWithTags(new ArrayList<>(names), names.size(), limit);
+    }
+    
+    /**
+     * Rewrite the track_tags rows of tracks from their tags column, creating tags
+     * not seen before. Call with the tracks a sync just wrote; at most
+     * MAX_NAMES_PER_QUERY of them at a time.
+     */
+    @Transaction
+    default void replaceTrackTags(List<Track> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        List<String> trackIds = new ArrayList<>(tracks.size());
+        Map<String, List<String>> namesByTrack = new HashMap<>();
+        Set<String> allNames = new LinkedHashSet<>();
+        for (Track track : tracks) {
+            List<String> names = Tag.splitNames(track.getTags());
+            trackIds.add(track.getId());
+            namesByTrack.put(track.getId(), names);
+            allNames.addAll(names);
+        }
+        deleteTrackTags(trackIds);
+        if (allNames.isEmpty()) {
+            return;
+        }
+        
+        List<String> nameList = new ArrayList<>(allNames);
+        List<Tag> newTags = new ArrayList<>(nameList.size());
+        for (String name : nameList) {
+            newTags.add(new Tag(name));
+        }
+        insertTags(newTags);
+        Map<String, Long> tagIds = new HashMap<>();
+        for (int i = 0; i < nameList.size(); i += MAX_NAMES_PER_QUERY) {
+            for (Tag tag : getTagsByNames(nameList.subList(i, Math.min(i + MAX_NAMES_PER_QUERY, nameList.size())))) {
+                tagIds.put(tag.getName(), tag.getId());
+            }
+        }
+        
+        List<TrackTag> trackTags = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : namesByTrack.entrySet()) {
+            for (String name : entry.getValue()) {
+                trackTags.add(new TrackTag(entry.getKey(), tagIds.get(name)));
+            }
+        }
+        insertTrackTags(trackTags);
+    }
+    
+    /**
+     * A tag and how many tracks carry it
+     */
+    class TagCount {
+        private String name;
+        private int trackCount;
+        
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        
+        public int getTrackCount() { return trackCount; }
+        public void setTrackCount(int trackCount) { this.trackCount = trackCount; }
+    }
+}
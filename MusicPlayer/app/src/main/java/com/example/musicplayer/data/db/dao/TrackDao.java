@@ -6,24 +6,37 @@ import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
+import androidx.room.Upsert;
 
 import com.example.musicplayer.data.db.entity.Track;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Dao
 public interface TrackDao {
     
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    // Upsert keeps the rowid, which tracks_fts rows are keyed by; a REPLACE would not
+    // fire the delete trigger and leave a stale search row behind
+    @Upsert
     void insertTrack(Track track);
     
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertTracks(List<Track> tracks);
+    // IGNORE rather than REPLACE: a REPLACE deletes the row first, which resets the local
+    // columns and cascades to downloads, favorites, recent and playlist_tracks
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertNewTracks(List<Track> tracks);
     
     @Update
     void updateTrack(Track track);
     
+    @Update(entity = Track.class)
+    void updateCatalogFields(List<CatalogFields> tracks);
+    
     @Delete
     void deleteTrack(Track track);
     
@@ -33,6 +46,9 @@ public interface TrackDao {
     @Query("SELECT * FROM tracks WHERE id = :trackId")
     LiveData<Track> getTrackByIdLive(String trackId);
     
+    @Query("SELECT * FROM tracks WHERE id IN (:trackIds)")
+    List<Track> getTracksByIds(List<String> trackIds);
+    
     @Query("SELECT * FROM tracks ORDER BY createdAt DESC")
     LiveData<List<Track>> getAllTracks();
     
@@ -48,8 +64,13 @@ public interface TrackDao {
     @Query("SELECT * FROM tracks WHERE isDownloaded = 1 ORDER BY title ASC")
     LiveData<List<Track>> getDownloadedTracks();
     
-    @Query("SELECT * FROM tracks WHERE title LIKE :query OR artist LIKE :query OR album LIKE :query OR tags LIKE :query")
-    LiveData<List<Track>> searchTracks(String query);
+    /**
+     * Tracks matching an FTS expression built by SearchUtils.toFtsQuery, unordered; rank
+     * them with SearchUtils.score
+     */
+    @Query("SELECT tracks.id AS trackId, matchinfo(tracks_fts, 'pcnx') AS matchInfo FROM tracks_fts " +
+           "JOIN tracks ON tracks.rowid = tracks_fts.rowid WHERE tracks_fts MATCH :match LIMIT :limit")
+    LiveData<List<SearchMatch>> searchTracks(String match, int limit);
     
     @Query("UPDATE tracks SET playCount = playCount + 1, lastPlayedAt = :timestamp WHERE id = :trackId")
     void incrementPlayCount(String trackId, long timestamp);
@@ -57,6 +78,19 @@ public interface TrackDao {
     @Query("UPDATE tracks SET isDownloaded = :isDownloaded, localPath = :localPath WHERE id = :trackId")
     void updateDownloadStatus(String trackId, boolean isDownloaded, String localPath);
     
+    // Only follows a file that moved, a track re-downloaded meanwhile keeps its new path
+    @Query("UPDATE tracks SET localPath = :newPath WHERE id = :trackId AND localPath = :oldPath")
+    void updateLocalPath(String trackId, String oldPath, String newPath);
+    
+    @Query("DELETE FROM tracks WHERE id IN (:trackIds)")
+    int deleteTracksByIds(List<String> trackIds);
+    
+    @Query("SELECT id FROM tracks")
+    List<String> getAllTrackIds();
+    
+    @Query("SELECT id, title, artist, album, tags FROM tracks")
+    List<SearchableTrack> getSearchableTracks();
+    
     @Query("SELECT COUNT(*) FROM tracks")
     int getTrackCount();
     
@@ -68,4 +102,177 @@ public interface TrackDao {
     
     @Query("SELECT * FROM tracks WHERE playCount > 0 ORDER BY playCount DESC LIMIT :limit")
     LiveData<List<Track>> getMostPlayed(int limit);
+    
+    /**
+     * Insert or update tracks from the catalog. Only the catalog columns of existing rows
+     * are written, and only for rows that actually changed, so downloads, play counts
+     * and the rows referencing a track survive and unchanged tracks cause no writes.
+     * The list should stay below SQLite's limit of 999 bound variables.
+     *
+     * @return the tracks inserted or updated
+     */
+    @Transaction
+    default List<Track> upsertCatalogTracks(List<Track> tracks) {
+        List<String> trackIds = new ArrayList<>(tracks.size());
+        for (Track track : tracks) {
+            trackIds.add(track.getId());
+        }
+        Map<String, Track> existing = new HashMap<>();
+        for (Track track : getTracksByIds(trackIds)) {
+            existing.put(track.getId(), track);
+        }
+        
+        List<Track> inserted = new ArrayList<>();
+        List<CatalogFields> updated = new ArrayList<>();
+        List<Track> written = new ArrayList<>();
+        for (Track track : tracks) {
+            Track current = existing.get(track.getId());
+            if (current == null) {
+                inserted.add(track);
+                written.add(track);
+            } else if (!CatalogFields.sameCatalogFields(current, track)) {
+                updated.add(new CatalogFields(track));
+                written.add(track);
+            }
+        }
+        if (!inserted.isEmpty()) {
+            insertNewTracks(inserted);
+        }
+        if (!updated.isEmpty()) {
+            updateCatalogFields(updated);
+        }
+        return written;
+    }
+    
+    /**
+     * A track found by full-text search and the matchinfo() blob to rank it with
+     */
+    class SearchMatch {
+        private String trackId;
+        private byte[] matchInfo;
+        
+        public String getTrackId() { return trackId; }
+        public void setTrackId(String trackId) { this.trackId = trackId; }
+        
+        public byte[] getMatchInfo() { return matchInfo; }
+        public void setMatchInfo(byte[] matchInfo) { this.matchInfo = matchInfo; }
+    }
+    
+    /**
+     * The columns of a track the in-memory search index is built from
+     */
+    class SearchableTrack {
+        private String id;
+        private String title;
+        private String artist;
+        private String album;
+        private String tags;
+        
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        
+        public String getArtist() { return artist; }
+        public void setArtist(String artist) { this.artist = artist; }
+        
+        public String getAlbum() { return album; }
+        public void setAlbum(String album) { this.album = album; }
+        
+        public String getTags() { return tags; }
+        public void setTags(String tags) { this.tags = tags; }
+    }
+    
+    /**
+     * The columns of a track owned by the catalog. isDownloaded, localPath, playCount and
+     * lastPlayedAt belong to this device and are left out.
+     */
+    class CatalogFields {
+        private String id;
+        private String title;
+        private String artist;
+        private String album;
+        private long durationMs;
+        private String streamUrl;
+        private String coverUrl;
+        private String tags;
+        private boolean featured;
+        private long createdAt;
+        private long updatedAt;
+        private String checksum;
+        private String checksumAlgorithm;
+        
+        public CatalogFields() {}
+        
+        public CatalogFields(Track track) {
+            id = track.getId();
+            title = track.getTitle();
+            artist = track.getArtist();
+            album = track.getAlbum();
+            durationMs = track.getDurationMs();
+            streamUrl = track.getStreamUrl();
+            coverUrl = track.getCoverUrl();
+            tags = track.getTags();
+            featured = track.isFeatured();
+            createdAt = track.getCreatedAt();
+            updatedAt = track.getUpdatedAt();
+            checksum = track.getChecksum();
+            checksumAlgorithm = track.getChecksumAlgorithm();
+        }
+        
+        static boolean sameCatalogFields(Track a, Track b) {
+            return Objects.equals(a.getTitle(), b.getTitle())
+                    && Objects.equals(a.getArtist(), b.getArtist())
+                    && Objects.equals(a.getAlbum(), b.getAlbum())
+                    && a.getDurationMs() == b.getDurationMs()
+                    && Objects.equals(a.getStreamUrl(), b.getStreamUrl())
+                    && Objects.equals(a.getCoverUrl(), b.getCoverUrl())
+                    && Objects.equals(a.getTags(), b.getTags())
+                    && a.isFeatured() == b.isFeatured()
+                    && a.getCreatedAt() == b.getCreatedAt()
+                    && a.getUpdatedAt() == b.getUpdatedAt()
+                    && Objects.equals(a.getChecksum(), b.getChecksum())
+                    && Objects.equals(a.getChecksumAlgorithm(), b.getChecksumAlgorithm());
+        }
+        
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        
+        public String getArtist() { return artist; }
+        public void setArtist(String artist) { this.artist = artist; }
+        
+        public String getAlbum() { return album; }
+        public void setAlbum(String album) { this.album = album; }
+        
+        public long getDurationMs() { return durationMs; }
+        public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
+        
+        public String getStreamUrl() { return streamUrl; }
+        public void setStreamUrl(String streamUrl) { this.streamUrl = streamUrl; }
+        
+        public String getCoverUrl() { return coverUrl; }
+        public void setCoverUrl(String coverUrl) { this.coverUrl = coverUrl; }
+        
+        public String getTags() { return tags; }
+        public void setTags(String tags) { this.tags = tags; }
+        
+        public boolean isFeatured() { return featured; }
+        public void setFeatured(boolean featured) { this.featured = featured; }
+        
+        public long getCreatedAt() { return createdAt; }
+        public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+        
+        public long getUpdatedAt() { return updatedAt; }
+        public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+        
+        public String getChecksum() { return checksum; }
+        public void setChecksum(String checksum) { this.checksum = checksum; }
+        
+        public String getChecksumAlgorithm() { return checksumAlgorithm; }
+        public void setChecksumAlgorithm(String checksumAlgorithm) { this.checksumAlgorithm = checksumAlgorithm; }
+    }
 }
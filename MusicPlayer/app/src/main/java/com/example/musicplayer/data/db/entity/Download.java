@@ -11,7 +11,12 @@ import androidx.annotation.NonNull;
                                  parentColumns = "id",
                                  childColumns = "trackId",
                                  onDelete = ForeignKey.CASCADE),
-        indices = {@Index("trackId")})
+        indices = {
+            @Index(value = "trackId", unique = true),
+            @Index("startedAt"),
+            @Index({"status", "startedAt"}),
+            @Index("batchId")
+        })
 public class Download {
     @PrimaryKey(autoGenerate = true)
     private long id;
@@ -26,6 +31,13 @@ public class Download {
     private long startedAt;
     private long finishedAt;
     private String workId; // WorkManager work ID
+    private String etag; // ETag of the response the partial file was written from
+    private String lastModified; // Last-Modified of that response, used when there is no strong ETag
+    private String checksum; // Hex checksum of the downloaded file
+    private String checksumAlgorithm; // HashAlgorithm name of the checksum
+    private String batchId; // Batch this download was queued with, null for single downloads
+    private int priority; // Higher runs first
+    private int sortOrder; // Order within the batch, e.g. the playlist position
 
     public static final String STATUS_QUEUED = "QUEUED";
     public static final String STATUS_RUNNING = "RUNNING";
@@ -33,6 +45,10 @@ public class Download {
     public static final String STATUS_FAILED = "FAILED";
     public static final String STATUS_COMPLETED = "COMPLETED";
 
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_BATCH = 5;
+    public static final int PRIORITY_USER = 10;
+
     public Download() {}
 
     public Download(@NonNull String trackId, String status) {
@@ -74,6 +90,27 @@ public class Download {
     public String getWorkId() { return workId; }
     public void setWorkId(String workId) { this.workId = workId; }
 
+    public String getEtag() { return etag; }
+    public void setEtag(String etag) { this.etag = etag; }
+
+    public String getLastModified() { return lastModified; }
+    public void setLastModified(String lastModified) { this.lastModified = lastModified; }
+
+    public String getChecksum() { return checksum; }
+    public void setChecksum(String checksum) { this.checksum = checksum; }
+
+    public String getChecksumAlgorithm() { return checksumAlgorithm; }
+    public void setChecksumAlgorithm(String checksumAlgorithm) { this.checksumAlgorithm = checksumAlgorithm; }
+
+    public String getBatchId() { return batchId; }
+    public void setBatchId(String batchId) { this.batchId = batchId; }
+
+    public int getPriority() { return priority; }
+    public void setPriority(int priority) { this.priority = priority; }
+
+    public int getSortOrder() { return sortOrder; }
+    public void setSortOrder(int sortOrder) { this.sortOrder = sortOrder; }
+
     // Helper methods
     public boolean isCompleted() {
         return STATUS_COMPLETED.equals(status);
@@ -87,6 +124,10 @@ public class Download {
         return STATUS_RUNNING.equals(status);
     }
 
+    public boolean isPaused() {
+        return STATUS_PAUSED.equals(status);
+    }
+
     public String getFormattedSize() {
         if (bytes < 1024) return bytes + " B";
         if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
@@ -11,7 +11,7 @@ import androidx.annotation.NonNull;
                                  parentColumns = "id",
                                  childColumns = "trackId",
                                  onDelete = ForeignKey.CASCADE),
-        indices = {@Index("trackId")})
+        indices = {@Index("trackId"), @Index("addedAt")})
 public class Favorite {
     @PrimaryKey
     @NonNull
@@ -11,7 +11,7 @@ import androidx.annotation.NonNull;
                                  parentColumns = "id",
                                  childColumns = "trackId",
                                  onDelete = ForeignKey.CASCADE),
-        indices = {@Index("trackId")})
+        indices = {@Index({"trackId", "playedAt"}), @Index("playedAt")})
 public class Recent {
     @PrimaryKey(autoGenerate = true)
     private long id;
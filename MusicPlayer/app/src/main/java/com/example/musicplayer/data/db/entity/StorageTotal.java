@@ -0,0 +1,32 @@
+package com.example.musicplayer.data.db.entity;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+import androidx.annotation.NonNull;
+
+/**
+ * Running size of the stored files of one kind. Only written by the triggers on
+ * stored_files, see AppDatabase.
+ */
+@Entity(tableName = "storage_totals")
+public class StorageTotal {
+    @PrimaryKey
+    @NonNull
+    private String kind;
+    
+    private long bytes;
+    private int files;
+
+    public StorageTotal() {}
+
+    // Getters and Setters
+    @NonNull
+    public String getKind() { return kind; }
+    public void setKind(@NonNull String kind) { this.kind = kind; }
+
+    public long getBytes() { return bytes; }
+    public void setBytes(long bytes) { this.bytes = bytes; }
+
+    public int getFiles() { return files; }
+    public void setFiles(int files) { this.files = files; }
+}
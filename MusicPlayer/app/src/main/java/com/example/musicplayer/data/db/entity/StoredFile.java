@@ -0,0 +1,64 @@
+package com.example.musicplayer.data.db.entity;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import androidx.annotation.NonNull;
+
+/**
+ * A file in the download directory. Kept in step with the disk by DownloadWorker and
+ * FileUtils.deleteTrackFiles so sizes never need a directory scan.
+ */
+@Entity(tableName = "stored_files",
+        indices = {@Index("trackId")})
+public class StoredFile {
+    @PrimaryKey
+    @NonNull
+    private String path;
+    
+    @NonNull
+    private String trackId;
+    
+    @NonNull
+    private String kind; // audio or cover
+    private long bytes;
+    private String hash; // Hex checksum, null if not known
+    private long mtime; // File.lastModified() when the row was written
+
+    public static final String KIND_AUDIO = "audio";
+    public static final String KIND_COVER = "cover";
+
+    public StoredFile() {}
+
+    public StoredFile(@NonNull String path, @NonNull String trackId, @NonNull String kind,
+                      long bytes, String hash, long mtime) {
+        this.path = path;
+        this.trackId = trackId;
+        this.kind = kind;
+        this.bytes = bytes;
+        this.hash = hash;
+        this.mtime = mtime;
+    }
+
+    // Getters and Setters
+    @NonNull
+    public String getPath() { return path; }
+    public void setPath(@NonNull String path) { this.path = path; }
+
+    @NonNull
+    public String getTrackId() { return trackId; }
+    public void setTrackId(@NonNull String trackId) { this.trackId = trackId; }
+
+    @NonNull
+    public String getKind() { return kind; }
+    public void setKind(@NonNull String kind) { this.kind = kind; }
+
+    public long getBytes() { return bytes; }
+    public void setBytes(long bytes) { this.bytes = bytes; }
+
+    public String getHash() { return hash; }
+    public void setHash(String hash) { this.hash = hash; }
+
+    public long getMtime() { return mtime; }
+    public void setMtime(long mtime) { this.mtime = mtime; }
+}
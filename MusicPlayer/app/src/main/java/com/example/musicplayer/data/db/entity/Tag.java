@@ -0,0 +1,68 @@
+package com.example.musicplayer.data.db.entity;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A distinct catalog tag. Names are stored normalized, see {@link #normalizeName}.
+ */
+@Entity(tableName = "tags",
+        indices = {@Index(value = "name", unique = true)})
+public class Tag {
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+    
+    @NonNull
+    private String name;
+
+    public Tag() {}
+
+    public Tag(@NonNull String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Trim and lowercase a tag. Only ASCII letters are lowercased, exactly like SQLite's
+     * lower(), so names written by the migration and by a sync agree.
+     */
+    public static String normalizeName(String name) {
+        char[] chars = name.trim().toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * The distinct, normalized tags of a comma-separated tags column
+     */
+    public static List<String> splitNames(String tags) {
+        Set<String> names = new LinkedHashSet<>();
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                String name = normalizeName(tag);
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    // Getters and Setters
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+
+    @NonNull
+    public String getName() { return name; }
+    public void setName(@NonNull String name) { this.name = name; }
+}
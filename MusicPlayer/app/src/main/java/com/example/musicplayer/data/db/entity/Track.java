@@ -1,10 +1,19 @@
 package com.example.musicplayer.data.db.entity;
 
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import androidx.annotation.NonNull;
 
-@Entity(tableName = "tracks")
+// One index per Home and Library list, matching its filter and sort order
+@Entity(tableName = "tracks",
+        indices = {
+            @Index("createdAt"),
+            @Index({"featured", "createdAt"}),
+            @Index("playCount"),
+            @Index({"isDownloaded", "title"}),
+            @Index("lastPlayedAt")
+        })
 public class Track {
     @PrimaryKey
     @NonNull
@@ -23,6 +32,9 @@ public class Track {
     private long lastPlayedAt;
     private boolean featured;
     private long createdAt;
+    private long updatedAt; // Catalog modification time, the delta sync cursor
+    private String checksum; // Expected file checksum published by the catalog, may be empty
+    private String checksumAlgorithm;
 
     public Track() {}
 
@@ -43,6 +55,7 @@ public class Track {
         this.lastPlayedAt = 0;
         this.featured = featured;
         this.createdAt = createdAt;
+        this.updatedAt = createdAt;
     }
 
     // Getters and Setters
@@ -89,6 +102,15 @@ public class Track {
     public long getCreatedAt() { return createdAt; }
     public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
 
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+
+    public String getChecksum() { return checksum; }
+    public void setChecksum(String checksum) { this.checksum = checksum; }
+
+    public String getChecksumAlgorithm() { return checksumAlgorithm; }
+    public void setChecksumAlgorithm(String checksumAlgorithm) { this.checksumAlgorithm = checksumAlgorithm; }
+
     // Helper method to get formatted duration
     public String getFormattedDuration() {
         long seconds = durationMs / 1000;
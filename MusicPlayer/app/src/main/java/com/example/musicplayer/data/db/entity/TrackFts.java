@@ -0,0 +1,44 @@
+package com.example.musicplayer.data.db.entity;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+/**
+ * Full-text index of the searchable track columns. Rows share the rowid of their
+ * track and are written by the triggers on tracks, which also strip Urdu
+ * diacritics, or refilled by AppDatabase.rebuildSearchIndex when rowids may have moved.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61, tokenizerArgs = {"remove_diacritics=1"})
+@Entity(tableName = "tracks_fts")
+public class TrackFts {
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    private long rowId;
+    
+    // Column order matters, SearchUtils weighs matchinfo() by it
+    private String title;
+    private String artist;
+    private String album;
+    private String tags;
+
+    public TrackFts() {}
+
+    // Getters and Setters
+    public long getRowId() { return rowId; }
+    public void setRowId(long rowId) { this.rowId = rowId; }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+
+    public String getArtist() { return artist; }
+    public void setArtist(String artist) { this.artist = artist; }
+
+    public String getAlbum() { return album; }
+    public void setAlbum(String album) { this.album = album; }
+
+    public String getTags() { return tags; }
+    public void setTags(String tags) { this.tags = tags; }
+}
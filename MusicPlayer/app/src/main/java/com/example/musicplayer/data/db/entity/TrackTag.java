@@ -0,0 +1,45 @@
+package com.example.musicplayer.data.db.entity;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.annotation.NonNull;
+
+/**
+ * Links a track to one of its tags. Derived from Track.tags whenever a sync writes a
+ * track; the (tagId, trackId) index serves tag lookups without touching this table.
+ */
+@Entity(tableName = "track_tags",
+        primaryKeys = {"trackId", "tagId"},
+        foreignKeys = {
+            @ForeignKey(entity = Track.class,
+                       parentColumns = "id",
+                       childColumns = "trackId",
+                       onDelete = ForeignKey.CASCADE),
+            @ForeignKey(entity = Tag.class,
+                       parentColumns = "id",
+                       childColumns = "tagId",
+                       onDelete = ForeignKey.CASCADE)
+        },
+        indices = {@Index({"tagId", "trackId"})})
+public class TrackTag {
+    @NonNull
+    private String trackId;
+    
+    private long tagId;
+
+    public TrackTag() {}
+
+    public TrackTag(@NonNull String trackId, long tagId) {
+        this.trackId = trackId;
+        this.tagId = tagId;
+    }
+
+    // Getters and Setters
+    @NonNull
+    public String getTrackId() { return trackId; }
+    public void setTrackId(@NonNull String trackId) { this.trackId = trackId; }
+
+    public long getTagId() { return tagId; }
+    public void setTagId(long tagId) { this.tagId = tagId; }
+}
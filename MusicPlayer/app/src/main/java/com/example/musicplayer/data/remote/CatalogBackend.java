@@ -0,0 +1,41 @@
+package com.example.musicplayer.data.remote;
+
+import com.google.firebase.firestore.ListenerRegistration;
+
+/**
+ * The parts of the remote catalog that syncing and searching use. FirebaseHelper
+ * answers them from Firestore.
+ */
+public interface CatalogBackend {
+    
+    /**
+     * Load the catalog manifest; the listener gets null if the catalog publishes none
+     */
+    void getCatalogManifest(FirebaseHelper.OnCatalogManifestLoadedListener listener);
+    
+    /**
+     * Load one page of the tracks whose cursorField is at or after cursor, in cursor
+     * order, tombstones included. With a negative cursor the whole collection is paged.
+     *
+     * @param after the previous page, null for the first page
+     */
+    void getTrackChanges(String cursorField, long cursor, FirebaseHelper.TrackChanges after, int pageSize,
+                         FirebaseHelper.OnTrackChangesLoadedListener listener);
+    
+    /**
+     * Listen to the tracks changed at or after a cursor value of cursorField until the
+     * returned registration is removed
+     */
+    ListenerRegistration listenTrackChanges(String cursorField, long cursor,
+                                            FirebaseHelper.OnTrackChangesLoadedListener listener);
+    
+    /**
+     * Find tracks whose title starts with query
+     */
+    void searchTracks(String query, FirebaseHelper.OnTracksLoadedListener listener);
+    
+    /**
+     * Forget cached query results, called when the local catalog learns of changes
+     */
+    void invalidateQueryCache();
+}
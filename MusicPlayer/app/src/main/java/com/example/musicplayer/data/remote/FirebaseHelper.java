@@ -3,20 +3,29 @@ package com.example.musicplayer.data.remote;
 import android.util.Log;
 
 import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.HashAlgorithm;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 
 import java.util.ArrayList;
 import java.util.List;
 
-public class FirebaseHelper {
+public class FirebaseHelper implements CatalogBackend {
     
     private static final String TAG = "FirebaseHelper";
     private static final String COLLECTION_TRACKS = "tracks";
     private static final String COLLECTION_PLAYLISTS = "playlists";
+    private static final String COLLECTION_META = "meta";
+    private static final String DOCUMENT_CATALOG_MANIFEST = "catalog";
     
     private final FirebaseFirestore db;
+    private final TrackQueryCache queryCache = new TrackQueryCache();
     
     public FirebaseHelper() {
         db = FirebaseFirestore.getInstance();
@@ -32,6 +41,17 @@ public class FirebaseHelper {
         void onError(String error);
     }
     
+    public interface OnTrackChangesLoadedListener {
+        void onSuccess(TrackChanges changes);
+        void onError(String error);
+    }
+    
+    public interface OnCatalogManifestLoadedListener {
+        /** manifest is null if the catalog does not publish one */
+        void onSuccess(CatalogManifest manifest);
+        void onError(String error);
+    }
+    
     public void getAllTracks(OnTracksLoadedListener listener) {
         db.collection(COLLECTION_TRACKS)
             .orderBy("createdAt", Query.Direction.DESCENDING)
@@ -52,56 +72,168 @@ public class FirebaseHelper {
             });
     }
     
-    public void getFeaturedTracks(OnTracksLoadedListener listener) {
-        db.collection(COLLECTION_TRACKS)
-            .whereEqualTo("featured", true)
-            .orderBy("createdAt", Query.Direction.DESCENDING)
-            .get()
+    /**
+     * Load one page of the tracks changed at or after a cursor value of cursorField
+     * ("updatedAt" or "createdAt"), including tombstones of deleted tracks. A negative
+     * cursor pages through the whole collection by document ID. The cursor is inclusive
+     * so a document written in the same millisecond as the last sync is not missed;
+     * applying it twice is harmless.
+     *
+     * @param after the previous page, null for the first page
+     */
+    @Override
+    public void getTrackChanges(String cursorField, long cursor, TrackChanges after, int pageSize,
+                                OnTrackChangesLoadedListener listener) {
+        Query query = db.collection(COLLECTION_TRACKS);
+        if (cursor >= 0) {
+            query = query.whereGreaterThanOrEqualTo(cursorField, cursor).orderBy(cursorField);
+        } else {
+            // Ordering by a field would skip the documents that do not have it
+            query = query.orderBy(FieldPath.documentId());
+        }
+        if (after != null && after.lastDocument != null) {
+            query = query.startAfter(after.lastDocument);
+        }
+        query.limit(pageSize).get()
             .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<Track> tracks = new ArrayList<>();
+                List<DocumentSnapshot> documents = queryDocumentSnapshots.getDocuments();
+                TrackChanges changes = new TrackChanges(documents.size(), documents.size() < pageSize);
+                changes.lastDocument = documents.isEmpty() ? null : documents.get(documents.size() - 1);
                 for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Track track = documentToTrack(document);
-                    if (track != null) {
-                        tracks.add(track);
-                    }
+                    addChangedDocument(changes, document);
                 }
-                listener.onSuccess(tracks);
+                listener.onSuccess(changes);
             })
             .addOnFailureListener(e -> {
-                Log.e(TAG, "Error getting featured tracks", e);
-                listener.onError("Failed to load featured tracks: " + e.getMessage());
+                Log.e(TAG, "Error getting track changes", e);
+                listener.onError("Failed to load tracks: " + e.getMessage());
             });
     }
     
-    public void getNewReleases(int limit, OnTracksLoadedListener listener) {
-        db.collection(COLLECTION_TRACKS)
-            .orderBy("createdAt", Query.Direction.DESCENDING)
-            .limit(limit)
+    /**
+     * Load the catalog manifest, a single document the catalog backend rewrites on every
+     * change. One document read tells whether a refresh has anything to fetch.
+     */
+    @Override
+    public void getCatalogManifest(OnCatalogManifestLoadedListener listener) {
+        db.collection(COLLECTION_META)
+            .document(DOCUMENT_CATALOG_MANIFEST)
             .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<Track> tracks = new ArrayList<>();
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Track track = documentToTrack(document);
-                    if (track != null) {
-                        tracks.add(track);
-                    }
+            .addOnSuccessListener(document -> {
+                Long version = document.getLong("version");
+                if (!document.exists() || version == null) {
+                    listener.onSuccess(null);
+                    return;
                 }
-                listener.onSuccess(tracks);
+                Long trackCount = document.getLong("trackCount");
+                Long resetAt = document.getLong("resetAt");
+                listener.onSuccess(new CatalogManifest(version,
+                        trackCount != null ? trackCount : -1,
+                        resetAt != null ? resetAt : 0));
             })
             .addOnFailureListener(e -> {
-                Log.e(TAG, "Error getting new releases", e);
-                listener.onError("Failed to load new releases: " + e.getMessage());
+                Log.e(TAG, "Error getting catalog manifest", e);
+                listener.onError("Failed to load catalog manifest: " + e.getMessage());
+            });
+    }
+    
+    /**
+     * Listen to the tracks changed at or after a cursor value of cursorField. The first
+     * call of the listener delivers everything since the cursor, every later call only
+     * the documents added, modified or removed since the previous one. Call remove() on
+     * the returned registration to stop; after onError the listener is already stopped.
+     */
+    @Override
+    public ListenerRegistration listenTrackChanges(String cursorField, long cursor,
+                                                   OnTrackChangesLoadedListener listener) {
+        return db.collection(COLLECTION_TRACKS)
+            .whereGreaterThanOrEqualTo(cursorField, Math.max(0, cursor))
+            .orderBy(cursorField)
+            .addSnapshotListener((snapshots, e) -> {
+                if (e != null) {
+                    Log.e(TAG, "Error listening to track changes", e);
+                    listener.onError("Failed to listen to tracks: " + e.getMessage());
+                    return;
+                }
+                if (snapshots == null) {
+                    return;
+                }
+                
+                List<DocumentChange> documentChanges = snapshots.getDocumentChanges();
+                TrackChanges changes = new TrackChanges(documentChanges.size(), true);
+                for (DocumentChange change : documentChanges) {
+                    if (change.getType() == DocumentChange.Type.REMOVED) {
+                        // The cursor fields never decrease, so only a hard delete leaves the query
+                        changes.addDeletion(change.getDocument().getId(), null, null);
+                    } else {
+                        addChangedDocument(changes, change.getDocument());
+                    }
+                }
+                listener.onSuccess(changes);
             });
     }
     
+    private void addChangedDocument(TrackChanges changes, QueryDocumentSnapshot document) {
+        Long updatedAt = document.getLong("updatedAt");
+        Long createdAt = document.getLong("createdAt");
+        if (isTombstone(document)) {
+            changes.addDeletion(document.getId(), updatedAt, createdAt);
+        } else {
+            changes.addTrack(documentToTrack(document), updatedAt, createdAt);
+        }
+    }
+    
+    public void getFeaturedTracks(OnTracksLoadedListener listener) {
+        loadTracks("featured", db.collection(COLLECTION_TRACKS)
+                .whereEqualTo("featured", true)
+                .orderBy("createdAt", Query.Direction.DESCENDING),
+                "Failed to load featured tracks: ", listener);
+    }
+    
+    public void getNewReleases(int limit, OnTracksLoadedListener listener) {
+        loadTracks("new_releases:" + limit, db.collection(COLLECTION_TRACKS)
+                .orderBy("createdAt", Query.Direction.DESCENDING)
+                .limit(limit),
+                "Failed to load new releases: ", listener);
+    }
+    
+    @Override
     public void searchTracks(String query, OnTracksLoadedListener listener) {
         // Note: Firestore doesn't support full-text search natively
         // This is a basic implementation - for production, consider using Algolia or similar
-        db.collection(COLLECTION_TRACKS)
-            .orderBy("title")
-            .startAt(query)
-            .endAt(query + "\uf8ff")
-            .get()
+        loadTracks("search:" + query, db.collection(COLLECTION_TRACKS)
+                .orderBy("title")
+                .startAt(query)
+                .endAt(query + "\uf8ff")
+                .limit(Constants.SEARCH_SUGGESTION_LIMIT),
+                "Failed to search tracks: ", listener);
+    }
+    
+    /**
+     * Cache hit rate and round trips saved by the query cache
+     */
+    public TrackQueryCache.Stats getQueryCacheStats() {
+        return queryCache.getStats();
+    }
+    
+    /**
+     * Forget cached query results, called when the local catalog learns of changes
+     */
+    @Override
+    public void invalidateQueryCache() {
+        queryCache.invalidate();
+    }
+    
+    /**
+     * Run a track query unless an identical one is cached or already in flight. key must
+     * identify the query including all of its parameters.
+     */
+    private void loadTracks(String key, Query query, String errorPrefix, OnTracksLoadedListener listener) {
+        TrackQueryCache.Load load = queryCache.request(key, listener);
+        if (load == null) {
+            return;
+        }
+        query.get()
             .addOnSuccessListener(queryDocumentSnapshots -> {
                 List<Track> tracks = new ArrayList<>();
                 for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
@@ -110,15 +242,23 @@ public class FirebaseHelper {
                         tracks.add(track);
                     }
                 }
-                listener.onSuccess(tracks);
+                queryCache.complete(load, tracks);
             })
             .addOnFailureListener(e -> {
-                Log.e(TAG, "Error searching tracks", e);
-                listener.onError("Failed to search tracks: " + e.getMessage());
+                Log.e(TAG, "Error loading " + key + " (" + queryCache.getStats() + ")", e);
+                queryCache.fail(load, errorPrefix + e.getMessage());
             });
     }
     
+    // Deleted tracks stay in the collection with deleted: true so delta syncs see them go
+    private static boolean isTombstone(QueryDocumentSnapshot document) {
+        return Boolean.TRUE.equals(document.getBoolean("deleted"));
+    }
+    
     private Track documentToTrack(QueryDocumentSnapshot document) {
+        if (isTombstone(document)) {
+            return null;
+        }
         try {
             String id = document.getId();
             String title = document.getString("title");
@@ -131,8 +271,11 @@ public class FirebaseHelper {
             String tags = tagsList != null ? String.join(",", tagsList) : "";
             Boolean featured = document.getBoolean("featured");
             Long createdAt = document.getLong("createdAt");
+            Long updatedAt = document.getLong("updatedAt");
+            String checksum = document.getString("checksum");
+            String checksumAlgorithm = document.getString("checksumAlgorithm");
             
-            return new Track(
+            Track track = new Track(
                 id,
                 title != null ? title : "",
                 artist != null ? artist : "",
@@ -144,9 +287,107 @@ public class FirebaseHelper {
                 featured != null ? featured : false,
                 createdAt != null ? createdAt : System.currentTimeMillis()
             );
+            if (updatedAt != null) {
+                track.setUpdatedAt(updatedAt);
+            }
+            if (checksum != null && !checksum.isEmpty()) {
+                track.setChecksum(checksum);
+                track.setChecksumAlgorithm(checksumAlgorithm != null ? checksumAlgorithm : HashAlgorithm.MD5.getName());
+            }
+            return track;
         } catch (Exception e) {
             Log.e(TAG, "Error parsing track document", e);
             return null;
         }
     }
+    
+    /**
+     * Summary of the catalog as published in meta/catalog
+     */
+    public static class CatalogManifest {
+        private final long version;
+        private final long trackCount;
+        private final long resetAt;
+        
+        public CatalogManifest(long version, long trackCount, long resetAt) {
+            this.version = version;
+            this.trackCount = trackCount;
+            this.resetAt = resetAt;
+        }
+        
+        /** Bumped on every catalog change */
+        public long getVersion() { return version; }
+        /** Live tracks in the catalog, tombstones not counted; -1 if not published */
+        public long getTrackCount() { return trackCount; }
+        /** When the catalog was last rebuilt or its tombstones purged; older cursors need a full sync */
+        public long getResetAt() { return resetAt; }
+    }
+    
+    /**
+     * One page loaded by {@link #getTrackChanges}, or one snapshot delivered by
+     * {@link #listenTrackChanges}
+     */
+    public static class TrackChanges {
+        private final List<Track> tracks = new ArrayList<>();
+        private final List<String> deletedIds = new ArrayList<>();
+        private long maxUpdatedAt = -1;
+        private long maxCreatedAt = -1;
+        private boolean missingUpdatedAt;
+        private final int documentCount;
+        private final boolean lastPage;
+        // Where the next page starts
+        private DocumentSnapshot lastDocument;
+        
+        /**
+         * A page of documentCount documents, lastPage if the query has none after them.
+         * Add each document with addTrack or addDeletion.
+         */
+        public TrackChanges(int documentCount, boolean lastPage) {
+            this.documentCount = documentCount;
+            this.lastPage = lastPage;
+        }
+        
+        /**
+         * Add a live document; track is null if it could not be read, its cursor values
+         * still count
+         */
+        public void addTrack(Track track, Long updatedAt, Long createdAt) {
+            addCursors(updatedAt, createdAt);
+            if (updatedAt == null) {
+                missingUpdatedAt = true;
+            }
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        
+        /**
+         * Add a tombstone, or a document that has left the query
+         */
+        public void addDeletion(String trackId, Long updatedAt, Long createdAt) {
+            addCursors(updatedAt, createdAt);
+            deletedIds.add(trackId);
+        }
+        
+        private void addCursors(Long updatedAt, Long createdAt) {
+            if (updatedAt != null) {
+                maxUpdatedAt = Math.max(maxUpdatedAt, updatedAt);
+            }
+            if (createdAt != null) {
+                maxCreatedAt = Math.max(maxCreatedAt, createdAt);
+            }
+        }
+        
+        public List<Track> getTracks() { return tracks; }
+        public List<String> getDeletedIds() { return deletedIds; }
+        /** Documents on this page, tombstones and unreadable ones included */
+        public int getDocumentCount() { return documentCount; }
+        public boolean isLastPage() { return lastPage; }
+        /** Highest value of a cursor field ("updatedAt" or "createdAt") seen, -1 if none */
+        public long getMaxCursor(String cursorField) {
+            return "updatedAt".equals(cursorField) ? maxUpdatedAt : maxCreatedAt;
+        }
+        /** True if some documents have no updatedAt, so only createdAt can be used as cursor */
+        public boolean isMissingUpdatedAt() { return missingUpdatedAt; }
+    }
 }
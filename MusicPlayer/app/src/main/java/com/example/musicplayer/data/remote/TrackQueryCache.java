@@ -0,0 +1,186 @@
+package com.example.musicplayer.data.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Front of the Firestore track queries. Identical requests made while one is in flight
+ * wait for that one instead of starting their own, and results are kept for a short
+ * time in a small LRU map. Failures are never cached, and neither are results of a
+ * query that started before the last {@link #invalidate()}.
+ */
+public class TrackQueryCache {
+    
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Load> inFlight = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > Constants.QUERY_CACHE_MAX_ENTRIES;
+        }
+    };
+    
+    private long requests;
+    private long hits;
+    private long joined;
+    private long backendCalls;
+    // Bumped by invalidate(); a load from an older generation may hold stale tracks
+    private int generation;
+    
+    /**
+     * Register a request for key. Served from the cache or joined to the request in
+     * flight if possible; either way the listener is called on the main thread.
+     *
+     * @return the load the caller has to run the query for and report through
+     *         {@link #complete} or {@link #fail}, or null if there is nothing to run
+     */
+    public Load request(String key, FirebaseHelper.OnTracksLoadedListener listener) {
+        List<Track> cached = null;
+        synchronized (this) {
+            requests++;
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < Constants.QUERY_CACHE_TTL_MS) {
+                hits++;
+                cached = entry.tracks;
+            } else {
+                Load load = inFlight.get(key);
+                if (load != null) {
+                    joined++;
+                    load.waiting.add(listener);
+                    return null;
+                }
+                load = new Load(key, generation);
+                load.waiting.add(listener);
+                inFlight.put(key, load);
+                backendCalls++;
+                return load;
+            }
+        }
+        List<Track> tracks = cached;
+        // Callers expect the callback after the call returns, as with a Firestore query
+        mainHandler.post(() -> listener.onSuccess(tracks));
+        return null;
+    }
+    
+    /**
+     * Hand the result to everybody waiting for the load and cache it, unless the cache
+     * was invalidated while it ran. The list is shared, so it is made read-only.
+     */
+    public void complete(Load load, List<Track> tracks) {
+        List<Track> shared = Collections.unmodifiableList(tracks);
+        synchronized (this) {
+            if (load.generation == generation) {
+                entries.put(load.key, new Entry(shared, System.currentTimeMillis()));
+            }
+            finish(load);
+        }
+        for (FirebaseHelper.OnTracksLoadedListener listener : load.waiting) {
+            listener.onSuccess(shared);
+        }
+    }
+    
+    public void fail(Load load, String error) {
+        synchronized (this) {
+            finish(load);
+        }
+        for (FirebaseHelper.OnTracksLoadedListener listener : load.waiting) {
+            listener.onError(error);
+        }
+    }
+    
+    /**
+     * Stop new requests from joining the load. A stale one was already replaced by
+     * invalidate() and may have a newer load under its key.
+     */
+    private void finish(Load load) {
+        if (inFlight.get(load.key) == load) {
+            inFlight.remove(load.key);
+        }
+    }
+    
+    /**
+     * Drop every cached result, e.g. after the catalog changed. Requests in flight
+     * still answer the listeners already waiting for them, but are not cached or
+     * joined by later requests, which start a fresh query.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        entries.clear();
+        inFlight.clear();
+    }
+    
+    public synchronized Stats getStats() {
+        return new Stats(requests, hits, joined, backendCalls);
+    }
+    
+    /**
+     * A query in flight and the listeners waiting for it. Only touched under the
+     * cache's lock until it is finished.
+     */
+    public static class Load {
+        final String key;
+        final int generation;
+        final List<FirebaseHelper.OnTracksLoadedListener> waiting = new ArrayList<>();
+        
+        Load(String key, int generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+    }
+    
+    private static class Entry {
+        final List<Track> tracks;
+        final long loadedAt;
+        
+        Entry(List<Track> tracks, long loadedAt) {
+            this.tracks = tracks;
+            this.loadedAt = loadedAt;
+        }
+    }
+    
+    /**
+     * Counters since the cache was created
+     */
+    public static class Stats {
+        private final long requests;
+        private final long hits;
+        private final long joined;
+        private final long backendCalls;
+        
+        Stats(long requests, long hits, long joined, long backendCalls) {
+            this.requests = requests;
+            this.hits = hits;
+            this.joined = joined;
+            this.backendCalls = backendCalls;
+        }
+        
+        public long getRequests() { return requests; }
+        public long getHits() { return hits; }
+        /** Requests that waited for an identical one already in flight */
+        public long getJoined() { return joined; }
+        public long getBackendCalls() { return backendCalls; }
+        /** Round trips avoided, by the cache or by joining */
+        public long getBackendCallsSaved() { return hits + joined; }
+        
+        public double getHitRate() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+        
+        @Override
+        public String toString() {
+            return "requests=" + requests + ", hits=" + hits + ", joined=" + joined
+                    + ", backendCalls=" + backendCalls + ", hitRate=" + String.format("%.2f", getHitRate());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.musicplayer.data.repository;
+
+import com.example.musicplayer.data.db.entity.Track;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary copy of the catalog, read in one sequential pass on a cold start.
+ *
+ * Layout, big endian: magic "MPCS", format version, generation time, cursor field
+ * and cursor value, then a table of the strings many tracks share (artists, albums,
+ * tags, checksum algorithms), then the track count and the tracks. Shared strings are
+ * stored as varint indexes into the table, so readers also share one String instance
+ * per artist or album. Strings use the modified UTF-8 of DataOutput.writeUTF.
+ */
+public final class CatalogSnapshot {
+    
+    private static final int MAGIC = 0x4D504353; // "MPCS"
+    public static final int FORMAT_VERSION = 1;
+    
+    private CatalogSnapshot() {}
+    
+    /**
+     * Write a snapshot of tracks. cursorField and cursor are what a delta sync started
+     * right after loading the snapshot should use.
+     */
+    public static void write(OutputStream out, List<Track> tracks, String cursorField, long cursor,
+                             long generatedAt) throws IOException {
+        Map<String, Integer> index = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        for (Track track : tracks) {
+            intern(index, table, track.getArtist());
+            intern(index, table, track.getAlbum());
+            intern(index, table, track.getTags());
+            intern(index, table, track.getChecksumAlgorithm());
+        }
+        
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeLong(generatedAt);
+        data.writeUTF(cursorField);
+        data.writeLong(cursor);
+        
+        writeVarInt(data, table.size());
+        for (String value : table) {
+            data.writeUTF(value);
+        }
+        
+        writeVarInt(data, tracks.size());
+        for (Track track : tracks) {
+            data.writeUTF(track.getId());
+            data.writeUTF(orEmpty(track.getTitle()));
+            writeVarInt(data, index.get(orEmpty(track.getArtist())));
+            writeVarInt(data, index.get(orEmpty(track.getAlbum())));
+            data.writeLong(track.getDurationMs());
+            data.writeUTF(orEmpty(track.getStreamUrl()));
+            data.writeUTF(orEmpty(track.getCoverUrl()));
+            writeVarInt(data, index.get(orEmpty(track.getTags())));
+            data.writeBoolean(track.isFeatured());
+            data.writeLong(track.getCreatedAt());
+            data.writeLong(track.getUpdatedAt());
+            data.writeUTF(orEmpty(track.getChecksum()));
+            writeVarInt(data, index.get(orEmpty(track.getChecksumAlgorithm())));
+        }
+        data.flush();
+    }
+    
+    private static void intern(Map<String, Integer> index, List<String> table, String value) {
+        String key = orEmpty(value);
+        if (!index.containsKey(key)) {
+            index.put(key, table.size());
+            table.add(key);
+        }
+    }
+    
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+    
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    /**
+     * Reads a snapshot front to back. The header is read on construction, the tracks
+     * in batches so the whole catalog never has to be in memory at once.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream data;
+        private final long generatedAt;
+        private final String cursorField;
+        private final long cursor;
+        private final String[] table;
+        private final int trackCount;
+        private int tracksRead;
+        
+        /**
+         * @throws IOException if the stream is not a snapshot of a supported version
+         */
+        public Reader(InputStream in) throws IOException {
+            data = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not a catalog snapshot");
+            }
+            int version = data.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported catalog snapshot version " + version);
+            }
+            generatedAt = data.readLong();
+            cursorField = data.readUTF();
+            cursor = data.readLong();
+            
+            table = new String[readVarInt()];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = data.readUTF();
+            }
+            trackCount = readVarInt();
+        }
+        
+        public long getGeneratedAt() { return generatedAt; }
+        public String getCursorField() { return cursorField; }
+        public long getCursor() { return cursor; }
+        public int getTrackCount() { return trackCount; }
+        
+        /**
+         * Read up to max more tracks into out
+         *
+         * @return the number read, 0 once all tracks have been read
+         */
+        public int readTracks(List<Track> out, int max) throws IOException {
+            int count = Math.min(max, trackCount - tracksRead);
+            for (int i = 0; i < count; i++) {
+                String id = data.readUTF();
+                String title = data.readUTF();
+                String artist = readShared();
+                String album = readShared();
+                long durationMs = data.readLong();
+                String streamUrl = data.readUTF();
+                String coverUrl = data.readUTF();
+                String tags = readShared();
+                boolean featured = data.readBoolean();
+                long createdAt = data.readLong();
+                long updatedAt = data.readLong();
+                String checksum = data.readUTF();
+                String checksumAlgorithm = readShared();
+                
+                Track track = new Track(id, title, artist, album, durationMs, streamUrl, coverUrl,
+                        tags, featured, createdAt);
+                track.setUpdatedAt(updatedAt);
+                if (!checksum.isEmpty()) {
+                    track.setChecksum(checksum);
+                    track.setChecksumAlgorithm(checksumAlgorithm);
+                }
+                out.add(track);
+            }
+            tracksRead += count;
+            return count;
+        }
+        
+        private String readShared() throws IOException {
+            int i = readVarInt();
+            if (i >= table.length) {
+                throw new IOException("String index " + i + " out of range");
+            }
+            return table[i];
+        }
+        
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = data.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+        
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.musicplayer.data.repository;
+
+import com.example.musicplayer.data.db.entity.Track;
+
+import java.util.List;
+
+/**
+ * The local side of a catalog sync: the tracks table and the tags index kept with it.
+ * RoomCatalogStore writes them to the database.
+ */
+interface CatalogStore {
+    
+    int getTrackCount();
+    
+    List<String> getAllTrackIds();
+    
+    /**
+     * Insert tracks known not to be stored yet, with their tags, in one transaction
+     */
+    void insertNewTracks(List<Track> tracks);
+    
+    /**
+     * Upsert tracks, re-index the tags of those that changed and delete deletedIds,
+     * all in one transaction
+     *
+     * @return the number of tracks inserted or updated
+     */
+    int applyChanges(List<Track> tracks, List<String> deletedIds);
+    
+    /**
+     * Delete tracks in chunks, each holding the write lock on its own
+     */
+    void deleteTracks(List<String> trackIds);
+}
@@ -0,0 +1,482 @@
+package com.example.musicplayer.data.repository;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.remote.CatalogBackend;
+import com.example.musicplayer.data.remote.FirebaseHelper;
+import com.example.musicplayer.utils.Constants;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the local tracks table in step with the Firestore catalog. After one full
+ * sync only documents changed since the stored cursor are fetched; deletions arrive
+ * as tombstones. The whole collection is fetched again only when the cursor cannot
+ * be trusted.
+ *
+ * Documents are fetched a page at a time and each page is written in its own short
+ * transaction, so neither the heap nor the database write lock grow with the catalog.
+ *
+ * An empty table is first filled from the catalog snapshot bundled with the app, so a
+ * fresh install shows content before Firestore answers and then only syncs what changed
+ * since the snapshot was made.
+ *
+ * Before anything is fetched the catalog manifest is read; if its version matches the
+ * one of the last sync the refresh ends right there.
+ *
+ * Optionally a snapshot listener keeps the table current while the app is in the
+ * foreground, applying only the documents that changed.
+ */
+public class CatalogSyncManager {
+    
+    private static final String TAG = "CatalogSyncManager";
+    private static final String FIELD_UPDATED_AT = CatalogSyncRun.FIELD_UPDATED_AT;
+    
+    private final CatalogStore store;
+    private final CatalogBackend backend;
+    private final TrackSearchEngine searchEngine;
+    private final ExecutorService executor;
+    private final SharedPreferences prefs;
+    private final SnapshotSource snapshot;
+    private final MutableLiveData<Progress> progress = new MutableLiveData<>();
+    
+    // Listeners of the sync in flight; a refresh while one is running joins it
+    private final List<MusicRepository.OnOperationCompleteListener> pendingListeners = new ArrayList<>();
+    private volatile boolean cancelled;
+    private final AtomicInteger skippedRefreshes = new AtomicInteger();
+    
+    // Live updates; registration and liveWanted are only touched on the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // One thread, so snapshots are applied in the order they arrived
+    private final ExecutorService liveExecutor = Executors.newSingleThreadExecutor();
+    private ListenerRegistration liveRegistration;
+    private boolean liveWanted;
+    
+    CatalogSyncManager(Context context, CatalogBackend backend, ExecutorService executor) {
+        this(new RoomCatalogStore(AppDatabase.getInstance(context)), backend,
+                TrackSearchEngine.getInstance(context),
+                context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE),
+                () -> context.getAssets().open(Constants.CATALOG_SNAPSHOT_ASSET), executor);
+    }
+    
+    CatalogSyncManager(CatalogStore store, CatalogBackend backend, TrackSearchEngine searchEngine,
+                       SharedPreferences prefs, SnapshotSource snapshot, ExecutorService executor) {
+        this.store = store;
+        this.backend = backend;
+        this.searchEngine = searchEngine;
+        this.prefs = prefs;
+        this.snapshot = snapshot;
+        this.executor = executor;
+    }
+    
+    public void sync(MusicRepository.OnOperationCompleteListener listener) {
+        synchronized (pendingListeners) {
+            pendingListeners.add(listener);
+            if (pendingListeners.size() > 1) {
+                return;
+            }
+            cancelled = false;
+        }
+        executor.execute(this::startSync);
+    }
+    
+    /**
+     * Stop the running sync after the page being written. Everything written so far is
+     * kept; a delta sync also keeps the cursor it reached.
+     */
+    public void cancel() {
+        synchronized (pendingListeners) {
+            if (!pendingListeners.isEmpty()) {
+                cancelled = true;
+            }
+        }
+    }
+    
+    /**
+     * True if a sync has completed recently enough for the local table to hold the whole
+     * catalog, so a remote query cannot find more. Reads preferences only, safe on the
+     * main thread.
+     */
+    public boolean isCatalogComplete() {
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        long syncedAt = prefs.getLong(Constants.PREF_CATALOG_SYNCED_AT, 0);
+        return cursor >= 0 && System.currentTimeMillis() - syncedAt < Constants.CATALOG_TOMBSTONE_RETENTION_MS;
+    }
+    
+    /**
+     * Store tracks learned outside a sync, e.g. from a remote search. They go through
+     * the same upsert as synced tracks, so local columns are kept.
+     */
+    public void storeTracks(List<Track> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                store.applyChanges(tracks, Collections.emptyList());
+                searchEngine.update(tracks, Collections.emptyList());
+            } catch (Exception e) {
+                Log.e(TAG, "Error storing tracks", e);
+            }
+        });
+    }
+    
+    /**
+     * Number of refreshes that ended after the manifest check, since the app started
+     */
+    public int getSkippedRefreshCount() {
+        return skippedRefreshes.get();
+    }
+    
+    /**
+     * Progress of the running sync, null while none is running
+     */
+    public LiveData<Progress> getProgress() {
+        return progress;
+    }
+    
+    /**
+     * Start listening to catalog changes if the user enabled live updates. Without a
+     * usable cursor a sync runs first, so the listener never has to replay the whole
+     * collection. Call on the main thread.
+     */
+    public void startLiveUpdates() {
+        if (!prefs.getBoolean(Constants.PREF_LIVE_CATALOG_UPDATES, false)) {
+            return;
+        }
+        liveWanted = true;
+        if (liveRegistration != null) {
+            return;
+        }
+        executor.execute(() -> {
+            if (isCursorValid(prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1))) {
+                mainHandler.post(this::registerLiveListener);
+                return;
+            }
+            sync(new MusicRepository.OnOperationCompleteListener() {
+                @Override
+                public void onSuccess() {
+                    mainHandler.post(CatalogSyncManager.this::registerLiveListener);
+                }
+                
+                @Override
+                public void onError(String error) {
+                    Log.w(TAG, "Live updates not started: " + error);
+                }
+            });
+        });
+    }
+    
+    /**
+     * Stop listening, e.g. when the app goes to the background. Call on the main thread.
+     */
+    public void stopLiveUpdates() {
+        liveWanted = false;
+        if (liveRegistration != null) {
+            liveRegistration.remove();
+            liveRegistration = null;
+            Log.d(TAG, "Live updates stopped");
+        }
+    }
+    
+    private void registerLiveListener() {
+        if (!liveWanted || liveRegistration != null) {
+            return;
+        }
+        String field = prefs.getString(Constants.PREF_CATALOG_CURSOR_FIELD, FIELD_UPDATED_AT);
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        Log.d(TAG, "Live updates from " + field + " " + cursor);
+        liveRegistration = backend.listenTrackChanges(field, cursor,
+                new FirebaseHelper.OnTrackChangesLoadedListener() {
+            @Override
+            public void onSuccess(FirebaseHelper.TrackChanges changes) {
+                liveExecutor.execute(() -> applyLiveChanges(field, changes));
+            }
+            
+            @Override
+            public void onError(String error) {
+                // Firestore has dropped the listener; the next start registers a new one
+                liveRegistration = null;
+            }
+        });
+    }
+    
+    private void applyLiveChanges(String field, FirebaseHelper.TrackChanges changes) {
+        List<Track> tracks = changes.getTracks();
+        List<String> deletedIds = changes.getDeletedIds();
+        int batch = Constants.LIVE_CATALOG_BATCH_SIZE;
+        int written = 0;
+        try {
+            for (int i = 0; i < tracks.size(); i += batch) {
+                List<Track> chunk = tracks.subList(i, Math.min(i + batch, tracks.size()));
+                written += store.applyChanges(chunk, Collections.emptyList());
+            }
+            store.deleteTracks(deletedIds);
+        } catch (Exception e) {
+            // The cursor stays put, so the next start delivers these documents again
+            Log.e(TAG, "Error applying live catalog changes", e);
+            return;
+        }
+        searchEngine.update(tracks, deletedIds);
+        
+        // The listener has seen everything up to now, tombstones included. A full sync
+        // running meanwhile has cleared the cursor and sets it itself when done.
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        if (cursor >= 0 && field.equals(prefs.getString(Constants.PREF_CATALOG_CURSOR_FIELD, FIELD_UPDATED_AT))) {
+            prefs.edit()
+                    .putLong(Constants.PREF_CATALOG_CURSOR, Math.max(cursor, changes.getMaxCursor(field)))
+                    .putLong(Constants.PREF_CATALOG_SYNCED_AT, System.currentTimeMillis())
+                    .apply();
+        }
+        if (written > 0 || !deletedIds.isEmpty()) {
+            backend.invalidateQueryCache();
+        }
+        if (changes.getDocumentCount() > 0) {
+            Log.d(TAG, "Live update: " + changes.getDocumentCount() + " changes, wrote " + written
+                    + ", removed " + deletedIds.size());
+        }
+    }
+    
+    private void startSync() {
+        // Not the row count: remote search hits may already be stored before the first sync
+        if (prefs.getLong(Constants.PREF_CATALOG_SYNCED_AT, 0) == 0) {
+            loadSnapshot();
+        }
+        backend.getCatalogManifest(new FirebaseHelper.OnCatalogManifestLoadedListener() {
+            @Override
+            public void onSuccess(FirebaseHelper.CatalogManifest manifest) {
+                executor.execute(() -> startSync(manifest));
+            }
+            
+            @Override
+            public void onError(String error) {
+                // Only an optimization; the sync itself reports if Firestore is unreachable
+                executor.execute(() -> startSync(null));
+            }
+        });
+    }
+    
+    private void startSync(FirebaseHelper.CatalogManifest manifest) {
+        String field = prefs.getString(Constants.PREF_CATALOG_CURSOR_FIELD, FIELD_UPDATED_AT);
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        boolean cursorValid = isCursorValid(cursor);
+        if (manifest != null && cursorValid
+                && manifest.getVersion() == prefs.getLong(Constants.PREF_CATALOG_VERSION, -1)
+                && (manifest.getTrackCount() < 0 || manifest.getTrackCount() == store.getTrackCount())) {
+            skippedRefreshes.incrementAndGet();
+            Log.d(TAG, "Catalog unchanged at version " + manifest.getVersion() + ", refresh skipped");
+            finish(null);
+            return;
+        }
+        
+        // A catalog rebuilt after the cursor may have lost the tombstones a delta relies on
+        boolean full = !cursorValid || (manifest != null && manifest.getResetAt() > cursor);
+        int pageSize = Math.max(1, prefs.getInt(Constants.PREF_CATALOG_PAGE_SIZE, Constants.CATALOG_PAGE_SIZE));
+        SyncRun run = new SyncRun(full, field, cursor, pageSize, manifest);
+        if (run.full) {
+            // A full sync cut short leaves rows behind; the old cursor must not make them look complete
+            prefs.edit().remove(Constants.PREF_CATALOG_CURSOR).apply();
+        }
+        Log.d(TAG, run.full ? "Full catalog sync" : "Delta catalog sync from " + field + " " + cursor);
+        progress.postValue(new Progress(run.full, 0, 0));
+        fetchPage(run, null);
+    }
+    
+    /**
+     * Bulk-load the bundled snapshot into the tracks table before the first sync and take
+     * over its cursor. The cursor is only stored once every track is in, so a snapshot
+     * that fails halfway is followed by a full sync.
+     */
+    private void loadSnapshot() {
+        long startedAt = SystemClock.elapsedRealtime();
+        prefs.edit().remove(Constants.PREF_CATALOG_CURSOR).apply();
+        // Search hits stored before the first sync need the regular upsert, otherwise plain inserts
+        boolean empty = store.getTrackCount() == 0;
+        try (CatalogSnapshot.Reader reader = new CatalogSnapshot.Reader(snapshot.open())) {
+            List<Track> batch = new ArrayList<>(Constants.CATALOG_PAGE_SIZE);
+            // A transaction per batch lets Home show the first ones
+            while (reader.readTracks(batch, Constants.CATALOG_PAGE_SIZE) > 0) {
+                if (empty) {
+                    store.insertNewTracks(batch);
+                } else {
+                    store.applyChanges(batch, Collections.emptyList());
+                }
+                searchEngine.update(new ArrayList<>(batch), Collections.emptyList());
+                batch.clear();
+            }
+            prefs.edit()
+                    .putString(Constants.PREF_CATALOG_CURSOR_FIELD, reader.getCursorField())
+                    .putLong(Constants.PREF_CATALOG_CURSOR, reader.getCursor())
+                    .putLong(Constants.PREF_CATALOG_SYNCED_AT, reader.getGeneratedAt())
+                    .apply();
+            Log.d(TAG, "Loaded " + reader.getTrackCount() + " tracks from the catalog snapshot in "
+                    + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "No catalog snapshot bundled");
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not load the catalog snapshot", e);
+        }
+    }
+    
+    private void fetchPage(SyncRun run, FirebaseHelper.TrackChanges previous) {
+        if (cancelled) {
+            Log.d(TAG, "Sync cancelled after " + run.pages + " pages");
+            finish(Constants.ERROR_SYNC_CANCELLED);
+            return;
+        }
+        backend.getTrackChanges(run.field, run.full ? -1 : run.cursor, previous, run.pageSize,
+                new FirebaseHelper.OnTrackChangesLoadedListener() {
+            @Override
+            public void onSuccess(FirebaseHelper.TrackChanges changes) {
+                executor.execute(() -> {
+                    try {
+                        applyPage(run, changes);
+                        if (changes.isLastPage() || changes.getDocumentCount() == 0) {
+                            complete(run);
+                            finish(null);
+                        } else {
+                            fetchPage(run, changes);
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error applying catalog changes", e);
+                        finish("Failed to save tracks: " + e.getMessage());
+                    }
+                });
+            }
+            
+            @Override
+            public void onError(String error) {
+                finish(error);
+            }
+        });
+    }
+    
+    private boolean isCursorValid(long cursor) {
+        return cursor >= 0 && CatalogSyncRun.isCursorValid(cursor, store.getTrackCount(),
+                prefs.getLong(Constants.PREF_CATALOG_SYNCED_AT, 0), System.currentTimeMillis());
+    }
+    
+    private void applyPage(SyncRun run, FirebaseHelper.TrackChanges changes) {
+        List<String> deletedIds = changes.getDeletedIds();
+        List<Track> tracks = changes.getTracks();
+        int written = store.applyChanges(tracks, deletedIds);
+        searchEngine.update(tracks, deletedIds);
+        
+        run.addPage(tracks, changes.getDocumentCount(), deletedIds.size(), written,
+                changes.getMaxCursor(CatalogSyncRun.FIELD_UPDATED_AT),
+                changes.getMaxCursor(CatalogSyncRun.FIELD_CREATED_AT), changes.isMissingUpdatedAt());
+        if (!run.full) {
+            // Pages come in cursor order, so a cancelled delta sync resumes from here
+            prefs.edit().putLong(Constants.PREF_CATALOG_CURSOR, run.getMaxCursor(run.field)).apply();
+        }
+        progress.postValue(new Progress(run.full, run.pages, run.documents));
+    }
+    
+    private void complete(SyncRun run) {
+        if (run.full) {
+            List<String> missing = run.findMissing(store.getAllTrackIds());
+            store.deleteTracks(missing);
+            searchEngine.update(Collections.emptyList(), missing);
+            run.deleted += missing.size();
+        }
+        String nextField = run.getNextField();
+        
+        if (run.written > 0 || run.deleted > 0) {
+            backend.invalidateQueryCache();
+        }
+        
+        long nextCursor = run.getNextCursor(nextField);
+        SharedPreferences.Editor editor = prefs.edit()
+                .putString(Constants.PREF_CATALOG_CURSOR_FIELD, nextField)
+                .putLong(Constants.PREF_CATALOG_CURSOR, nextCursor)
+                .putLong(Constants.PREF_CATALOG_SYNCED_AT, System.currentTimeMillis())
+                .remove(Constants.PREF_CATALOG_VERSION);
+        if (run.manifest != null) {
+            int localCount = store.getTrackCount();
+            if (run.manifest.getTrackCount() < 0 || localCount == run.manifest.getTrackCount()) {
+                // Only a copy that matches the manifest may skip later refreshes
+                editor.putLong(Constants.PREF_CATALOG_VERSION, run.manifest.getVersion());
+            } else if (!run.full) {
+                // A delta missed something; the next refresh starts over
+                Log.w(TAG, "Have " + localCount + " tracks, manifest says " + run.manifest.getTrackCount());
+                editor.remove(Constants.PREF_CATALOG_CURSOR);
+            }
+        }
+        editor.apply();
+        Log.d(TAG, "Synced " + run.documents + " documents in " + run.pages + " pages, wrote "
+                + run.written + ", removed " + run.deleted + ", cursor " + nextField + " " + nextCursor);
+    }
+    
+    private void finish(String error) {
+        List<MusicRepository.OnOperationCompleteListener> listeners;
+        synchronized (pendingListeners) {
+            listeners = new ArrayList<>(pendingListeners);
+            pendingListeners.clear();
+        }
+        progress.postValue(null);
+        for (MusicRepository.OnOperationCompleteListener listener : listeners) {
+            if (error == null) {
+                listener.onSuccess();
+            } else {
+                listener.onError(error);
+            }
+        }
+    }
+    
+    /**
+     * Opens the catalog snapshot bundled with the app
+     */
+    interface SnapshotSource {
+        /** @throws FileNotFoundException if no snapshot is bundled */
+        InputStream open() throws IOException;
+    }
+    
+    private static class SyncRun extends CatalogSyncRun {
+        // Version the catalog had when the sync started, null if not published
+        final FirebaseHelper.CatalogManifest manifest;
+        
+        SyncRun(boolean full, String field, long cursor, int pageSize, FirebaseHelper.CatalogManifest manifest) {
+            super(full, field, cursor, pageSize, System.currentTimeMillis());
+            this.manifest = manifest;
+        }
+    }
+    
+    /**
+     * How far the running sync has got. The catalog size is not known up front, so only
+     * what has been written so far is reported.
+     */
+    public static class Progress {
+        private final boolean fullSync;
+        private final int pages;
+        private final int documents;
+        
+        Progress(boolean fullSync, int pages, int documents) {
+            this.fullSync = fullSync;
+            this.pages = pages;
+            this.documents = documents;
+        }
+        
+        public boolean isFullSync() { return fullSync; }
+        public int getPages() { return pages; }
+        public int getDocuments() { return documents; }
+    }
+}
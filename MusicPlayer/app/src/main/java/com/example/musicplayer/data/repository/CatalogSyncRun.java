@@ -0,0 +1,125 @@
+package com.example.musicplayer.data.repository;
+
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * State carried from one page of a catalog sync to the next, and the cursor rules
+ * that decide where the next sync starts. Kept free of Firestore and Room so the
+ * rules can be checked on their own.
+ */
+class CatalogSyncRun {
+    
+    static final String FIELD_UPDATED_AT = "updatedAt";
+    static final String FIELD_CREATED_AT = "createdAt";
+    
+    final boolean full;
+    final String field;
+    final long cursor;
+    final int pageSize;
+    final long startedAt;
+    // Only a full sync needs these, to find tracks deleted without a tombstone
+    private final Set<String> remoteIds = new HashSet<>();
+    int pages;
+    int documents;
+    int deleted;
+    int written;
+    private long maxUpdatedAt = -1;
+    private long maxCreatedAt = -1;
+    private boolean missingUpdatedAt;
+    
+    CatalogSyncRun(boolean full, String field, long cursor, int pageSize, long startedAt) {
+        this.full = full;
+        this.field = field;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+        this.startedAt = startedAt;
+    }
+    
+    /**
+     * A cursor is only good if a full sync has filled the table since the database was
+     * last created, it is not from the future, and the tombstones it needs to see
+     * deletions have not been purged yet.
+     */
+    static boolean isCursorValid(long cursor, int trackCount, long syncedAt, long now) {
+        if (cursor < 0 || trackCount == 0) {
+            return false;
+        }
+        return cursor <= now + Constants.CATALOG_CLOCK_SKEW_MS
+                && now - syncedAt < Constants.CATALOG_TOMBSTONE_RETENTION_MS;
+    }
+    
+    /**
+     * Account for a page once it has been written
+     *
+     * @param tracks           live tracks on the page, tombstones left out
+     * @param pageMaxUpdatedAt highest updatedAt on the page, tombstones included, -1 if none
+     * @param pageMaxCreatedAt highest createdAt on the page, tombstones included, -1 if none
+     */
+    void addPage(List<Track> tracks, int pageDocuments, int pageDeleted, int pageWritten,
+                 long pageMaxUpdatedAt, long pageMaxCreatedAt, boolean pageMissingUpdatedAt) {
+        pages++;
+        documents += pageDocuments;
+        deleted += pageDeleted;
+        written += pageWritten;
+        maxUpdatedAt = Math.max(maxUpdatedAt, pageMaxUpdatedAt);
+        maxCreatedAt = Math.max(maxCreatedAt, pageMaxCreatedAt);
+        missingUpdatedAt |= pageMissingUpdatedAt;
+        if (full) {
+            for (Track track : tracks) {
+                remoteIds.add(track.getId());
+            }
+        }
+    }
+    
+    /**
+     * Local tracks a full sync did not see. Tracks removed without leaving a tombstone
+     * only show up this way.
+     */
+    List<String> findMissing(List<String> localIds) {
+        List<String> missing = new ArrayList<>();
+        if (!full) {
+            return missing;
+        }
+        for (String trackId : localIds) {
+            if (!remoteIds.contains(trackId)) {
+                missing.add(trackId);
+            }
+        }
+        return missing;
+    }
+    
+    /**
+     * Cursor field of the next delta sync. Without updatedAt on every document edits
+     * cannot be tracked, only new tracks.
+     */
+    String getNextField() {
+        if (!full) {
+            return field;
+        }
+        return missingUpdatedAt ? FIELD_CREATED_AT : FIELD_UPDATED_AT;
+    }
+    
+    long getMaxCursor(String cursorField) {
+        long max = FIELD_UPDATED_AT.equals(cursorField) ? maxUpdatedAt : maxCreatedAt;
+        // A delta sync never moves the cursor back
+        return full ? max : Math.max(cursor, max);
+    }
+    
+    /**
+     * Where the next delta sync starts. A full sync pages in document id order, so a
+     * track edited behind the pager can have a timestamp below the highest one seen;
+     * only the time the sync started, less the clock skew, is known to be safe.
+     */
+    long getNextCursor(String cursorField) {
+        if (full) {
+            return Math.max(0, startedAt - Constants.CATALOG_CLOCK_SKEW_MS);
+        }
+        return Math.max(0, getMaxCursor(cursorField));
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.musicplayer.data.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.remote.CatalogBackend;
+import com.example.musicplayer.data.remote.FirebaseHelper;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.SearchUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search that answers from the local catalog at once and adds what Firestore finds.
+ * Remote hits are stored locally, so the local results soon contain them and later
+ * searches find them without the network. Once the local catalog is complete the
+ * remote query is skipped altogether.
+ */
+public class HybridTrackSearch {
+    
+    private final LocalCatalog catalog;
+    private final CatalogBackend backend;
+    private final Timeouts timeouts;
+    
+    HybridTrackSearch(MusicRepository repository, CatalogBackend backend, CatalogSyncManager catalogSyncManager) {
+        this(new LocalCatalog() {
+            @Override
+            public LiveData<List<Track>> search(String query) {
+                return repository.searchTracks(query);
+            }
+            
+            @Override
+            public boolean isComplete() {
+                return catalogSyncManager.isCatalogComplete();
+            }
+            
+            @Override
+            public void store(List<Track> tracks) {
+                catalogSyncManager.storeTracks(tracks);
+            }
+        }, backend, new Timeouts() {
+            private final Handler mainHandler = new Handler(Looper.getMainLooper());
+            
+            @Override
+            public void postDelayed(Runnable timeout, long delayMs) {
+                mainHandler.postDelayed(timeout, delayMs);
+            }
+            
+            @Override
+            public void removeCallbacks(Runnable timeout) {
+                mainHandler.removeCallbacks(timeout);
+            }
+        });
+    }
+    
+    HybridTrackSearch(LocalCatalog catalog, CatalogBackend backend, Timeouts timeouts) {
+        this.catalog = catalog;
+        this.backend = backend;
+        this.timeouts = timeouts;
+    }
+    
+    /**
+     * Emits the local results first and again whenever they or the remote results
+     * arrive. Call on the main thread.
+     */
+    LiveData<Results> search(String query) {
+        MediatorLiveData<Results> results = new MediatorLiveData<>();
+        // Only touched on the main thread, where LiveData and Firestore deliver
+        SearchState state = new SearchState();
+        results.addSource(catalog.search(query), local -> {
+            state.local = local;
+            results.setValue(state.toResults());
+        });
+        
+        String remoteQuery = query != null ? query.trim() : "";
+        if (SearchUtils.tokenize(remoteQuery).isEmpty() || catalog.isComplete()) {
+            return results;
+        }
+        
+        state.remotePending = true;
+        Runnable timeout = () -> {
+            if (state.remotePending) {
+                // Late results are still stored below, the next search gets them locally
+                state.remotePending = false;
+                state.remoteFailed = true;
+                results.setValue(state.toResults());
+            }
+        };
+        timeouts.postDelayed(timeout, Constants.SEARCH_REMOTE_TIMEOUT_MS);
+        
+        backend.searchTracks(remoteQuery, new FirebaseHelper.OnTracksLoadedListener() {
+            @Override
+            public void onSuccess(List<Track> tracks) {
+                catalog.store(tracks);
+                if (state.remotePending) {
+                    timeouts.removeCallbacks(timeout);
+                    state.remotePending = false;
+                    state.remote = tracks;
+                    results.setValue(state.toResults());
+                }
+            }
+            
+            @Override
+            public void onError(String error) {
+                if (state.remotePending) {
+                    timeouts.removeCallbacks(timeout);
+                    state.remotePending = false;
+                    state.remoteFailed = true;
+                    results.setValue(state.toResults());
+                }
+            }
+        });
+        return results;
+    }
+    
+    /**
+     * The local side of a search: the tracks table and whether it holds the whole catalog
+     */
+    interface LocalCatalog {
+        LiveData<List<Track>> search(String query);
+        
+        boolean isComplete();
+        
+        /** Store remote hits so later searches find them locally */
+        void store(List<Track> tracks);
+    }
+    
+    /**
+     * Runs the remote timeout, on the main thread's Handler outside tests
+     */
+    interface Timeouts {
+        void postDelayed(Runnable timeout, long delayMs);
+        
+        void removeCallbacks(Runnable timeout);
+    }
+    
+    private static class SearchState {
+        List<Track> local = Collections.emptyList();
+        List<Track> remote = Collections.emptyList();
+        boolean remotePending;
+        boolean remoteFailed;
+        
+        /**
+         * Local results in rank order, then the remote ones not stored locally yet
+         */
+        Results toResults() {
+            Map<String, Track> merged = new LinkedHashMap<>();
+            for (Track track : local) {
+                merged.put(track.getId(), track);
+            }
+            for (Track track : remote) {
+                if (merged.size() >= Constants.SEARCH_RESULT_LIMIT) {
+                    break;
+                }
+                if (!merged.containsKey(track.getId())) {
+                    merged.put(track.getId(), track);
+                }
+            }
+            return new Results(new ArrayList<>(merged.values()), remotePending, remoteFailed);
+        }
+    }
+    
+    public static class Results {
+        private final List<Track> tracks;
+        private final boolean remotePending;
+        private final boolean remoteFailed;
+        
+        Results(List<Track> tracks, boolean remotePending, boolean remoteFailed) {
+            this.tracks = tracks;
+            this.remotePending = remotePending;
+            this.remoteFailed = remoteFailed;
+        }
+        
+        public List<Track> getTracks() { return tracks; }
+        /** More results may still come from Firestore */
+        public boolean isRemotePending() { return remotePending; }
+        /** Firestore failed or timed out, only local results are shown */
+        public boolean isRemoteFailed() { return remoteFailed; }
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 
 import com.example.musicplayer.data.db.AppDatabase;
 import com.example.musicplayer.data.db.dao.DownloadDao;
@@ -18,33 +19,53 @@ import com.example.musicplayer.data.db.entity.PlaylistTrack;
 import com.example.musicplayer.data.db.entity.Recent;
 import com.example.musicplayer.data.db.entity.Track;
 import com.example.musicplayer.data.remote.FirebaseHelper;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.SearchUtils;
+import com.example.musicplayer.worker.DownloadProgressTracker;
+import com.example.musicplayer.worker.DownloadScheduler;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MusicRepository {
     
     private static final String TAG = "MusicRepository";
     private static MusicRepository instance;
     
+    private final AppDatabase database;
     private final TrackDao trackDao;
     private final PlaylistDao playlistDao;
     private final RecentDao recentDao;
     private final FavoriteDao favoriteDao;
     private final DownloadDao downloadDao;
     private final FirebaseHelper firebaseHelper;
+    private final DownloadScheduler downloadScheduler;
+    private final StorageQuotaManager storageQuotaManager;
+    private final CatalogSyncManager catalogSyncManager;
+    private final TrackSearchEngine searchEngine;
+    private final HybridTrackSearch hybridSearch;
     private final ExecutorService executor;
     
     private MusicRepository(Context context) {
-        AppDatabase database = AppDatabase.getInstance(context);
+        database = AppDatabase.getInstance(context);
         trackDao = database.trackDao();
         playlistDao = database.playlistDao();
         recentDao = database.recentDao();
         favoriteDao = database.favoriteDao();
         downloadDao = database.downloadDao();
         firebaseHelper = new FirebaseHelper();
+        downloadScheduler = DownloadScheduler.getInstance(context);
+        storageQuotaManager = StorageQuotaManager.getInstance(context);
         executor = Executors.newFixedThreadPool(4);
+        catalogSyncManager = new CatalogSyncManager(context, firebaseHelper, executor);
+        searchEngine = TrackSearchEngine.getInstance(context);
+        hybridSearch = new HybridTrackSearch(this, firebaseHelper, catalogSyncManager);
     }
     
     public static synchronized MusicRepository getInstance(Context context) {
@@ -75,23 +96,78 @@ public class MusicRepository {
         return trackDao.getDownloadedTracks();
     }
     
+    /**
+     * Full-text search over title, artist, album and tags. Every word of the query matches
+     * as a word prefix; results are ordered by relevance and follow changes to the catalog.
+     */
     public LiveData<List<Track>> searchTracks(String query) {
-        return trackDao.searchTracks("%" + query + "%");
+        MediatorLiveData<List<Track>> results = new MediatorLiveData<>();
+        String match = SearchUtils.toFtsQuery(query);
+        if (match == null) {
+            results.setValue(Collections.emptyList());
+            return results;
+        }
+        // Rankings run on the pool and may finish out of order; only the newest is published
+        AtomicInteger latest = new AtomicInteger();
+        results.addSource(trackDao.searchTracks(match, Constants.SEARCH_CANDIDATE_LIMIT), matches -> {
+            int generation = latest.incrementAndGet();
+            executor.execute(() -> {
+                List<Track> ranked = rankMatches(matches);
+                synchronized (latest) {
+                    if (generation == latest.get()) {
+                        results.postValue(ranked);
+                    }
+                }
+            });
+        });
+        return results;
+    }
+    
+    /**
+     * Search the local catalog and Firestore together. Local results come at once, remote
+     * ones are merged in when they arrive and stored for later searches. Call on the
+     * main thread.
+     */
+    public LiveData<HybridTrackSearch.Results> searchEverywhere(String query) {
+        return hybridSearch.search(query);
+    }
+    
+    /**
+     * As-you-type search over an in-memory index; feed it with search() and observe
+     * getResults()
+     */
+    public TrackSearchEngine getSearchEngine() {
+        return searchEngine;
+    }
+    
+    private List<Track> rankMatches(List<TrackDao.SearchMatch> matches) {
+        Map<String, Double> scores = new HashMap<>();
+        for (TrackDao.SearchMatch match : matches) {
+            scores.put(match.getTrackId(), SearchUtils.score(match.getMatchInfo()));
+        }
+        List<String> trackIds = new ArrayList<>(scores.keySet());
+        Collections.sort(trackIds, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        if (trackIds.size() > Constants.SEARCH_RESULT_LIMIT) {
+            trackIds = trackIds.subList(0, Constants.SEARCH_RESULT_LIMIT);
+        }
+        
+        List<Track> tracks = new ArrayList<>(trackDao.getTracksByIds(trackIds));
+        Collections.sort(tracks, (a, b) -> Double.compare(scores.get(b.getId()), scores.get(a.getId())));
+        return tracks;
     }
     
     public LiveData<Track> getTrackById(String trackId) {
         return trackDao.getTrackByIdLive(trackId);
     }
     
-    public void refreshTracksFromFirebase(FirebaseHelper.OnTracksLoadedListener listener) {
-        firebaseHelper.getAllTracks(new FirebaseHelper.OnTracksLoadedListener() {
+    /**
+     * Bring the local catalog up to date, fetching only what changed since the last sync
+     */
+    public void refreshTracksFromFirebase(OnOperationCompleteListener listener) {
+        catalogSyncManager.sync(new OnOperationCompleteListener() {
             @Override
-            public void onSuccess(List<Track> tracks) {
-                executor.execute(() -> {
-                    trackDao.insertTracks(tracks);
-                    Log.d(TAG, "Inserted " + tracks.size() + " tracks from Firebase");
-                });
-                listener.onSuccess(tracks);
+            public void onSuccess() {
+                listener.onSuccess();
             }
             
             @Override
@@ -102,6 +178,29 @@ public class MusicRepository {
         });
     }
     
+    public void cancelCatalogSync() {
+        catalogSyncManager.cancel();
+    }
+    
+    /**
+     * How many refreshes were skipped because the catalog manifest had not changed
+     */
+    public int getSkippedCatalogRefreshCount() {
+        return catalogSyncManager.getSkippedRefreshCount();
+    }
+    
+    public void startLiveCatalogUpdates() {
+        catalogSyncManager.startLiveUpdates();
+    }
+    
+    public void stopLiveCatalogUpdates() {
+        catalogSyncManager.stopLiveUpdates();
+    }
+    
+    public LiveData<CatalogSyncManager.Progress> getCatalogSyncProgress() {
+        return catalogSyncManager.getProgress();
+    }
+    
     public void refreshFeaturedTracks(FirebaseHelper.OnTracksLoadedListener listener) {
         firebaseHelper.getFeaturedTracks(listener);
     }
@@ -190,19 +289,48 @@ public class MusicRepository {
         return downloadDao.getDownloadByTrackIdLive(trackId);
     }
     
+    /**
+     * Live progress of running downloads keyed by track ID. Updates far more often than
+     * the downloads table, which is only written at checkpoints.
+     */
+    public LiveData<Map<String, DownloadProgressTracker.Progress>> getDownloadProgress() {
+        return DownloadProgressTracker.getInstance().getProgress();
+    }
+    
     public void startDownload(String trackId, OnDownloadStartedListener listener) {
         executor.execute(() -> {
             try {
-                // Check if already downloading or downloaded
-                Download existing = downloadDao.getDownloadByTrackId(trackId);
-                if (existing != null && !existing.isFailed()) {
+                // Check and insert in one transaction so two quick taps cannot both queue the track
+                long downloadId = database.runInTransaction(() -> {
+                    Download existing = downloadDao.getDownloadByTrackId(trackId);
+                    if (existing != null && !existing.isFailed() && !existing.isPaused()) {
+                        return -1L;
+                    }
+                    
+                    // Requeue a failed or paused download in place so its partial file and
+                    // validators are kept; a tapped track leaves its batch and goes first
+                    if (existing != null) {
+                        existing.setStatus(Download.STATUS_QUEUED);
+                        existing.setReason(null);
+                        existing.setFinishedAt(0);
+                        existing.setWorkId(null);
+                        existing.setBatchId(null);
+                        existing.setPriority(Download.PRIORITY_USER);
+                        downloadDao.updateDownload(existing);
+                        return existing.getId();
+                    }
+                    
+                    // Create new download entry, a single tap goes ahead of batch downloads
+                    Download download = new Download(trackId, Download.STATUS_QUEUED);
+                    download.setPriority(Download.PRIORITY_USER);
+                    return downloadDao.insertDownload(download);
+                });
+                
+                if (downloadId == -1) {
                     listener.onError("Track is already downloaded or downloading");
                     return;
                 }
-                
-                // Create new download entry
-                Download download = new Download(trackId, Download.STATUS_QUEUED);
-                long downloadId = downloadDao.insertDownload(download);
+                downloadScheduler.schedule();
                 listener.onSuccess(downloadId);
             } catch (Exception e) {
                 listener.onError("Failed to start download: " + e.getMessage());
@@ -210,6 +338,69 @@ public class MusicRepository {
         });
     }
     
+    /**
+     * Queue every track of a playlist for download, in playlist order
+     */
+    public void startPlaylistDownload(String playlistId, OnBatchStartedListener listener) {
+        executor.execute(() -> {
+            try {
+                List<String> trackIds = playlistDao.getPlaylistTrackIds(playlistId);
+                startBatch(trackIds, Download.PRIORITY_BATCH, listener);
+            } catch (Exception e) {
+                listener.onError("Failed to start playlist download: " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Queue a list of tracks for download. They are started in list order, at most
+     * PREF_MAX_CONCURRENT_DOWNLOADS at a time, behind any download with a higher priority.
+     */
+    public void startBatchDownload(List<String> trackIds, int priority, OnBatchStartedListener listener) {
+        executor.execute(() -> {
+            try {
+                startBatch(trackIds, priority, listener);
+            } catch (Exception e) {
+                listener.onError("Failed to start downloads: " + e.getMessage());
+            }
+        });
+    }
+    
+    private void startBatch(List<String> trackIds, int priority, OnBatchStartedListener listener) {
+        String batchId = downloadScheduler.enqueueBatch(trackIds, priority);
+        if (batchId == null) {
+            listener.onError("All tracks are already downloaded or downloading");
+        } else {
+            listener.onSuccess(batchId);
+        }
+    }
+    
+    public void pauseBatchDownload(String batchId, OnOperationCompleteListener listener) {
+        executor.execute(() -> {
+            try {
+                downloadScheduler.pauseBatch(batchId);
+                listener.onSuccess();
+            } catch (Exception e) {
+                listener.onError("Failed to pause downloads: " + e.getMessage());
+            }
+        });
+    }
+    
+    public void resumeBatchDownload(String batchId, OnOperationCompleteListener listener) {
+        executor.execute(() -> {
+            try {
+                downloadScheduler.resumeBatch(batchId);
+                listener.onSuccess();
+            } catch (Exception e) {
+                listener.onError("Failed to resume downloads: " + e.getMessage());
+            }
+        });
+    }
+    
+    public LiveData<DownloadDao.BatchProgress> getBatchProgress(String batchId) {
+        return downloadDao.getBatchProgress(batchId);
+    }
+    
     public void updateDownloadStatus(String trackId, boolean isDownloaded, String localPath) {
         executor.execute(() -> {
             trackDao.updateDownloadStatus(trackId, isDownloaded, localPath);
@@ -219,8 +410,8 @@ public class MusicRepository {
     public void deleteDownload(String trackId, OnOperationCompleteListener listener) {
         executor.execute(() -> {
             try {
-                downloadDao.deleteDownloadByTrackId(trackId);
-                trackDao.updateDownloadStatus(trackId, false, null);
+                downloadScheduler.cancel(trackId);
+                storageQuotaManager.removeDownload(trackId);
                 listener.onSuccess();
             } catch (Exception e) {
                 listener.onError("Failed to delete download: " + e.getMessage());
@@ -238,4 +429,9 @@ public class MusicRepository {
         void onSuccess(long downloadId);
         void onError(String error);
     }
+    
+    public interface OnBatchStartedListener {
+        void onSuccess(String batchId);
+        void onError(String error);
+    }
 }
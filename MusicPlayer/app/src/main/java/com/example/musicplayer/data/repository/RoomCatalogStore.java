@@ -0,0 +1,68 @@
+package com.example.musicplayer.data.repository;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.dao.TagDao;
+import com.example.musicplayer.data.db.dao.TrackDao;
+import com.example.musicplayer.data.db.entity.Track;
+
+import java.util.List;
+
+/**
+ * CatalogStore on the app database. Statements are chunked so their bound variables
+ * stay well below SQLite's limit of 999.
+ */
+class RoomCatalogStore implements CatalogStore {
+    
+    private static final int DELETE_CHUNK_SIZE = 500;
+    private static final int UPSERT_CHUNK_SIZE = 500;
+    
+    private final AppDatabase database;
+    private final TrackDao trackDao;
+    private final TagDao tagDao;
+    
+    RoomCatalogStore(AppDatabase database) {
+        this.database = database;
+        this.trackDao = database.trackDao();
+        this.tagDao = database.tagDao();
+    }
+    
+    @Override
+    public int getTrackCount() {
+        return trackDao.getTrackCount();
+    }
+    
+    @Override
+    public List<String> getAllTrackIds() {
+        return trackDao.getAllTrackIds();
+    }
+    
+    @Override
+    public void insertNewTracks(List<Track> tracks) {
+        database.runInTransaction(() -> {
+            trackDao.insertNewTracks(tracks);
+            tagDao.replaceTrackTags(tracks);
+        });
+    }
+    
+    @Override
+    public int applyChanges(List<Track> tracks, List<String> deletedIds) {
+        return database.runInTransaction(() -> {
+            int written = 0;
+            for (int i = 0; i < tracks.size(); i += UPSERT_CHUNK_SIZE) {
+                List<Track> changed = trackDao.upsertCatalogTracks(tracks.subList(i, Math.min(i + UPSERT_CHUNK_SIZE, tracks.size())));
+                tagDao.replaceTrackTags(changed);
+                written += changed.size();
+            }
+            deleteTracks(deletedIds);
+            return written;
+        });
+    }
+    
+    @Override
+    public void deleteTracks(List<String> trackIds) {
+        // Outside a transaction each chunk holds the write lock on its own
+        for (int i = 0; i < trackIds.size(); i += DELETE_CHUNK_SIZE) {
+            trackDao.deleteTracksByIds(trackIds.subList(i, Math.min(i + DELETE_CHUNK_SIZE, trackIds.size())));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.musicplayer.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.dao.StoredFileDao;
+import com.example.musicplayer.data.db.entity.StoredFile;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.FileUtils;
+import com.example.musicplayer.utils.HashAlgorithm;
+import com.example.musicplayer.utils.Hasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Index of the files in the download directory, backed by the stored_files table.
+ * Sizes and per-track lookups are answered from the database; the directory is only
+ * walked by {@link #reconcile()}.
+ */
+public class StorageIndex {
+    
+    private static final String TAG = "StorageIndex";
+    private static final String COVER_SUFFIX = "_cover" + Constants.IMAGE_EXTENSION;
+    // Stays well below SQLite's limit of 999 bound variables
+    private static final int DELETE_CHUNK_SIZE = 500;
+    // Hashing is mostly I/O bound, more threads than this only make the disk seek
+    private static final int MAX_VERIFY_THREADS = 4;
+    private static StorageIndex instance;
+    
+    private final Context context;
+    private final AppDatabase database;
+    private final StoredFileDao storedFileDao;
+    
+    private StorageIndex(Context context) {
+        this.context = context;
+        database = AppDatabase.getInstance(context);
+        storedFileDao = database.storedFileDao();
+    }
+    
+    public static synchronized StorageIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    /**
+     * Record a file that was just written into the download directory
+     */
+    public void recordFile(String trackId, File file, String kind, String hash) {
+        storedFileDao.upsertFile(new StoredFile(file.getAbsolutePath(), trackId, kind,
+                file.length(), hash, file.lastModified()));
+    }
+    
+    public long getTotalBytes() {
+        return storedFileDao.getTotalBytes();
+    }
+    
+    public long getTotalBytes(String kind) {
+        return storedFileDao.getTotalBytes(kind);
+    }
+    
+    public long getTrackBytes(String trackId) {
+        return storedFileDao.getTrackBytes(trackId);
+    }
+    
+    /**
+     * Walk the download directory once and bring stored_files and the totals back in
+     * line with it: rows of missing files are dropped, changed files are updated and
+     * unknown files are added.
+     *
+     * @return the number of rows that had to be repaired
+     */
+    public synchronized int reconcile() {
+        Map<String, StoredFile> indexed = new HashMap<>();
+        for (StoredFile storedFile : storedFileDao.getAllFiles()) {
+            indexed.put(storedFile.getPath(), storedFile);
+        }
+        
+        List<StoredFile> changed = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        FileUtils.collectFiles(FileUtils.getMusicDownloadDirectory(context), files);
+        for (File file : files) {
+            String name = file.getName();
+            String kind = getKind(name);
+            if (kind == null) {
+                // Partial downloads and their state files are not part of the library
+                continue;
+            }
+            
+            long bytes = file.length();
+            long mtime = file.lastModified();
+            StoredFile storedFile = indexed.remove(file.getAbsolutePath());
+            if (storedFile == null) {
+                changed.add(new StoredFile(file.getAbsolutePath(), FileUtils.getTrackIdFromFileName(name),
+                        kind, bytes, null, mtime));
+            } else if (storedFile.getBytes() != bytes || storedFile.getMtime() != mtime) {
+                // The content changed behind our back, the old hash no longer applies
+                storedFile.setBytes(bytes);
+                storedFile.setMtime(mtime);
+                storedFile.setHash(null);
+                changed.add(storedFile);
+            }
+        }
+        
+        List<String> missing = new ArrayList<>(indexed.keySet());
+        database.runInTransaction(() -> {
+            for (int i = 0; i < missing.size(); i += DELETE_CHUNK_SIZE) {
+                storedFileDao.deleteFiles(missing.subList(i, Math.min(i + DELETE_CHUNK_SIZE, missing.size())));
+            }
+            storedFileDao.upsertFiles(changed);
+            storedFileDao.rebuildTotals();
+        });
+        
+        int repaired = missing.size() + changed.size();
+        Log.d(TAG, "Reconciled " + files.size() + " files, repaired " + repaired + " rows");
+        return repaired;
+    }
+    
+    /**
+     * Re-hash every downloaded track that has a checksum, several files at a time on a
+     * small fixed pool. Must not be called on the main thread.
+     *
+     * @return IDs of the tracks whose file is missing, has the wrong size or no longer
+     *         matches its checksum
+     */
+    public List<String> verifyLibrary() throws InterruptedException {
+        List<StoredFileDao.ChecksummedFile> files = storedFileDao.getChecksummedFiles();
+        List<String> corrupt = Collections.synchronizedList(new ArrayList<>());
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_VERIFY_THREADS));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (StoredFileDao.ChecksummedFile file : files) {
+                futures.add(pool.submit(() -> {
+                    if (!verifyFile(file)) {
+                        corrupt.add(file.getTrackId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error verifying file", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        Log.d(TAG, "Verified " + files.size() + " files, " + corrupt.size() + " corrupt");
+        return corrupt;
+    }
+    
+    private static boolean verifyFile(StoredFileDao.ChecksummedFile storedFile) {
+        File file = new File(storedFile.getPath());
+        if (file.length() != storedFile.getBytes()) {
+            return false;
+        }
+        HashAlgorithm algorithm = HashAlgorithm.fromName(storedFile.getChecksumAlgorithm());
+        if (algorithm == null) {
+            // Nothing to compare against
+            return true;
+        }
+        
+        Hasher hasher = algorithm.newHasher();
+        try {
+            FileUtils.updateHash(hasher, file, storedFile.getBytes());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+            return false;
+        }
+        return hasher.digestMatches(storedFile.getHash());
+    }
+    
+    private static String getKind(String name) {
+        if (name.endsWith(COVER_SUFFIX)) {
+            return StoredFile.KIND_COVER;
+        } else if (name.endsWith(Constants.AUDIO_EXTENSION)) {
+            return StoredFile.KIND_AUDIO;
+        }
+        return null;
+    }
+}
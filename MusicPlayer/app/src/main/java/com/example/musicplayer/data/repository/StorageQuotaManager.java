@@ -0,0 +1,175 @@
+package com.example.musicplayer.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.dao.DownloadDao;
+import com.example.musicplayer.data.db.dao.StoredFileDao;
+import com.example.musicplayer.data.db.dao.TrackDao;
+import com.example.musicplayer.data.db.entity.Download;
+import com.example.musicplayer.data.db.entity.StoredFile;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.FileUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps downloaded tracks within the quota set by the user. When a new download does
+ * not fit, the least valuable downloads are evicted first: tracks that were played
+ * rarely and not for a long time. Favorites and tracks in a playlist are never evicted.
+ * Space granted to a running download stays reserved until it ends, so downloads
+ * running side by side cannot all claim the same free bytes.
+ */
+public class StorageQuotaManager {
+    
+    private static final String TAG = "StorageQuotaManager";
+    private static final int EVICTION_BATCH_SIZE = 20;
+    private static StorageQuotaManager instance;
+    
+    private final Context context;
+    private final AppDatabase database;
+    private final TrackDao trackDao;
+    private final DownloadDao downloadDao;
+    private final StoredFileDao storedFileDao;
+    // Bytes still to be written by running downloads, by track ID
+    private final Map<String, Long> reservations = new HashMap<>();
+    private boolean totalsChecked;
+    
+    private StorageQuotaManager(Context context) {
+        this.context = context;
+        database = AppDatabase.getInstance(context);
+        trackDao = database.trackDao();
+        downloadDao = database.downloadDao();
+        storedFileDao = database.storedFileDao();
+    }
+    
+    public static synchronized StorageQuotaManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageQuotaManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    /**
+     * Download quota in bytes, 0 if the user turned it off
+     */
+    public long getQuotaBytes() {
+        int quotaMb = context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(Constants.PREF_DOWNLOAD_QUOTA_MB, Constants.DEFAULT_DOWNLOAD_QUOTA_MB);
+        return Math.max(0, quotaMb) * 1024L * 1024L;
+    }
+    
+    /**
+     * Size of all downloaded audio, read from the storage index
+     */
+    public long getUsedBytes() {
+        return storedFileDao.getTotalBytes(StoredFile.KIND_AUDIO);
+    }
+    
+    /**
+     * Make room for requiredBytes more, evicting downloads if the quota or the disk
+     * would otherwise be exceeded. Must not be called on the main thread.
+     *
+     * @param trackId the track about to be downloaded, never evicted itself
+     * @return false if not even evicting every candidate makes enough room
+     */
+    public synchronized boolean ensureSpace(String trackId, long requiredBytes) {
+        ensureTotals();
+        long required = Math.max(0, requiredBytes);
+        reservations.remove(trackId);
+        long pending = required;
+        for (long reserved : reservations.values()) {
+            pending += reserved;
+        }
+        long quota = getQuotaBytes();
+        long overQuota = quota > 0 ? getUsedBytes() + pending - quota : 0;
+        long diskShortfall = FileUtils.hasEnoughStorageSpace(context, pending) ? 0
+                : (long) (pending * 1.1) - FileUtils.getAvailableStorageSpace(context) + 1;
+        long toFree = Math.max(overQuota, diskShortfall);
+        if (toFree <= 0) {
+            reservations.put(trackId, required);
+            return true;
+        }
+        
+        long freed = 0;
+        while (freed < toFree) {
+            List<DownloadDao.EvictionCandidate> candidates = downloadDao.getEvictionCandidates(
+                    trackId, System.currentTimeMillis(), EVICTION_BATCH_SIZE);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            for (DownloadDao.EvictionCandidate candidate : candidates) {
+                if (freed >= toFree) {
+                    break;
+                }
+                try {
+                    removeTrackDownload(candidate.getTrackId());
+                    freed += candidate.getBytes();
+                    Log.d(TAG, "Evicted " + candidate.getTrackId() + " (" + candidate.getBytes() + " bytes)");
+                } catch (RuntimeException e) {
+                    // Leave it for the next pass rather than spinning on it now
+                    Log.w(TAG, "Could not evict " + candidate.getTrackId(), e);
+                    return false;
+                }
+            }
+        }
+        
+        Log.d(TAG, "Freed " + freed + " of " + toFree + " bytes for " + trackId);
+        if (freed < toFree) {
+            return false;
+        }
+        reservations.put(trackId, required);
+        return true;
+    }
+    
+    /**
+     * Give back the space reserved by {@link #ensureSpace} once the download has ended,
+     * whether its file was recorded or not
+     */
+    public synchronized void releaseSpace(String trackId) {
+        reservations.remove(trackId);
+    }
+    
+    /**
+     * Databases upgraded to the storage index start with empty totals, so downloads
+     * made before it would count as nothing until maintenance reconciles. Index them
+     * the first time they are needed instead.
+     */
+    private void ensureTotals() {
+        if (totalsChecked) {
+            return;
+        }
+        if (storedFileDao.getTotals().isEmpty()
+                && downloadDao.getDownloadCountByStatus(Download.STATUS_COMPLETED) > 0) {
+            StorageIndex.getInstance(context).reconcile();
+        }
+        totalsChecked = true;
+    }
+    
+    /**
+     * Delete a downloaded track. The track and download rows are updated in the same
+     * transaction as the file delete, so a file that cannot be deleted leaves both as
+     * they were.
+     */
+    public void removeDownload(String trackId) {
+        removeTrackDownload(trackId);
+        // A partial download has nothing in the rows to roll back
+        new File(FileUtils.getTrackFile(context, trackId).getAbsolutePath() + Constants.TEMP_FILE_EXTENSION).delete();
+    }
+    
+    private void removeTrackDownload(String trackId) {
+        File file = FileUtils.getTrackFile(context, trackId);
+        database.runInTransaction(() -> {
+            trackDao.updateDownloadStatus(trackId, false, null);
+            downloadDao.deleteDownloadByTrackId(trackId);
+            storedFileDao.deleteFile(file.getAbsolutePath());
+            if (file.exists() && !file.delete()) {
+                throw new IllegalStateException("Failed to delete " + file.getAbsolutePath());
+            }
+        });
+    }
+}
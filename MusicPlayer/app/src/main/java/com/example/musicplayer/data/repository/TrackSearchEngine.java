@@ -0,0 +1,413 @@
+package com.example.musicplayer.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.dao.TrackDao;
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.SearchUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * As-you-type search over the local catalog from an in-memory prefix index: a sorted
+ * map from every word of title, artist, album and tags to the tracks containing it,
+ * with the postings in plain int arrays. Input is debounced and a query that is
+ * superseded while running stops early and never delivers. The index is built from
+ * the database on first use and then kept current by the catalog sync.
+ */
+public class TrackSearchEngine {
+    
+    private static final String TAG = "TrackSearchEngine";
+    // Weight of a match in title, artist, album and tags, the field order of Doc
+    private static final double[] FIELD_WEIGHTS = {4.0, 3.0, 2.0, 1.0};
+    // A whole word typed out ranks above a word merely starting with it
+    private static final double EXACT_MATCH_BONUS = 1.5;
+    // How often a running query checks whether it has been superseded
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+    // Deleted docs tolerated before the index is compacted
+    private static final int MIN_DELETED_FOR_REBUILD = 1024;
+    private static final int LATENCY_SAMPLES = 256;
+    private static TrackSearchEngine instance;
+    
+    private final TrackDao trackDao;
+    // The index is only touched on this thread, queries and updates alike
+    private final ScheduledExecutorService searchThread = Executors.newSingleThreadScheduledExecutor();
+    private final MutableLiveData<List<Hit>> results = new MutableLiveData<>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private ScheduledFuture<?> pendingQuery;
+    
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> docsByTrackId = new HashMap<>();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private boolean loaded;
+    
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    
+    private TrackSearchEngine(Context context) {
+        trackDao = AppDatabase.getInstance(context).trackDao();
+    }
+    
+    TrackSearchEngine(TrackDao trackDao) {
+        this.trackDao = trackDao;
+    }
+    
+    public static synchronized TrackSearchEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new TrackSearchEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    /**
+     * Results of the latest query, best first
+     */
+    public LiveData<List<Hit>> getResults() {
+        return results;
+    }
+    
+    /**
+     * Build the index ahead of the first query, e.g. when the search screen opens
+     */
+    public void warmUp() {
+        searchThread.execute(this::ensureLoaded);
+    }
+    
+    /**
+     * Search for query once typing pauses. Calling again before then replaces the query;
+     * calling while a query runs makes that one stop without delivering.
+     */
+    public synchronized void search(String query) {
+        int current = generation.incrementAndGet();
+        if (pendingQuery != null) {
+            pendingQuery.cancel(false);
+        }
+        List<String> tokens = SearchUtils.tokenize(query);
+        if (tokens.isEmpty()) {
+            pendingQuery = null;
+            results.postValue(Collections.emptyList());
+            return;
+        }
+        pendingQuery = searchThread.schedule(() -> runQuery(tokens, current),
+                Constants.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Apply tracks written and removed by a sync. Tracks whose searchable fields did not
+     * change cost nothing. Before the index is first built this is a no-op, as the index
+     * is then read from the database, which already has the changes.
+     */
+    public void update(List<Track> tracks, List<String> deletedIds) {
+        if (tracks.isEmpty() && deletedIds.isEmpty()) {
+            return;
+        }
+        searchThread.execute(() -> {
+            if (!loaded) {
+                return;
+            }
+            for (String trackId : deletedIds) {
+                removeDoc(trackId);
+            }
+            for (Track track : tracks) {
+                Doc doc = new Doc(track.getId(), track.getTitle(), track.getArtist(), track.getAlbum(), track.getTags());
+                Integer existing = docsByTrackId.get(doc.trackId);
+                if (existing == null || !docs.get(existing).sameFields(doc)) {
+                    removeDoc(doc.trackId);
+                    addDoc(doc);
+                }
+            }
+            // Postings of deleted docs are only dropped by a rebuild
+            if (deletedCount > MIN_DELETED_FOR_REBUILD && deletedCount > docs.size() / 4) {
+                rebuild();
+            }
+        });
+    }
+    
+    /**
+     * Latency of the recent queries, from the start of the index lookup to the results
+     */
+    public LatencyStats getLatencyStats() {
+        long[] samples;
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        if (samples.length == 0) {
+            return new LatencyStats(0, 0, 0);
+        }
+        Arrays.sort(samples);
+        return new LatencyStats(samples.length, percentile(samples, 0.50), percentile(samples, 0.99));
+    }
+    
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+    
+    private void runQuery(List<String> tokens, int queryGeneration) {
+        ensureLoaded();
+        long startedAt = System.nanoTime();
+        List<Hit> hits = query(tokens, queryGeneration);
+        if (hits == null || generation.get() != queryGeneration) {
+            // Superseded, the newer query delivers
+            return;
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_SAMPLES] = elapsed;
+            latencyCount++;
+        }
+        results.postValue(hits);
+    }
+    
+    /**
+     * @return the best matches, or null if the query was superseded meanwhile
+     */
+    private List<Hit> query(List<String> tokens, int queryGeneration) {
+        // Every word must match the start of some word of the track
+        BitSet matches = null;
+        for (String token : tokens) {
+            BitSet tokenMatches = new BitSet(docs.size());
+            int checked = 0;
+            for (Postings postings : terms.subMap(token, true, token + Character.MAX_VALUE, true).values()) {
+                postings.addTo(tokenMatches);
+                if (++checked % CANCEL_CHECK_INTERVAL == 0 && generation.get() != queryGeneration) {
+                    return null;
+                }
+            }
+            if (matches == null) {
+                matches = tokenMatches;
+            } else {
+                matches.and(tokenMatches);
+            }
+            matches.andNot(deleted);
+            if (matches.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        
+        // Keep the top K in a min-heap rather than sorting every match
+        int limit = Constants.SEARCH_SUGGESTION_LIMIT;
+        PriorityQueue<ScoredDoc> top = new PriorityQueue<>(limit + 1);
+        int scored = 0;
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            if (++scored % CANCEL_CHECK_INTERVAL == 0 && generation.get() != queryGeneration) {
+                return null;
+            }
+            top.add(new ScoredDoc(i, score(docs.get(i), tokens)));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        
+        List<Hit> hits = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            ScoredDoc scoredDoc = top.poll();
+            Doc doc = docs.get(scoredDoc.doc);
+            hits.add(new Hit(doc.trackId, doc.fields[0], doc.fields[1], scoredDoc.score,
+                    SearchUtils.findPrefixMatches(doc.fields[0], tokens),
+                    SearchUtils.findPrefixMatches(doc.fields[1], tokens)));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+    
+    private static double score(Doc doc, List<String> tokens) {
+        double score = 0;
+        for (String token : tokens) {
+            double best = 0;
+            for (int field = 0; field < doc.fieldTerms.length; field++) {
+                for (String term : doc.fieldTerms[field]) {
+                    if (term.startsWith(token)) {
+                        double weight = FIELD_WEIGHTS[field] * (term.length() == token.length() ? EXACT_MATCH_BONUS : 1);
+                        best = Math.max(best, weight);
+                    }
+                }
+            }
+            score += best;
+        }
+        return score;
+    }
+    
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        for (TrackDao.SearchableTrack track : trackDao.getSearchableTracks()) {
+            addDoc(new Doc(track.getId(), track.getTitle(), track.getArtist(), track.getAlbum(), track.getTags()));
+        }
+        loaded = true;
+        Log.d(TAG, "Indexed " + docs.size() + " tracks, " + terms.size() + " terms in "
+                + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+    
+    private void addDoc(Doc doc) {
+        int ordinal = docs.size();
+        docs.add(doc);
+        docsByTrackId.put(doc.trackId, ordinal);
+        Set<String> docTerms = new LinkedHashSet<>();
+        for (String[] fieldTerms : doc.fieldTerms) {
+            docTerms.addAll(Arrays.asList(fieldTerms));
+        }
+        for (String term : docTerms) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(term, postings);
+            }
+            postings.add(ordinal);
+        }
+    }
+    
+    private void removeDoc(String trackId) {
+        Integer ordinal = docsByTrackId.remove(trackId);
+        if (ordinal != null) {
+            deleted.set(ordinal);
+            deletedCount++;
+        }
+    }
+    
+    private void rebuild() {
+        List<Doc> live = new ArrayList<>(docs.size() - deletedCount);
+        for (int i = 0; i < docs.size(); i++) {
+            if (!deleted.get(i)) {
+                live.add(docs.get(i));
+            }
+        }
+        docs.clear();
+        docsByTrackId.clear();
+        terms.clear();
+        deleted.clear();
+        deletedCount = 0;
+        for (Doc doc : live) {
+            addDoc(doc);
+        }
+    }
+    
+    /**
+     * Ordinals of the docs containing a term, grown as needed
+     */
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size;
+        
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+        
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(docs[i]);
+            }
+        }
+    }
+    
+    private static class Doc {
+        final String trackId;
+        // Title, artist, album and tags as shown, and their normalized words
+        final String[] fields;
+        final String[][] fieldTerms;
+        
+        Doc(String trackId, String title, String artist, String album, String tags) {
+            this.trackId = trackId;
+            fields = new String[] {title, artist, album, tags};
+            fieldTerms = new String[fields.length][];
+            for (int i = 0; i < fields.length; i++) {
+                fieldTerms[i] = SearchUtils.tokenize(fields[i]).toArray(new String[0]);
+            }
+        }
+        
+        boolean sameFields(Doc other) {
+            return Arrays.equals(fields, other.fields);
+        }
+    }
+    
+    private static class ScoredDoc implements Comparable<ScoredDoc> {
+        final int doc;
+        final double score;
+        
+        ScoredDoc(int doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+        
+        @Override
+        public int compareTo(ScoredDoc other) {
+            int byScore = Double.compare(score, other.score);
+            // Equal scores keep catalog order, earlier docs first
+            return byScore != 0 ? byScore : Integer.compare(other.doc, doc);
+        }
+    }
+    
+    /**
+     * A search result with the ranges of title and artist that matched the query
+     */
+    public static class Hit {
+        private final String trackId;
+        private final String title;
+        private final String artist;
+        private final double score;
+        private final List<int[]> titleMatches;
+        private final List<int[]> artistMatches;
+        
+        Hit(String trackId, String title, String artist, double score,
+            List<int[]> titleMatches, List<int[]> artistMatches) {
+            this.trackId = trackId;
+            this.title = title;
+            this.artist = artist;
+            this.score = score;
+            this.titleMatches = titleMatches;
+            this.artistMatches = artistMatches;
+        }
+        
+        public String getTrackId() { return trackId; }
+        public String getTitle() { return title; }
+        public String getArtist() { return artist; }
+        public double getScore() { return score; }
+        /** [start, end) character ranges of the title to highlight */
+        public List<int[]> getTitleMatches() { return titleMatches; }
+        /** [start, end) character ranges of the artist to highlight */
+        public List<int[]> getArtistMatches() { return artistMatches; }
+    }
+    
+    public static class LatencyStats {
+        private final int samples;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        
+        LatencyStats(int samples, long p50Nanos, long p99Nanos) {
+            this.samples = samples;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+        
+        public int getSamples() { return samples; }
+        public long getP50Nanos() { return p50Nanos; }
+        public long getP99Nanos() { return p99Nanos; }
+    }
+}
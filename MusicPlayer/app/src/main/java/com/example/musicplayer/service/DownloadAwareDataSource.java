@@ -0,0 +1,290 @@
+package com.example.musicplayer.service;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.FileUtils;
+import com.example.musicplayer.worker.DownloadProgressTracker;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Playback data source that reads a track from disk when it can. A finished download
+ * is read from its file, and a track that DownloadWorker is still fetching is read
+ * from its .tmp file up to the bytes already written, waiting briefly for more and
+ * falling through to the network for the rest if the download falls behind. Anything
+ * else goes straight to the upstream source.
+ *
+ * The track is identified by {@link DataSpec#key}, so media items must carry the
+ * track ID as their custom cache key, see {@link #buildMediaItem(Track)}.
+ *
+ * Transfer listeners see local reads as non-network transfers and get network reads
+ * from the upstream source itself, so the bandwidth meter only measures the network.
+ */
+public class DownloadAwareDataSource implements DataSource {
+    
+    private static final String TAG = "DownloadAwareDataSource";
+    // How long a read waits for the download to catch up before using the network
+    private static final long PARTIAL_READ_WAIT_MS = 2000;
+    
+    public static class Factory implements DataSource.Factory {
+        private final Context context;
+        private final DataSource.Factory upstreamFactory;
+        
+        public Factory(Context context, DataSource.Factory upstreamFactory) {
+            this.context = context.getApplicationContext();
+            this.upstreamFactory = upstreamFactory;
+        }
+        
+        @Override
+        public DataSource createDataSource() {
+            return new DownloadAwareDataSource(context, upstreamFactory.createDataSource());
+        }
+    }
+    
+    /**
+     * Media item for a track that this data source can match to its download
+     */
+    public static MediaItem buildMediaItem(Track track) {
+        return new MediaItem.Builder()
+                .setUri(track.getStreamUrl())
+                .setMediaId(track.getId())
+                .setCustomCacheKey(track.getId())
+                .build();
+    }
+    
+    private final Context context;
+    private final DataSource upstream;
+    private final List<TransferListener> listeners = new ArrayList<>(1);
+    
+    @Nullable private DataSpec dataSpec;
+    @Nullable private RandomAccessFile file;
+    // Null when reading a finished file, whose length is fileLength
+    @Nullable private DownloadProgressTracker.PartialFile partialFile;
+    private long fileLength;
+    private long position;
+    private long bytesRemaining;
+    private boolean readingUpstream;
+    // Whether a local transfer was reported to the listeners and not ended yet
+    private boolean localTransfer;
+    
+    public DownloadAwareDataSource(Context context, DataSource upstream) {
+        this.context = context;
+        this.upstream = upstream;
+    }
+    
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+        upstream.addTransferListener(transferListener);
+        if (!listeners.contains(transferListener)) {
+            listeners.add(transferListener);
+        }
+    }
+    
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        position = dataSpec.position;
+        
+        String trackId = dataSpec.key;
+        if (trackId == null || !openLocalFile(trackId)) {
+            // The upstream source reports its own transfer
+            readingUpstream = true;
+            bytesRemaining = upstream.open(dataSpec);
+        } else {
+            for (TransferListener listener : listeners) {
+                listener.onTransferInitializing(this, dataSpec, /* isNetwork= */ false);
+            }
+            long totalBytes = partialFile != null ? partialFile.getTotalBytes() : fileLength;
+            if (dataSpec.length != C.LENGTH_UNSET) {
+                bytesRemaining = dataSpec.length;
+            } else if (totalBytes >= 0) {
+                bytesRemaining = totalBytes - position;
+            } else {
+                bytesRemaining = C.LENGTH_UNSET;
+            }
+            if (totalBytes >= 0 && position > totalBytes) {
+                throw new IOException("Position " + position + " is past the end of " + trackId);
+            }
+            localTransfer = true;
+            for (TransferListener listener : listeners) {
+                listener.onTransferStart(this, dataSpec, /* isNetwork= */ false);
+            }
+        }
+        return bytesRemaining;
+    }
+    
+    /**
+     * Open the download of a track, the .tmp file of a running download first
+     *
+     * @return false if the track has to come from the network
+     */
+    private boolean openLocalFile(String trackId) {
+        DownloadProgressTracker.PartialFile partial = DownloadProgressTracker.getInstance().getPartialFile(trackId);
+        if (partial != null && !partial.isClosed()) {
+            try {
+                file = new RandomAccessFile(partial.getFile(), "r");
+                partialFile = partial;
+                return true;
+            } catch (FileNotFoundException e) {
+                // Finished and renamed in the meantime, the complete file is checked below
+            }
+        }
+        
+        File trackFile = FileUtils.getTrackFile(context, trackId);
+        if (trackFile.exists()) {
+            try {
+                file = new RandomAccessFile(trackFile, "r");
+                fileLength = file.length();
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "Could not open downloaded file for " + trackId, e);
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        } else if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        
+        int bytesRead;
+        if (readingUpstream) {
+            bytesRead = upstream.read(buffer, offset, length);
+        } else {
+            long readable = getReadableBytes();
+            if (readable == C.LENGTH_UNSET) {
+                return C.RESULT_END_OF_INPUT;
+            } else if (position >= readable) {
+                // The download is not getting there in time, fetch the rest ourselves
+                switchToUpstream();
+                bytesRead = upstream.read(buffer, offset, length);
+            } else {
+                int toRead = (int) Math.min(length, readable - position);
+                if (bytesRemaining != C.LENGTH_UNSET) {
+                    toRead = (int) Math.min(toRead, bytesRemaining);
+                }
+                file.seek(position);
+                bytesRead = file.read(buffer, offset, toRead);
+            }
+        }
+        
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        position += bytesRead;
+        if (bytesRemaining != C.LENGTH_UNSET) {
+            bytesRemaining -= bytesRead;
+        }
+        if (!readingUpstream) {
+            for (TransferListener listener : listeners) {
+                listener.onBytesTransferred(this, dataSpec, /* isNetwork= */ false, bytesRead);
+            }
+        }
+        return bytesRead;
+    }
+    
+    /**
+     * Bytes of the local file that can be read at the current position, waiting for a
+     * running download if needed.
+     *
+     * @return C.LENGTH_UNSET once the whole file has been read
+     */
+    private long getReadableBytes() throws IOException {
+        if (partialFile == null) {
+            return position < fileLength ? fileLength : C.LENGTH_UNSET;
+        }
+        
+        long readable = partialFile.getReadableBytes();
+        if (position < readable) {
+            return readable;
+        }
+        if (!partialFile.isClosed()) {
+            try {
+                readable = partialFile.awaitReadable(position, PARTIAL_READ_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        // A download that finished wrote the whole file, there is nothing more to fetch
+        long totalBytes = partialFile.getTotalBytes();
+        if (position >= readable && partialFile.isClosed() && totalBytes >= 0 && position >= totalBytes) {
+            return C.LENGTH_UNSET;
+        }
+        return readable;
+    }
+    
+    private void switchToUpstream() throws IOException {
+        Log.d(TAG, "Download behind playback at byte " + position + ", reading the rest from the network");
+        closeFile();
+        endLocalTransfer();
+        long offset = position - dataSpec.position;
+        long length = bytesRemaining != C.LENGTH_UNSET ? bytesRemaining : C.LENGTH_UNSET;
+        readingUpstream = true;
+        upstream.open(dataSpec.subrange(offset, length));
+    }
+    
+    @Nullable
+    @Override
+    public Uri getUri() {
+        if (readingUpstream) {
+            return upstream.getUri();
+        }
+        return dataSpec != null ? dataSpec.uri : null;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        partialFile = null;
+        try {
+            closeFile();
+            if (readingUpstream) {
+                upstream.close();
+            }
+        } finally {
+            readingUpstream = false;
+            endLocalTransfer();
+            dataSpec = null;
+        }
+    }
+    
+    private void endLocalTransfer() {
+        if (localTransfer) {
+            localTransfer = false;
+            for (TransferListener listener : listeners) {
+                listener.onTransferEnd(this, dataSpec, /* isNetwork= */ false);
+            }
+        }
+    }
+    
+    private void closeFile() throws IOException {
+        if (file != null) {
+            try {
+                file.close();
+            } finally {
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.musicplayer.service;
+
+import android.app.Notification;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.repository.MusicRepository;
+import com.example.musicplayer.utils.Constants;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.source.DefaultMediaSourceFactory;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays tracks in the background. Media is read through {@link DownloadAwareDataSource},
+ * so downloaded and downloading tracks play from disk and only the rest is streamed.
+ */
+public class PlaybackService extends Service {
+    
+    private static final String TAG = "PlaybackService";
+    
+    public class PlaybackBinder extends Binder {
+        public PlaybackService getService() {
+            return PlaybackService.this;
+        }
+    }
+    
+    private final IBinder binder = new PlaybackBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    
+    private ExoPlayer player;
+    private MediaSessionCompat mediaSession;
+    private NotificationHelper notificationHelper;
+    private MusicRepository repository;
+    private Track currentTrack;
+    private boolean isForeground = false;
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        repository = MusicRepository.getInstance(this);
+        notificationHelper = new NotificationHelper(this);
+        
+        DownloadAwareDataSource.Factory dataSourceFactory =
+                new DownloadAwareDataSource.Factory(this, new DefaultDataSource.Factory(this));
+        player = new ExoPlayer.Builder(this)
+                .setMediaSourceFactory(new DefaultMediaSourceFactory(dataSourceFactory))
+                .build();
+        player.addListener(new Player.Listener() {
+            @Override
+            public void onIsPlayingChanged(boolean isPlaying) {
+                updatePlaybackState();
+            }
+            
+            @Override
+            public void onPlaybackStateChanged(int playbackState) {
+                if (playbackState == Player.STATE_ENDED) {
+                    updatePlaybackState();
+                }
+            }
+        });
+        
+        mediaSession = new MediaSessionCompat(this, TAG);
+        mediaSession.setCallback(new MediaSessionCompat.Callback() {
+            @Override
+            public void onPlay() {
+                play();
+            }
+            
+            @Override
+            public void onPause() {
+                pause();
+            }
+            
+            @Override
+            public void onStop() {
+                stop();
+            }
+        });
+        mediaSession.setActive(true);
+    }
+    
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : null;
+        if (Constants.ACTION_PLAY.equals(action)) {
+            String trackId = intent.getStringExtra(Constants.EXTRA_TRACK_ID);
+            if (trackId != null) {
+                playTrackById(trackId);
+            } else {
+                play();
+            }
+        } else if (Constants.ACTION_PAUSE.equals(action)) {
+            pause();
+        } else if (Constants.ACTION_NEXT.equals(action)) {
+            player.seekToNext();
+        } else if (Constants.ACTION_PREVIOUS.equals(action)) {
+            player.seekToPrevious();
+        } else if (Constants.ACTION_STOP.equals(action)) {
+            stop();
+        }
+        return START_NOT_STICKY;
+    }
+    
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+    
+    @Override
+    public void onDestroy() {
+        executor.shutdownNow();
+        mediaSession.release();
+        player.release();
+        super.onDestroy();
+    }
+    
+    public void playTrack(Track track) {
+        currentTrack = track;
+        player.setMediaItem(DownloadAwareDataSource.buildMediaItem(track));
+        player.prepare();
+        player.play();
+        repository.incrementPlayCount(track.getId());
+    }
+    
+    private void playTrackById(String trackId) {
+        executor.execute(() -> {
+            Track track = AppDatabase.getInstance(this).trackDao().getTrackById(trackId);
+            if (track == null) {
+                Log.w(TAG, "Track not found: " + trackId);
+                return;
+            }
+            mainHandler.post(() -> playTrack(track));
+        });
+    }
+    
+    public void play() {
+        if (currentTrack != null) {
+            player.play();
+        }
+    }
+    
+    public void pause() {
+        player.pause();
+    }
+    
+    public void stop() {
+        player.stop();
+        currentTrack = null;
+        stopForeground(true);
+        isForeground = false;
+        stopSelf();
+    }
+    
+    public boolean isPlaying() {
+        return player.isPlaying();
+    }
+    
+    public Track getCurrentTrack() {
+        return currentTrack;
+    }
+    
+    private void updatePlaybackState() {
+        boolean isPlaying = player.isPlaying();
+        mediaSession.setPlaybackState(new PlaybackStateCompat.Builder()
+                .setActions(PlaybackStateCompat.ACTION_PLAY | PlaybackStateCompat.ACTION_PAUSE
+                        | PlaybackStateCompat.ACTION_STOP)
+                .setState(isPlaying ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED,
+                        player.getCurrentPosition(), 1f)
+                .build());
+        if (currentTrack == null) {
+            return;
+        }
+        
+        Notification notification = notificationHelper.buildNotification(
+                mediaSession.getSessionToken(), currentTrack, isPlaying);
+        if (isPlaying) {
+            startForeground(Constants.NOTIFICATION_ID, notification);
+            isForeground = true;
+        } else {
+            // Keep the notification so playback can be resumed from it
+            if (isForeground) {
+                stopForeground(false);
+                isForeground = false;
+            }
+            notificationHelper.getNotificationManager().notify(Constants.NOTIFICATION_ID, notification);
+        }
+    }
+}
@@ -18,11 +18,14 @@ import androidx.fragment.app.FragmentTransaction;
 import com.bumptech.glide.Glide;
 import com.example.musicplayer.R;
 import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.repository.MusicRepository;
 import com.example.musicplayer.databinding.ActivityMainBinding;
 import com.example.musicplayer.service.PlaybackService;
 import com.example.musicplayer.ui.fragment.HomeFragment;
 import com.example.musicplayer.ui.fragment.LibraryFragment;
 import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.worker.MaintenanceWorker;
+import com.example.musicplayer.worker.StorageMigrationWorker;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 public class MainActivity extends AppCompatActivity implements ServiceConnection {
@@ -54,6 +57,23 @@ public class MainActivity extends AppCompatActivity implements ServiceConnection
         
         // Bind to PlaybackService
         bindToPlaybackService();
+        
+        // Move downloads from the old flat directory into the sharded layout
+        StorageMigrationWorker.enqueueIfNeeded(this);
+        MaintenanceWorker.schedule(this);
+    }
+    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Keeps Home fresh while visible, if the user turned live updates on
+        MusicRepository.getInstance(this).startLiveCatalogUpdates();
+    }
+    
+    @Override
+    protected void onStop() {
+        super.onStop();
+        MusicRepository.getInstance(this).stopLiveCatalogUpdates();
     }
     
     @Override
@@ -25,6 +25,19 @@ public class Constants {
     public static final String PREF_THEME_MODE = "theme_mode";
     public static final String PREF_WIFI_ONLY_DOWNLOADS = "wifi_only_downloads";
     public static final String PREF_STREAMING_QUALITY = "streaming_quality";
+    public static final String PREF_DOWNLOAD_SEGMENTS = "download_segments";
+    public static final String PREF_DOWNLOAD_BUFFER_KB = "download_buffer_kb";
+    public static final String PREF_DOWNLOAD_CHECKSUM = "download_checksum";
+    public static final String PREF_MAX_CONCURRENT_DOWNLOADS = "max_concurrent_downloads";
+    public static final String PREF_DOWNLOAD_QUOTA_MB = "download_quota_mb";
+    public static final String PREF_STORAGE_LAYOUT = "storage_layout";
+    public static final String PREF_LIBRARY_VERIFIED_AT = "library_verified_at";
+    public static final String PREF_CATALOG_CURSOR = "catalog_cursor";
+    public static final String PREF_CATALOG_CURSOR_FIELD = "catalog_cursor_field";
+    public static final String PREF_CATALOG_SYNCED_AT = "catalog_synced_at";
+    public static final String PREF_CATALOG_PAGE_SIZE = "catalog_page_size";
+    public static final String PREF_LIVE_CATALOG_UPDATES = "live_catalog_updates";
+    public static final String PREF_CATALOG_VERSION = "catalog_version";
     public static final String PREF_LAST_TRACK_ID = "last_track_id";
     public static final String PREF_LAST_POSITION = "last_position";
     public static final String PREF_SHUFFLE_MODE = "shuffle_mode";
@@ -48,6 +61,8 @@ public class Constants {
     
     // Download directory
     public static final String DOWNLOAD_DIR = "music_downloads";
+    public static final int STORAGE_LAYOUT_FLAT = 0;
+    public static final int STORAGE_LAYOUT_SHARDED = 1;
     
     // File extensions
     public static final String AUDIO_EXTENSION = ".mp3";
@@ -57,8 +72,36 @@ public class Constants {
     public static final int CONNECT_TIMEOUT = 30000; // 30 seconds
     public static final int READ_TIMEOUT = 30000; // 30 seconds
     
+    // Downloads
+    public static final String TEMP_FILE_EXTENSION = ".tmp";
+    public static final int MAX_DOWNLOAD_ATTEMPTS = 5;
+    public static final int DEFAULT_CONCURRENT_DOWNLOADS = 2;
+    public static final int MAX_CONCURRENT_DOWNLOADS = 6;
+    public static final long DOWNLOAD_BACKOFF_DELAY_SECONDS = 30;
+    public static final int DEFAULT_DOWNLOAD_SEGMENTS = 4;
+    public static final int MAX_DOWNLOAD_SEGMENTS = 8;
+    public static final long MIN_SEGMENTED_DOWNLOAD_SIZE = 8 * 1024 * 1024; // 8 MB
+    public static final int DEFAULT_DOWNLOAD_BUFFER_KB = 128;
+    public static final int MIN_DOWNLOAD_BUFFER_KB = 64;
+    public static final int MAX_DOWNLOAD_BUFFER_KB = 256;
+    public static final int DEFAULT_DOWNLOAD_QUOTA_MB = 2048; // 2 GB
+    
     // Database limits
     public static final int MAX_RECENT_ENTRIES = 100;
+    public static final long DOWNLOAD_HISTORY_RETENTION_MS = 30L * 24 * 60 * 60 * 1000; // 30 days
+    // Matches ranked per search, and how many of the best are shown
+    public static final int SEARCH_CANDIDATE_LIMIT = 500;
+    public static final int SEARCH_RESULT_LIMIT = 100;
+    // As-you-type search: pause in typing before a query runs, and results shown
+    public static final long SEARCH_DEBOUNCE_MS = 150;
+    public static final int SEARCH_SUGGESTION_LIMIT = 20;
+    // Local results are shown regardless, remote ones are given up on after this
+    public static final long SEARCH_REMOTE_TIMEOUT_MS = 3000;
+    
+    // Maintenance
+    public static final long MAINTENANCE_INTERVAL_HOURS = 24;
+    // Re-hashing every download is the most expensive part, done on every seventh run or so
+    public static final long LIBRARY_VERIFY_INTERVAL_MS = 7L * 24 * 60 * 60 * 1000; // 7 days
     public static final int DEFAULT_PAGE_SIZE = 20;
     
     // UI constants
@@ -68,17 +111,36 @@ public class Constants {
     // WorkManager tags
     public static final String WORK_TAG_DOWNLOAD = "download_work";
     public static final String WORK_TAG_CLEANUP = "cleanup_work";
+    public static final String WORK_NAME_STORAGE_MIGRATION = "storage_migration";
+    public static final String WORK_NAME_MAINTENANCE = "maintenance";
     
     // Firebase collections
     public static final String FIREBASE_TRACKS_COLLECTION = "tracks";
     public static final String FIREBASE_PLAYLISTS_COLLECTION = "playlists";
     
+    // Catalog sync
+    // Tombstones are purged from Firestore after this long, an older cursor would miss deletions
+    public static final long CATALOG_TOMBSTONE_RETENTION_MS = 30L * 24 * 60 * 60 * 1000; // 30 days
+    // Tolerated clock difference between the device and the catalog timestamps
+    public static final long CATALOG_CLOCK_SKEW_MS = 24 * 60 * 60 * 1000; // 1 day
+    // Documents fetched and written per transaction, keeps memory and write lock holds short
+    public static final int CATALOG_PAGE_SIZE = 500;
+    // Rows per transaction when applying a live snapshot, small so reads are never held up long
+    public static final int LIVE_CATALOG_BATCH_SIZE = 100;
+    // Bundled catalog snapshot that fills an empty database before the first sync
+    public static final String CATALOG_SNAPSHOT_ASSET = "catalog_snapshot.bin";
+    
+    // Remote query cache
+    public static final long QUERY_CACHE_TTL_MS = 5 * 60 * 1000; // 5 minutes
+    public static final int QUERY_CACHE_MAX_ENTRIES = 32;
+    
     // Error messages
     public static final String ERROR_NO_INTERNET = "No internet connection";
     public static final String ERROR_TRACK_NOT_FOUND = "Track not found";
     public static final String ERROR_PLAYBACK_FAILED = "Playback failed";
     public static final String ERROR_DOWNLOAD_FAILED = "Download failed";
     public static final String ERROR_WIFI_REQUIRED = "Wi-Fi connection required for downloads";
+    public static final String ERROR_SYNC_CANCELLED = "Catalog sync cancelled";
     
     // Success messages
     public static final String SUCCESS_TRACK_ADDED_TO_PLAYLIST = "Track added to playlist";
@@ -4,15 +4,30 @@ import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
 
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.dao.StoredFileDao;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
 
 public class FileUtils {
     
     private static final String TAG = "FileUtils";
+    private static final String COVER_SUFFIX = "_cover" + Constants.IMAGE_EXTENSION;
+    // Large enough to keep the number of map calls low, small enough for 32-bit address space
+    private static final long HASH_WINDOW_SIZE = 32 * 1024 * 1024;
+    // Segment state of a partial download, see SegmentedDownloader
+    private static final String SEGMENTS_EXTENSION = ".segments";
+    private static final String[] SHARD_DIGITS = {
+        "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "a", "b", "c", "d", "e", "f"
+    };
     
     /**
      * Get the app's private music download directory
@@ -26,19 +41,78 @@ public class FileUtils {
     }
     
     /**
-     * Get the file path for a downloaded track
+     * Get the file path for a downloaded track. This is the one place track paths are
+     * resolved, see {@link #resolveFile(Context, String, String)}.
      */
     public static File getTrackFile(Context context, String trackId) {
-        File musicDir = getMusicDownloadDirectory(context);
-        return new File(musicDir, trackId + Constants.AUDIO_EXTENSION);
+        return resolveFile(context, trackId, trackId + Constants.AUDIO_EXTENSION);
     }
     
     /**
      * Get the file path for a downloaded cover image
      */
     public static File getCoverImageFile(Context context, String trackId) {
-        File musicDir = getMusicDownloadDirectory(context);
-        return new File(musicDir, trackId + "_cover" + Constants.IMAGE_EXTENSION);
+        return resolveFile(context, trackId, trackId + COVER_SUFFIX);
+    }
+    
+    /**
+     * Files live in a two-level hashed subdirectory of the download directory, e.g.
+     * music_downloads/a/7/. A file, or a partial download, still in the old flat layout
+     * is used where it is until StorageMigrationWorker has moved it.
+     */
+    private static File resolveFile(Context context, String trackId, String fileName) {
+        File shardedFile = getShardedFile(context, trackId, fileName);
+        if (shardedFile.exists()) {
+            return shardedFile;
+        }
+        File legacyFile = new File(getDownloadRoot(context), fileName);
+        if (legacyFile.exists() || new File(legacyFile.getPath() + Constants.TEMP_FILE_EXTENSION).exists()) {
+            return legacyFile;
+        }
+        return shardedFile;
+    }
+    
+    /**
+     * Location of a file in the sharded layout, whether it exists yet or not. Nothing is
+     * created on disk; writers call {@link #ensureParentDirectory(File)} first.
+     */
+    public static File getShardedFile(Context context, String trackId, String fileName) {
+        CRC32 crc = new CRC32();
+        crc.update(trackId.getBytes(StandardCharsets.UTF_8));
+        long hash = crc.getValue();
+        // 16 x 16 directories keeps a few hundred files per directory at 50k tracks
+        File shardDir = new File(getDownloadRoot(context),
+                SHARD_DIGITS[(int) ((hash >> 4) & 0xF)] + File.separator + SHARD_DIGITS[(int) (hash & 0xF)]);
+        return new File(shardDir, fileName);
+    }
+    
+    /**
+     * Create the directory a file is about to be written to
+     *
+     * @return false if it does not exist and could not be created
+     */
+    public static boolean ensureParentDirectory(File file) {
+        File dir = file.getParentFile();
+        return dir == null || dir.isDirectory() || dir.mkdirs() || dir.isDirectory();
+    }
+    
+    /**
+     * The download directory for path lookups, without touching the disk
+     */
+    private static File getDownloadRoot(Context context) {
+        return new File(context.getFilesDir(), Constants.DOWNLOAD_DIR);
+    }
+    
+    /**
+     * Track ID of a downloaded audio or cover file name, null for anything else
+     */
+    public static String getTrackIdFromFileName(String fileName) {
+        if (fileName.endsWith(COVER_SUFFIX)) {
+            return fileName.substring(0, fileName.length() - COVER_SUFFIX.length());
+        } else if (fileName.endsWith(Constants.AUDIO_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - Constants.AUDIO_EXTENSION.length());
+        }
+        return null;
     }
     
     /**
@@ -83,7 +157,8 @@ public class FileUtils {
     }
     
     /**
-     * Delete downloaded track and its cover image
+     * Delete downloaded track and its cover image, and drop them from the storage index.
+     * Must not be called on the main thread.
      */
     public static boolean deleteTrackFiles(Context context, String trackId) {
         File trackFile = getTrackFile(context, trackId);
@@ -92,6 +167,14 @@ public class FileUtils {
         boolean trackDeleted = deleteFile(trackFile.getAbsolutePath());
         boolean coverDeleted = deleteFile(coverFile.getAbsolutePath());
         
+        StoredFileDao storedFileDao = AppDatabase.getInstance(context).storedFileDao();
+        if (trackDeleted) {
+            storedFileDao.deleteFile(trackFile.getAbsolutePath());
+        }
+        if (coverDeleted) {
+            storedFileDao.deleteFile(coverFile.getAbsolutePath());
+        }
+        
         return trackDeleted && coverDeleted;
     }
     
@@ -136,25 +219,46 @@ public class FileUtils {
         }
         
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            FileInputStream fis = new FileInputStream(filePath);
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                md.update(buffer, 0, bytesRead);
+            return hashFile(new File(filePath), HashAlgorithm.MD5);
+        } catch (IOException e) {
+            Log.e(TAG, "Error calculating MD5 for file: " + filePath, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Hash a whole file and return the checksum as lowercase hex
+     */
+    public static String hashFile(File file, HashAlgorithm algorithm) throws IOException {
+        return hashFile(file, file.length(), algorithm);
+    }
+    
+    /**
+     * Hash the first length bytes of a file and return the checksum as lowercase hex
+     */
+    public static String hashFile(File file, long length, HashAlgorithm algorithm) throws IOException {
+        Hasher hasher = algorithm.newHasher();
+        updateHash(hasher, file, length);
+        return hasher.digestHex();
+    }
+    
+    /**
+     * Feed the first length bytes of a file into a hasher, e.g. to rebuild the
+     * digest of a partial download before resuming it. The file is memory-mapped in
+     * HASH_WINDOW_SIZE windows, so the bytes go to the hasher without being copied
+     * through a read buffer first.
+     */
+    public static void updateHash(Hasher hasher, File file, long length) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            if (channel.size() < length) {
+                throw new IOException("File shorter than " + length + " bytes: " + file);
             }
-            fis.close();
             
-            byte[] digest = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+            for (long position = 0; position < length; position += HASH_WINDOW_SIZE) {
+                long size = Math.min(HASH_WINDOW_SIZE, length - position);
+                hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException | IOException e) {
-            Log.e(TAG, "Error calculating MD5 for file: " + filePath, e);
-            return null;
         }
     }
     
@@ -182,42 +286,60 @@ public class FileUtils {
     }
     
     /**
-     * Clean up old or corrupted files
+     * Whether a file in the download directory can go: an empty finished file left by a
+     * crash, a partial download no unfinished download wants or the audio or cover of a track
+     * that is no longer in the catalog
      */
-    public static void cleanupDownloadDirectory(Context context) {
-        try {
-            File musicDir = getMusicDownloadDirectory(context);
-            File[] files = musicDir.listFiles();
-            
-            if (files != null) {
-                for (File file : files) {
-                    // Delete files that are 0 bytes (corrupted downloads)
-                    if (file.length() == 0) {
-                        Log.d(TAG, "Deleting corrupted file: " + file.getName());
-                        file.delete();
-                    }
-                }
+    public static boolean isLeftoverFile(File file, Set<String> trackIds, Set<String> unfinishedTrackIds) {
+        String partialOf = getPartialTrackId(file.getName());
+        if (partialOf != null) {
+            // Empty or not, it is the file of a download that is still running or waits to resume
+            return !unfinishedTrackIds.contains(partialOf);
+        }
+        if (file.length() == 0) {
+            return true;
+        }
+        String trackId = getTrackIdFromFileName(file.getName());
+        return trackId != null && !trackIds.contains(trackId);
+    }
+    
+    /**
+     * Track ID of a partial download file or its segment state, null for anything else
+     */
+    public static String getPartialTrackId(String fileName) {
+        String name = fileName;
+        boolean partial = false;
+        while (name.endsWith(Constants.TEMP_FILE_EXTENSION) || name.endsWith(SEGMENTS_EXTENSION)) {
+            name = name.substring(0, name.lastIndexOf('.'));
+            partial = true;
+        }
+        return partial ? getTrackIdFromFileName(name) : null;
+    }
+    
+    /**
+     * Add every file under dir, in all shard levels, to out
+     */
+    public static void collectFiles(File dir, List<File> out) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, out);
+            } else {
+                out.add(child);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error cleaning up download directory", e);
         }
     }
     
     /**
-     * Get total size of all downloaded files
+     * Get total size of all downloaded files from the storage index, without listing
+     * the directory. Must not be called on the main thread.
      */
     public static long getTotalDownloadSize(Context context) {
         try {
-            File musicDir = getMusicDownloadDirectory(context);
-            File[] files = musicDir.listFiles();
-            long totalSize = 0;
-            
-            if (files != null) {
-                for (File file : files) {
-                    totalSize += file.length();
-                }
-            }
-            return totalSize;
+            return AppDatabase.getInstance(context).storedFileDao().getTotalBytes();
         } catch (Exception e) {
             Log.e(TAG, "Error calculating total download size", e);
             return 0;
@@ -0,0 +1,258 @@
+package com.example.musicplayer.utils;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checksum algorithms used to verify downloaded files. MD5 matches what the
+ * catalog publishes, SHA-256 is there for catalogs that publish it; CRC32C is the
+ * cheaper option for plain corruption checks, by far once the platform provides it.
+ */
+public enum HashAlgorithm {
+    
+    MD5("md5"),
+    SHA256("sha256"),
+    CRC32C("crc32c");
+    
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    private final String name;
+    
+    HashAlgorithm(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Look up an algorithm by the name stored in the catalog or preferences
+     */
+    public static HashAlgorithm fromName(String name) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name.equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+    
+    public Hasher newHasher() {
+        switch (this) {
+            case CRC32C:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                        ? new PlatformCrc32cHasher() : new Crc32cHasher();
+            case SHA256:
+                return new DigestHasher("SHA-256");
+            case MD5:
+            default:
+                return new DigestHasher("MD5");
+        }
+    }
+    
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+    
+    /**
+     * Compare bytes with a hex string digit by digit, so nothing is allocated
+     */
+    static boolean hexEquals(byte[] bytes, CharSequence hex) {
+        if (hex == null || hex.length() != bytes.length * 2) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (hexValue(hex.charAt(i * 2)) != ((bytes[i] >> 4) & 0x0f)
+                    || hexValue(hex.charAt(i * 2 + 1)) != (bytes[i] & 0x0f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+    
+    static class DigestHasher implements Hasher {
+        
+        private final MessageDigest digest;
+        
+        DigestHasher(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(algorithm + " not available", e);
+            }
+        }
+        
+        @Override
+        public void update(ByteBuffer buffer) {
+            int position = buffer.position();
+            digest.update(buffer);
+            buffer.position(position);
+        }
+        
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            digest.update(bytes, offset, length);
+        }
+        
+        @Override
+        public String digestHex() {
+            return toHex(digest.digest());
+        }
+        
+        @Override
+        public boolean digestMatches(CharSequence expectedHex) {
+            return hexEquals(digest.digest(), expectedHex);
+        }
+    }
+    
+    /**
+     * CRC-32C (Castagnoli) for devices without java.util.zip.CRC32C, before API 26.
+     * Slicing-by-8: eight tables fold eight bytes into the CRC per step instead of one.
+     */
+    static class Crc32cHasher implements Hasher {
+        
+        // Table k at [k * 256]: the CRC of byte n followed by k zero bytes
+        private static final int[] TABLES = new int[8 * 256];
+        
+        static {
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLES[n] = crc;
+            }
+            for (int n = 0; n < 256; n++) {
+                for (int k = 1; k < 8; k++) {
+                    int previous = TABLES[(k - 1) * 256 + n];
+                    TABLES[k * 256 + n] = (previous >>> 8) ^ TABLES[previous & 0xff];
+                }
+            }
+        }
+        
+        private int crc = 0xFFFFFFFF;
+        
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return;
+            }
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            int value = crc;
+            int i = buffer.position();
+            int limit = buffer.limit();
+            for (; i <= limit - 8; i += 8) {
+                int low = buffer.getInt(i);
+                int high = buffer.getInt(i + 4);
+                if (bigEndian) {
+                    low = Integer.reverseBytes(low);
+                    high = Integer.reverseBytes(high);
+                }
+                value = fold(value ^ low, high);
+            }
+            for (; i < limit; i++) {
+                value = (value >>> 8) ^ TABLES[(value ^ buffer.get(i)) & 0xff];
+            }
+            crc = value;
+        }
+        
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            int value = crc;
+            int i = offset;
+            int end = offset + length;
+            for (; i <= end - 8; i += 8) {
+                int low = (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8
+                        | (bytes[i + 2] & 0xff) << 16 | bytes[i + 3] << 24;
+                int high = (bytes[i + 4] & 0xff) | (bytes[i + 5] & 0xff) << 8
+                        | (bytes[i + 6] & 0xff) << 16 | bytes[i + 7] << 24;
+                value = fold(value ^ low, high);
+            }
+            for (; i < end; i++) {
+                value = (value >>> 8) ^ TABLES[(value ^ bytes[i]) & 0xff];
+            }
+            crc = value;
+        }
+        
+        /**
+         * Eight bytes in little-endian order, the first four already xored with the CRC
+         */
+        private static int fold(int low, int high) {
+            return TABLES[7 * 256 + (low & 0xff)] ^ TABLES[6 * 256 + ((low >>> 8) & 0xff)]
+                    ^ TABLES[5 * 256 + ((low >>> 16) & 0xff)] ^ TABLES[4 * 256 + (low >>> 24)]
+                    ^ TABLES[3 * 256 + (high & 0xff)] ^ TABLES[2 * 256 + ((high >>> 8) & 0xff)]
+                    ^ TABLES[256 + ((high >>> 16) & 0xff)] ^ TABLES[high >>> 24];
+        }
+        
+        @Override
+        public String digestHex() {
+            return toHex(crcBytes(~crc));
+        }
+        
+        @Override
+        public boolean digestMatches(CharSequence expectedHex) {
+            return hexEquals(crcBytes(~crc), expectedHex);
+        }
+    }
+    
+    /**
+     * CRC-32C by the platform, which newer runtimes compute with CPU instructions
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    static class PlatformCrc32cHasher implements Hasher {
+        
+        private final java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+        
+        @Override
+        public void update(ByteBuffer buffer) {
+            int position = buffer.position();
+            crc.update(buffer);
+            buffer.position(position);
+        }
+        
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            crc.update(bytes, offset, length);
+        }
+        
+        @Override
+        public String digestHex() {
+            return toHex(crcBytes((int) crc.getValue()));
+        }
+        
+        @Override
+        public boolean digestMatches(CharSequence expectedHex) {
+            return hexEquals(crcBytes((int) crc.getValue()), expectedHex);
+        }
+    }
+    
+    private static byte[] crcBytes(int value) {
+        return new byte[] {
+                (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.musicplayer.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental hash over a stream of bytes, see {@link HashAlgorithm}
+ */
+public interface Hasher {
+    
+    /**
+     * Hash the remaining bytes of the buffer, leaving its position where it was
+     */
+    void update(ByteBuffer buffer);
+    
+    void update(byte[] bytes, int offset, int length);
+    
+    /**
+     * Finish the hash and return it as lowercase hex
+     */
+    String digestHex();
+    
+    /**
+     * Finish the hash and compare it with a hex checksum, ignoring case, without
+     * building the hex string
+     */
+    boolean digestMatches(CharSequence expectedHex);
+}
@@ -0,0 +1,213 @@
+package com.example.musicplayer.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Text handling shared by the search index and search queries. The FTS tokenizer
+ * already folds case and Latin diacritics; Urdu diacritics and letter variants are
+ * folded here, identically in SQL for the index and in Java for queries.
+ */
+public final class SearchUtils {
+    
+    // Harakat, the other Urdu/Arabic combining marks, superscript alef and tatweel
+    private static final char[] IGNORED_MARKS = {
+        '\u064B', '\u064C', '\u064D', '\u064E', '\u064F', '\u0650', '\u0651',
+        '\u0652', '\u0653', '\u0654', '\u0655', '\u0656', '\u0657', '\u0658',
+        '\u0670', '\u0640'
+    };
+    // Arabic yeh and kaf, folded into the Urdu forms most keyboards type
+    private static final char[][] LETTER_VARIANTS = {
+        {'\u064A', '\u06CC'},
+        {'\u0643', '\u06A9'}
+    };
+    // matchinfo() column weights, in the column order of tracks_fts
+    private static final double[] COLUMN_WEIGHTS = {4.0, 3.0, 2.0, 1.0};
+    private static final int MAX_QUERY_TOKENS = 8;
+    
+    private SearchUtils() {}
+    
+    /**
+     * Strip Urdu diacritics and fold letter variants
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isIgnoredMark(c)) {
+                continue;
+            }
+            for (char[] variant : LETTER_VARIANTS) {
+                if (c == variant[0]) {
+                    c = variant[1];
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * SQL expression that normalizes column the same way as {@link #normalize}
+     */
+    public static String normalizeSql(String column) {
+        String sql = column;
+        for (char mark : IGNORED_MARKS) {
+            sql = "replace(" + sql + ", char(" + (int) mark + "), '')";
+        }
+        for (char[] variant : LETTER_VARIANTS) {
+            sql = "replace(" + sql + ", char(" + (int) variant[0] + "), char(" + (int) variant[1] + "))";
+        }
+        return sql;
+    }
+    
+    /**
+     * Split a query into normalized lower case words
+     */
+    public static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        String text = normalize(query).toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+    
+    /**
+     * Build an FTS MATCH expression in which every word of the query must match the
+     * start of a word, e.g. "ali zaf" finds "Ali Zafar"
+     *
+     * @return null if the query has no words to search for
+     */
+    public static String toFtsQuery(String query) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (int i = 0; i < tokens.size() && i < MAX_QUERY_TOKENS; i++) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            // Lower case, letters and digits only, so never an operator or a syntax error
+            match.append(tokens.get(i)).append('*');
+        }
+        return match.toString();
+    }
+    
+    /**
+     * Relevance of one row from matchinfo(tracks_fts, 'pcnx'): every hit counts with the
+     * weight of its column and the BM25 inverse document frequency of its word, so a
+     * rare word in the title beats a common one in the tags.
+     */
+    public static double score(byte[] matchInfo) {
+        if (matchInfo == null || matchInfo.length < 12) {
+            return 0;
+        }
+        // SQLite writes matchinfo() in the byte order of the device
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        int rows = info.get(2);
+        if (info.limit() < 3 + 3 * phrases * columns) {
+            return 0;
+        }
+        
+        double score = 0;
+        for (int p = 0; p < phrases; p++) {
+            for (int c = 0; c < columns && c < COLUMN_WEIGHTS.length; c++) {
+                int offset = 3 + 3 * (p * columns + c);
+                int hits = info.get(offset);
+                int rowsWithHits = info.get(offset + 2);
+                if (hits > 0) {
+                    double idf = Math.log(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                    score += COLUMN_WEIGHTS[c] * hits * idf;
+                }
+            }
+        }
+        return score;
+    }
+    
+    /**
+     * Find the words of text that start with one of tokens, for highlighting. Works on
+     * the original text, so the ranges can be applied to what is shown.
+     *
+     * @param tokens words as returned by {@link #tokenize}
+     * @return [start, end) character ranges of the matched word prefixes
+     */
+    public static List<int[]> findPrefixMatches(String text, List<String> tokens) {
+        List<int[]> ranges = new ArrayList<>();
+        if (text == null || tokens.isEmpty()) {
+            return ranges;
+        }
+        int i = 0;
+        while (i < text.length()) {
+            if (!isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && isWordChar(text.charAt(i))) {
+                i++;
+            }
+            String word = normalize(text.substring(start, i)).toLowerCase(Locale.ROOT);
+            int longest = 0;
+            for (String token : tokens) {
+                if (token.length() > longest && word.startsWith(token)) {
+                    longest = token.length();
+                }
+            }
+            if (longest > 0) {
+                ranges.add(new int[] {start, originalEnd(text, start, i, longest)});
+            }
+        }
+        return ranges;
+    }
+    
+    /**
+     * End in text of the first count normalized characters of the word at start,
+     * including marks that follow the last of them
+     */
+    private static int originalEnd(String text, int start, int end, int count) {
+        int i = start;
+        int kept = 0;
+        while (i < end && kept < count) {
+            if (!isIgnoredMark(text.charAt(i))) {
+                kept++;
+            }
+            i++;
+        }
+        while (i < end && isIgnoredMark(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static boolean isWordChar(char c) {
+        // Marks sit inside words and must not split them
+        return Character.isLetterOrDigit(c) || isIgnoredMark(c);
+    }
+    
+    private static boolean isIgnoredMark(char c) {
+        for (char mark : IGNORED_MARKS) {
+            if (c == mark) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.musicplayer.worker;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of direct buffers shared by download loops. Direct buffers are costly
+ * to allocate and only freed by the GC, so batch downloads reuse them instead of
+ * creating one per track or per segment.
+ */
+final class DownloadBuffers {
+    
+    private static final int MAX_POOLED_BUFFERS = 8;
+    
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledCount = new AtomicInteger();
+    
+    private DownloadBuffers() {}
+    
+    static ByteBuffer acquire(int size) {
+        ByteBuffer buffer;
+        while ((buffer = pool.poll()) != null) {
+            pooledCount.decrementAndGet();
+            if (buffer.capacity() == size) {
+                buffer.clear();
+                return buffer;
+            }
+            // Buffer size setting changed, let the old one be collected
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+    
+    static void release(ByteBuffer buffer) {
+        if (buffer != null && pooledCount.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            pool.offer(buffer);
+        } else if (buffer != null) {
+            pooledCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.musicplayer.worker;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory channel for live download progress. Workers publish here on every
+ * emitted progress step while the downloads table is only written at checkpoints,
+ * so the Downloads screen can show smooth progress without re-querying Room.
+ * It also exposes the .tmp file of each running download and how much of it is
+ * readable, so playback can read those bytes from disk instead of the network.
+ */
+public class DownloadProgressTracker {
+    
+    private static final DownloadProgressTracker INSTANCE = new DownloadProgressTracker();
+    
+    private final Map<String, Progress> progressByTrack = new ConcurrentHashMap<>();
+    private final Map<String, PartialFile> partialFiles = new ConcurrentHashMap<>();
+    private final MutableLiveData<Map<String, Progress>> liveProgress =
+            new MutableLiveData<>(Collections.<String, Progress>emptyMap());
+    
+    private DownloadProgressTracker() {}
+    
+    public static DownloadProgressTracker getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Progress of all running downloads keyed by track ID
+     */
+    public LiveData<Map<String, Progress>> getProgress() {
+        return liveProgress;
+    }
+    
+    public Progress getProgress(String trackId) {
+        return progressByTrack.get(trackId);
+    }
+    
+    void update(String trackId, int progress, long bytes, long totalBytes) {
+        progressByTrack.put(trackId, new Progress(trackId, progress, bytes, totalBytes));
+        publish();
+    }
+    
+    void remove(String trackId) {
+        if (progressByTrack.remove(trackId) != null) {
+            publish();
+        }
+    }
+    
+    /**
+     * The file a running download is writing for this track, or null if there is none
+     */
+    public PartialFile getPartialFile(String trackId) {
+        return partialFiles.get(trackId);
+    }
+    
+    PartialFile openPartialFile(String trackId, File file, long readableBytes, long totalBytes) {
+        PartialFile partialFile = new PartialFile(file, readableBytes, totalBytes);
+        PartialFile previous = partialFiles.put(trackId, partialFile);
+        if (previous != null) {
+            previous.close();
+        }
+        return partialFile;
+    }
+    
+    void advancePartialFile(String trackId, long readableBytes) {
+        PartialFile partialFile = partialFiles.get(trackId);
+        if (partialFile != null) {
+            partialFile.advance(readableBytes);
+        }
+    }
+    
+    void closePartialFile(String trackId) {
+        PartialFile partialFile = partialFiles.remove(trackId);
+        if (partialFile != null) {
+            partialFile.close();
+        }
+    }
+    
+    private void publish() {
+        // postValue only keeps the latest map, so bursts from several workers collapse
+        liveProgress.postValue(Collections.unmodifiableMap(new HashMap<>(progressByTrack)));
+    }
+    
+    public static class Progress {
+        private final String trackId;
+        private final int progress;
+        private final long bytes;
+        private final long totalBytes;
+        
+        Progress(String trackId, int progress, long bytes, long totalBytes) {
+            this.trackId = trackId;
+            this.progress = progress;
+            this.bytes = bytes;
+            this.totalBytes = totalBytes;
+        }
+        
+        public String getTrackId() { return trackId; }
+        public int getProgress() { return progress; }
+        public long getBytes() { return bytes; }
+        public long getTotalBytes() { return totalBytes; }
+    }
+    
+    /**
+     * A download file that is still being written. Bytes from the start of the file up
+     * to getReadableBytes() are on disk and final; nothing is promised past that.
+     */
+    public static class PartialFile {
+        private final File file;
+        private final long totalBytes;
+        private long readableBytes;
+        private boolean closed;
+        
+        PartialFile(File file, long readableBytes, long totalBytes) {
+            this.file = file;
+            this.readableBytes = readableBytes;
+            this.totalBytes = totalBytes;
+        }
+        
+        public File getFile() { return file; }
+        /** Size of the finished file, -1 if the server did not say */
+        public long getTotalBytes() { return totalBytes; }
+        
+        public synchronized long getReadableBytes() {
+            return readableBytes;
+        }
+        
+        /**
+         * True once the download stopped writing, whether it finished or not
+         */
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+        
+        /**
+         * Block until more than position bytes are readable, the download stops or
+         * timeoutMs passes.
+         *
+         * @return the readable bytes at that point
+         */
+        public synchronized long awaitReadable(long position, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long remaining = timeoutMs;
+            while (readableBytes <= position && !closed && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return readableBytes;
+        }
+        
+        synchronized void advance(long readableBytes) {
+            // Segments report out of order, the readable prefix only ever grows
+            if (readableBytes > this.readableBytes) {
+                this.readableBytes = readableBytes;
+                notifyAll();
+            }
+        }
+        
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.musicplayer.worker;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.db.dao.DownloadDao;
+import com.example.musicplayer.data.db.entity.Download;
+import com.example.musicplayer.utils.Constants;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts DownloadWorkers for queued rows in the downloads table, highest priority
+ * first and never more than the configured number at a time. Workers call
+ * {@link #schedule()} when they finish so the next queued download takes the slot.
+ */
+public class DownloadScheduler {
+    
+    private static final String TAG = "DownloadScheduler";
+    private static DownloadScheduler instance;
+    
+    private final Context context;
+    private final AppDatabase database;
+    private final DownloadDao downloadDao;
+    // Single thread so two dispatch passes never hand out the same slot
+    private final ExecutorService executor;
+    
+    private DownloadScheduler(Context context) {
+        this.context = context;
+        database = AppDatabase.getInstance(context);
+        downloadDao = database.downloadDao();
+        executor = Executors.newSingleThreadExecutor();
+    }
+    
+    public static synchronized DownloadScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    /**
+     * Fill free download slots with the next queued downloads. Safe to call from any thread.
+     */
+    public void schedule() {
+        executor.execute(this::dispatch);
+    }
+    
+    /**
+     * Queue a batch of tracks in the given order. Tracks that are already queued, running
+     * or downloaded are left alone; failed or paused ones join the batch.
+     *
+     * @return the batch ID, or null if none of the tracks needed downloading
+     */
+    public String enqueueBatch(List<String> trackIds, int priority) {
+        String batchId = "batch_" + UUID.randomUUID();
+        int[] queued = new int[1];
+        
+        database.runInTransaction(() -> {
+            for (int i = 0; i < trackIds.size(); i++) {
+                String trackId = trackIds.get(i);
+                Download download = downloadDao.getDownloadByTrackId(trackId);
+                if (download == null) {
+                    download = new Download(trackId, Download.STATUS_QUEUED);
+                } else if (download.isFailed() || download.isPaused()) {
+                    download.setStatus(Download.STATUS_QUEUED);
+                    download.setReason(null);
+                    download.setFinishedAt(0);
+                    download.setWorkId(null);
+                } else {
+                    continue;
+                }
+                download.setBatchId(batchId);
+                download.setPriority(priority);
+                download.setSortOrder(i);
+                if (download.getId() == 0) {
+                    downloadDao.insertDownload(download);
+                } else {
+                    downloadDao.updateDownload(download);
+                }
+                queued[0]++;
+            }
+        });
+        
+        Log.d(TAG, "Queued " + queued[0] + " of " + trackIds.size() + " tracks in " + batchId);
+        schedule();
+        return queued[0] > 0 ? batchId : null;
+    }
+    
+    /**
+     * Pause every queued or running download of a batch. Running workers are cancelled;
+     * their partial files stay on disk and are resumed later.
+     */
+    public void pauseBatch(String batchId) {
+        List<String> trackIds = downloadDao.getActiveBatchTrackIds(batchId);
+        downloadDao.pauseBatch(batchId);
+        for (String trackId : trackIds) {
+            cancel(trackId);
+        }
+        schedule();
+    }
+    
+    public void resumeBatch(String batchId) {
+        downloadDao.resumeBatch(batchId);
+        schedule();
+    }
+    
+    /**
+     * Cancel the worker of a track, if it has one
+     */
+    public void cancel(String trackId) {
+        WorkManager.getInstance(context).cancelUniqueWork(getUniqueWorkName(trackId));
+    }
+    
+    static String getUniqueWorkName(String trackId) {
+        return Constants.WORK_TAG_DOWNLOAD + "_" + trackId;
+    }
+    
+    private void dispatch() {
+        try {
+            WorkManager workManager = WorkManager.getInstance(context);
+            int freeSlots = getConcurrencyLimit() - countDispatchedDownloads(workManager);
+            if (freeSlots <= 0) {
+                return;
+            }
+            
+            Constraints constraints = new Constraints.Builder()
+                    .setRequiredNetworkType(isWifiOnlyEnabled() ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                    .build();
+            
+            for (Download download : downloadDao.getNextQueuedDownloads(freeSlots)) {
+                OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(DownloadWorker.class)
+                        .setInputData(new Data.Builder()
+                                .putString(Constants.EXTRA_TRACK_ID, download.getTrackId())
+                                .build())
+                        .setConstraints(constraints)
+                        .setBackoffCriteria(BackoffPolicy.EXPONENTIAL,
+                                Constants.DOWNLOAD_BACKOFF_DELAY_SECONDS, TimeUnit.SECONDS)
+                        .addTag(Constants.WORK_TAG_DOWNLOAD)
+                        .build();
+                
+                // KEEP means a track that already has a worker never gets a second one,
+                // so record whichever work actually owns the unique name
+                String uniqueWorkName = getUniqueWorkName(download.getTrackId());
+                workManager.enqueueUniqueWork(uniqueWorkName, ExistingWorkPolicy.KEEP, request).getResult().get();
+                String workId = request.getId().toString();
+                for (WorkInfo workInfo : workManager.getWorkInfosForUniqueWork(uniqueWorkName).get()) {
+                    if (!workInfo.getState().isFinished()) {
+                        workId = workInfo.getId().toString();
+                    }
+                }
+                downloadDao.updateWorkId(download.getId(), workId);
+                Log.d(TAG, "Started download for track: " + download.getTrackId());
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error dispatching downloads", e);
+        }
+    }
+    
+    /**
+     * Downloads whose worker is still enqueued or running. A row whose work has finished
+     * without recording an outcome, e.g. because the process died in the worker, is
+     * marked failed so it stops holding a slot.
+     */
+    private int countDispatchedDownloads(WorkManager workManager) throws Exception {
+        int count = 0;
+        for (Download download : downloadDao.getDispatchedDownloads()) {
+            boolean alive = false;
+            for (WorkInfo workInfo : workManager.getWorkInfosForUniqueWork(getUniqueWorkName(download.getTrackId())).get()) {
+                if (!workInfo.getState().isFinished()) {
+                    alive = true;
+                }
+            }
+            if (alive) {
+                count++;
+            } else {
+                Log.w(TAG, "Worker gone for track " + download.getTrackId() + ", marking the download failed");
+                downloadDao.updateDownloadFailed(download.getId(), Download.STATUS_FAILED,
+                        Constants.ERROR_DOWNLOAD_FAILED, System.currentTimeMillis());
+            }
+        }
+        return count;
+    }
+    
+    private boolean isWifiOnlyEnabled() {
+        return context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(Constants.PREF_WIFI_ONLY_DOWNLOADS, true);
+    }
+    
+    private int getConcurrencyLimit() {
+        int limit = context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(Constants.PREF_MAX_CONCURRENT_DOWNLOADS, Constants.DEFAULT_CONCURRENT_DOWNLOADS);
+        return Math.max(1, Math.min(limit, Constants.MAX_CONCURRENT_DOWNLOADS));
+    }
+}
@@ -3,8 +3,6 @@ package com.example.musicplayer.worker;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.Build;
 import android.util.Log;
 
@@ -20,9 +18,14 @@ import com.example.musicplayer.data.db.AppDatabase;
 import com.example.musicplayer.data.db.dao.DownloadDao;
 import com.example.musicplayer.data.db.dao.TrackDao;
 import com.example.musicplayer.data.db.entity.Download;
+import com.example.musicplayer.data.db.entity.StoredFile;
 import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.repository.StorageIndex;
+import com.example.musicplayer.data.repository.StorageQuotaManager;
 import com.example.musicplayer.utils.Constants;
 import com.example.musicplayer.utils.FileUtils;
+import com.example.musicplayer.utils.HashAlgorithm;
+import com.example.musicplayer.utils.Hasher;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -30,6 +33,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 public class DownloadWorker extends Worker {
     
@@ -40,6 +47,7 @@ public class DownloadWorker extends Worker {
     private DownloadDao downloadDao;
     private TrackDao trackDao;
     private NotificationManager notificationManager;
+    private ProgressReporter progressReporter;
     
     public DownloadWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
@@ -59,36 +67,63 @@ public class DownloadWorker extends Worker {
             return Result.failure();
         }
         
+        Download download = null;
         try {
             // Set foreground info for long-running task
             setForegroundAsync(createForegroundInfo("Starting download..."));
             
             // Get track and download info
             Track track = trackDao.getTrackById(trackId);
-            Download download = downloadDao.getDownloadByTrackId(trackId);
+            download = downloadDao.getDownloadByTrackId(trackId);
             
             if (track == null || download == null) {
                 Log.e(TAG, "Track or download not found for ID: " + trackId);
+                if (download != null) {
+                    updateDownloadFailed(download.getId(), Constants.ERROR_TRACK_NOT_FOUND);
+                }
                 return Result.failure();
             }
+            Download current = download;
             
-            // Check network connectivity
-            if (!isNetworkAvailable()) {
-                updateDownloadFailed(download.getId(), "No internet connection");
-                return Result.retry();
-            }
+            progressReporter = new ProgressReporter(trackId, new ProgressReporter.Sink() {
+                @Override
+                public void persist(int progress, long bytes) {
+                    // Progress only, the status may have been changed to PAUSED meanwhile
+                    downloadDao.updateDownloadBytes(current.getId(), progress, bytes);
+                }
+                
+                @Override
+                public void notify(int progress) {
+                    setForegroundAsync(createForegroundInfo("Downloading " + track.getTitle() + " (" + progress + "%)"));
+                }
+            });
             
-            // Check Wi-Fi requirement
-            if (isWifiOnlyEnabled() && !isWifiConnected()) {
-                updateDownloadFailed(download.getId(), "Wi-Fi connection required");
-                return Result.retry();
+            // A duplicate run for a track whose file is already in place has nothing to fetch
+            if (download.isCompleted() && FileUtils.isTrackDownloaded(getApplicationContext(), trackId)) {
+                return Result.success();
             }
             
+            // Network and Wi-Fi requirements are work constraints set by DownloadScheduler
+            
             // Update status to running
             downloadDao.updateDownloadStatus(download.getId(), Download.STATUS_RUNNING);
             
             // Download the track
-            boolean success = downloadTrack(track, download);
+            boolean success;
+            try {
+                success = downloadTrack(track, download);
+            } catch (IOException e) {
+                // Connection dropped partway through, keep the .tmp file and let WorkManager
+                // schedule another attempt that resumes from it
+                Log.w(TAG, "Download interrupted for track: " + trackId, e);
+                progressReporter.checkpoint();
+                if (getRunAttemptCount() + 1 < Constants.MAX_DOWNLOAD_ATTEMPTS) {
+                    downloadDao.updateDownloadRetrying(download.getId(), Download.STATUS_QUEUED, e.getMessage());
+                    return Result.retry();
+                }
+                updateDownloadFailed(download.getId(), Constants.ERROR_DOWNLOAD_FAILED);
+                return Result.failure();
+            }
             
             if (success) {
                 // Update track as downloaded
@@ -96,12 +131,16 @@ public class DownloadWorker extends Worker {
                 trackDao.updateDownloadStatus(trackId, true, trackFile.getAbsolutePath());
                 
                 // Update download as completed
-                downloadDao.updateDownloadCompleted(download.getId(), Download.STATUS_COMPLETED, System.currentTimeMillis());
+                downloadDao.updateDownloadCompleted(download.getId(), Download.STATUS_COMPLETED,
+                        trackFile.length(), System.currentTimeMillis());
                 
                 // Show completion notification
                 showCompletionNotification(track.getTitle());
                 
                 return Result.success();
+            } else if (isStopped()) {
+                // Paused or stopped by the system, the partial file is kept for later
+                return Result.retry();
             } else {
                 updateDownloadFailed(download.getId(), "Download failed");
                 return Result.failure();
@@ -109,11 +148,30 @@ public class DownloadWorker extends Worker {
             
         } catch (Exception e) {
             Log.e(TAG, "Error in download worker", e);
+            // Every failure has to be recorded, a row left RUNNING would hold its slot forever
+            if (download != null) {
+                updateDownloadFailed(download.getId(), Constants.ERROR_DOWNLOAD_FAILED);
+            }
             return Result.failure();
+        } finally {
+            if (progressReporter != null) {
+                progressReporter.finish();
+            }
+            StorageQuotaManager.getInstance(getApplicationContext()).releaseSpace(trackId);
+            // Hand the slot to the next queued download
+            DownloadScheduler.getInstance(getApplicationContext()).schedule();
         }
     }
     
-    private boolean downloadTrack(Track track, Download download) {
+    /**
+     * Download a track into its .tmp file and move it into place once complete.
+     * A partial .tmp file left by an earlier attempt is resumed with a Range request,
+     * guarded by If-Range so a changed remote file restarts from byte 0.
+     *
+     * @return false on a permanent failure, throws IOException when the transfer was
+     *         interrupted and can be resumed later
+     */
+    private boolean downloadTrack(Track track, Download download) throws IOException {
         HttpURLConnection connection = null;
         InputStream inputStream = null;
         FileOutputStream outputStream = null;
@@ -121,70 +179,115 @@ public class DownloadWorker extends Worker {
         try {
             // Create download file
             File trackFile = FileUtils.getTrackFile(getApplicationContext(), track.getId());
-            File tempFile = new File(trackFile.getAbsolutePath() + ".tmp");
-            
-            // Check available storage
+            File tempFile = new File(trackFile.getAbsolutePath() + Constants.TEMP_FILE_EXTENSION);
+            if (!FileUtils.ensureParentDirectory(tempFile)) {
+                throw new IOException("Cannot create " + tempFile.getParent());
+            }
             URL url = new URL(track.getStreamUrl());
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(Constants.CONNECT_TIMEOUT);
-            connection.setReadTimeout(Constants.READ_TIMEOUT);
             
-            int responseCode = connection.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                Log.e(TAG, "HTTP error: " + responseCode);
+            // Large files go through parallel ranges, unless a single-stream .tmp is already underway
+            File segmentState = SegmentedDownloader.getStateFile(tempFile);
+            int segmentCount = getSegmentCount();
+            if (segmentCount > 1 && (segmentState.exists() || !tempFile.exists())) {
+                Boolean segmented = downloadSegmented(url, track, download, tempFile, trackFile, segmentCount);
+                if (segmented != null) {
+                    return segmented;
+                }
+            }
+            if (segmentState.exists()) {
+                // A preallocated segmented file has its full length from the start, its
+                // length says nothing about what was written. Only a .tmp without segment
+                // state is a single-stream prefix that can be resumed or taken as complete.
+                segmentState.delete();
+                tempFile.delete();
+            }
+            
+            // The .tmp length is what actually reached the disk, Download.bytes can be ahead of it
+            ResumableRequest request = ResumableRequest.open(url, tempFile.exists() ? tempFile.length() : 0,
+                    download.getEtag(), download.getLastModified());
+            long resumeFrom = request.getResumeFrom();
+            HashAlgorithm checksumAlgorithm = getChecksumAlgorithm(track);
+            if (request.isComplete()) {
+                return finishDownload(tempFile, trackFile, track, download, checksumAlgorithm,
+                        FileUtils.hashFile(tempFile, resumeFrom, checksumAlgorithm));
+            }
+            
+            connection = request.getConnection();
+            boolean append = resumeFrom > 0;
+            Hasher hasher = checksumAlgorithm.newHasher();
+            if (!request.isSuccessful()) {
+                Log.e(TAG, "HTTP error: " + request.getResponseCode());
                 return false;
             }
             
-            long fileSize = connection.getContentLength();
-            if (!FileUtils.hasEnoughStorageSpace(getApplicationContext(), fileSize)) {
+            downloadDao.updateValidators(download.getId(),
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            
+            long remainingBytes = ResumableRequest.parseLong(connection.getHeaderField("Content-Length"));
+            long fileSize = remainingBytes >= 0 ? resumeFrom + remainingBytes : -1;
+            if (!StorageQuotaManager.getInstance(getApplicationContext()).ensureSpace(track.getId(), remainingBytes)) {
                 Log.e(TAG, "Not enough storage space");
                 return false;
             }
             
+            if (append) {
+                Log.d(TAG, "Resuming " + track.getTitle() + " from byte " + resumeFrom);
+                // Rebuild the digest state from the part that is already on disk
+                FileUtils.updateHash(hasher, tempFile, resumeFrom);
+            }
+            
             inputStream = connection.getInputStream();
-            outputStream = new FileOutputStream(tempFile);
+            outputStream = new FileOutputStream(tempFile, append);
             
-            byte[] buffer = new byte[8192];
-            long totalBytesRead = 0;
-            int bytesRead;
+            // Copy through a pooled direct buffer straight into the file channel, and only
+            // sync the file when the reporter persists a checkpoint
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            FileChannel target = outputStream.getChannel();
+            ByteBuffer buffer = DownloadBuffers.acquire(getBufferSize());
+            long totalBytesRead = resumeFrom;
+            progressReporter.start(resumeFrom, fileSize);
+            // Let playback read what is already written while the rest streams in
+            DownloadProgressTracker.PartialFile partialFile = DownloadProgressTracker.getInstance()
+                    .openPartialFile(track.getId(), tempFile, resumeFrom, fileSize);
             
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                if (isStopped()) {
-                    Log.d(TAG, "Download cancelled");
-                    return false;
-                }
-                
-                outputStream.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
-                
-                // Update progress
-                if (fileSize > 0) {
-                    int progress = (int) ((totalBytesRead * 100) / fileSize);
-                    downloadDao.updateDownloadProgress(download.getId(), Download.STATUS_RUNNING, progress, totalBytesRead);
+            try {
+                while (source.read(buffer) != -1) {
+                    if (isStopped()) {
+                        Log.d(TAG, "Download cancelled");
+                        target.force(false);
+                        progressReporter.checkpoint();
+                        return false;
+                    }
                     
-                    // Update notification
-                    setForegroundAsync(createForegroundInfo("Downloading " + track.getTitle() + " (" + progress + "%)"));
+                    buffer.flip();
+                    hasher.update(buffer);
+                    while (buffer.hasRemaining()) {
+                        totalBytesRead += target.write(buffer);
+                    }
+                    buffer.clear();
+                    partialFile.advance(totalBytesRead);
+                    
+                    // Update progress, the reporter decides when it is worth emitting or persisting
+                    if (progressReporter.report(totalBytesRead)) {
+                        target.force(false);
+                    }
                 }
+            } finally {
+                DownloadBuffers.release(buffer);
             }
             
-            outputStream.flush();
+            target.force(false);
             outputStream.close();
             inputStream.close();
             connection.disconnect();
             
-            // Move temp file to final location
-            if (tempFile.renameTo(trackFile)) {
-                Log.d(TAG, "Download completed: " + track.getTitle());
-                return true;
-            } else {
-                Log.e(TAG, "Failed to rename temp file");
-                tempFile.delete();
-                return false;
+            if (fileSize > 0 && totalBytesRead < fileSize) {
+                // Stream ended early without an exception, treat it like a dropped connection
+                throw new IOException("Connection closed at " + totalBytesRead + " of " + fileSize + " bytes");
             }
             
-        } catch (IOException e) {
-            Log.e(TAG, "Download error", e);
-            return false;
+            return finishDownload(tempFile, trackFile, track, download, checksumAlgorithm, hasher.digestHex());
+            
         } finally {
             try {
                 if (outputStream != null) outputStream.close();
@@ -193,29 +296,153 @@ public class DownloadWorker extends Worker {
             } catch (IOException e) {
                 Log.e(TAG, "Error closing streams", e);
             }
+            DownloadProgressTracker.getInstance().closePartialFile(track.getId());
         }
     }
     
-    private void updateDownloadFailed(long downloadId, String reason) {
-        downloadDao.updateDownloadFailed(downloadId, Download.STATUS_FAILED, reason, System.currentTimeMillis());
+    /**
+     * Fetch the track as parallel byte ranges written into a preallocated .tmp file.
+     *
+     * @return null when the server does not serve ranges, gives no validator or the file
+     *         is too small to be worth splitting, so the caller falls back to one stream
+     */
+    private Boolean downloadSegmented(URL url, Track track, Download download, File tempFile,
+                                      File trackFile, int segmentCount) throws IOException {
+        long totalBytes;
+        String validator;
+        HttpURLConnection probe = (HttpURLConnection) url.openConnection();
+        try {
+            probe.setConnectTimeout(Constants.CONNECT_TIMEOUT);
+            probe.setReadTimeout(Constants.READ_TIMEOUT);
+            probe.setRequestProperty("Range", "bytes=0-0");
+            if (probe.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                return null;
+            }
+            totalBytes = ResumableRequest.parseContentRangeTotal(probe.getHeaderField("Content-Range"));
+            String etag = probe.getHeaderField("ETag");
+            String lastModified = probe.getHeaderField("Last-Modified");
+            validator = ResumableRequest.chooseValidator(etag, lastModified);
+            if (totalBytes < Constants.MIN_SEGMENTED_DOWNLOAD_SIZE || validator == null) {
+                return null;
+            }
+            downloadDao.updateValidators(download.getId(), etag, lastModified);
+        } finally {
+            probe.disconnect();
+        }
+        
+        SegmentedDownloader downloader = new SegmentedDownloader(url, validator, tempFile, totalBytes,
+                new SegmentedDownloader.Listener() {
+                    @Override
+                    public boolean isCancelled() {
+                        return isStopped();
+                    }
+                    
+                    @Override
+                    public boolean onProgress(long downloadedBytes, long totalBytes) {
+                        return progressReporter.report(downloadedBytes);
+                    }
+                    
+                    @Override
+                    public void onContiguousBytes(long contiguousBytes) {
+                        DownloadProgressTracker.getInstance().advancePartialFile(track.getId(), contiguousBytes);
+                    }
+                }, getBufferSize());
+        
+        long remainingBytes = downloader.getRemainingBytes(segmentCount);
+        if (!StorageQuotaManager.getInstance(getApplicationContext()).ensureSpace(track.getId(), remainingBytes)) {
+            Log.e(TAG, "Not enough storage space");
+            return false;
+        }
+        
+        Log.d(TAG, "Downloading " + track.getTitle() + " in " + segmentCount + " segments");
+        progressReporter.start(totalBytes - remainingBytes, totalBytes);
+        // Only the complete prefix is readable by playback, later segments may still have holes
+        DownloadProgressTracker tracker = DownloadProgressTracker.getInstance();
+        tracker.openPartialFile(track.getId(), tempFile, downloader.getContiguousBytes(), totalBytes);
+        try {
+            if (!downloader.download(segmentCount)) {
+                Log.d(TAG, "Download cancelled");
+                progressReporter.checkpoint();
+                return false;
+            }
+        } finally {
+            tracker.closePartialFile(track.getId());
+        }
+        
+        // Segments arrive out of order, so the checksum needs one sequential pass at the end
+        HashAlgorithm checksumAlgorithm = getChecksumAlgorithm(track);
+        return finishDownload(tempFile, trackFile, track, download, checksumAlgorithm,
+                FileUtils.hashFile(tempFile, totalBytes, checksumAlgorithm));
+    }
+    
+    /**
+     * Store the checksum of a finished .tmp file, compare it with the one published by
+     * the catalog if there is one, and move the file into place. A mismatch discards the
+     * file and throws so the download is retried from scratch.
+     */
+    private boolean finishDownload(File tempFile, File trackFile, Track track, Download download,
+                                   HashAlgorithm algorithm, String checksum) throws IOException {
+        String expected = track.getChecksum();
+        if (expected != null && !expected.isEmpty()
+                && algorithm == HashAlgorithm.fromName(track.getChecksumAlgorithm())
+                && !expected.equalsIgnoreCase(checksum)) {
+            Log.e(TAG, "Checksum mismatch for " + track.getTitle() + ": expected " + expected + ", got " + checksum);
+            tempFile.delete();
+            downloadDao.updateValidators(download.getId(), null, null);
+            throw new IOException("Checksum mismatch");
+        }
+        downloadDao.updateChecksum(download.getId(), checksum, algorithm.getName());
+        if (!moveIntoPlace(tempFile, trackFile, track)) {
+            return false;
+        }
+        StorageIndex.getInstance(getApplicationContext())
+                .recordFile(track.getId(), trackFile, StoredFile.KIND_AUDIO, checksum);
+        return true;
     }
     
-    private boolean isNetworkAvailable() {
-        ConnectivityManager cm = (ConnectivityManager) getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
+    /**
+     * Hash with the catalog's algorithm when it publishes a checksum, so the two can be
+     * compared, otherwise with the one picked in settings
+     */
+    private HashAlgorithm getChecksumAlgorithm(Track track) {
+        if (track.getChecksum() != null && !track.getChecksum().isEmpty()) {
+            HashAlgorithm expected = HashAlgorithm.fromName(track.getChecksumAlgorithm());
+            if (expected != null) {
+                return expected;
+            }
+        }
+        HashAlgorithm preferred = HashAlgorithm.fromName(
+                getApplicationContext().getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                        .getString(Constants.PREF_DOWNLOAD_CHECKSUM, HashAlgorithm.MD5.getName()));
+        return preferred != null ? preferred : HashAlgorithm.MD5;
+    }
+    
+    private boolean moveIntoPlace(File tempFile, File trackFile, Track track) {
+        // Move temp file to final location
+        if (tempFile.renameTo(trackFile)) {
+            Log.d(TAG, "Download completed: " + track.getTitle());
+            return true;
+        } else {
+            Log.e(TAG, "Failed to rename temp file");
+            tempFile.delete();
+            return false;
+        }
+    }
+    
+    private void updateDownloadFailed(long downloadId, String reason) {
+        downloadDao.updateDownloadFailed(downloadId, Download.STATUS_FAILED, reason, System.currentTimeMillis());
     }
     
-    private boolean isWifiConnected() {
-        ConnectivityManager cm = (ConnectivityManager) getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        return activeNetwork != null && activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+    private int getBufferSize() {
+        int sizeKb = getApplicationContext().getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(Constants.PREF_DOWNLOAD_BUFFER_KB, Constants.DEFAULT_DOWNLOAD_BUFFER_KB);
+        return Math.max(Constants.MIN_DOWNLOAD_BUFFER_KB, Math.min(sizeKb, Constants.MAX_DOWNLOAD_BUFFER_KB)) * 1024;
     }
     
-    private boolean isWifiOnlyEnabled() {
-        // Check SharedPreferences for Wi-Fi only setting
-        return getApplicationContext().getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
-                .getBoolean(Constants.PREF_WIFI_ONLY_DOWNLOADS, true);
+    private int getSegmentCount() {
+        int segments = getApplicationContext().getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(Constants.PREF_DOWNLOAD_SEGMENTS, Constants.DEFAULT_DOWNLOAD_SEGMENTS);
+        return Math.max(1, Math.min(segments, Constants.MAX_DOWNLOAD_SEGMENTS));
     }
     
     private ForegroundInfo createForegroundInfo(String message) {
@@ -0,0 +1,196 @@
+package com.example.musicplayer.worker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.data.repository.StorageIndex;
+import com.example.musicplayer.data.repository.StorageQuotaManager;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic housekeeping while the device is idle and charging: removes downloads whose
+ * file is damaged, removes files that no download or track owns any more, prunes old
+ * download history, recent entries and unused tags and keeps the database analyzed
+ * and compact.
+ */
+public class MaintenanceWorker extends Worker {
+    
+    private static final String TAG = "MaintenanceWorker";
+    public static final String KEY_DURATION_MS = "duration_ms";
+    public static final String KEY_BYTES_RECLAIMED = "bytes_reclaimed";
+    public static final String KEY_ROWS_RECLAIMED = "rows_reclaimed";
+    
+    // A file this fresh may belong to a download that was queued after we looked
+    private static final long ORPHAN_MIN_AGE_MS = 60 * 60 * 1000;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    
+    private final AppDatabase database;
+    
+    public MaintenanceWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+        database = AppDatabase.getInstance(context);
+    }
+    
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(MaintenanceWorker.class,
+                Constants.MAINTENANCE_INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .addTag(Constants.WORK_TAG_CLEANUP)
+                .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                Constants.WORK_NAME_MAINTENANCE, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+    
+    @NonNull
+    @Override
+    public Result doWork() {
+        long startedAt = SystemClock.elapsedRealtime();
+        long bytes = 0;
+        int rows = 0;
+        
+        try {
+            // Rows first, so the partial files of pruned downloads are orphans below
+            rows += database.downloadDao().pruneFinishedDownloads(
+                    System.currentTimeMillis() - Constants.DOWNLOAD_HISTORY_RETENTION_MS);
+            rows += database.recentDao().limitRecentEntries(Constants.MAX_RECENT_ENTRIES);
+            rows += database.tagDao().deleteUnusedTags();
+            
+            // Before reconcile, which would take a changed file into the index as it is now
+            rows += removeCorruptDownloads();
+            bytes += deleteOrphanFiles();
+            // Drops the index rows of the deleted files and repairs any other drift
+            rows += StorageIndex.getInstance(getApplicationContext()).reconcile();
+            
+            bytes += compactDatabase();
+        } catch (Exception e) {
+            Log.e(TAG, "Maintenance failed", e);
+            return Result.failure();
+        }
+        
+        long duration = SystemClock.elapsedRealtime() - startedAt;
+        Log.d(TAG, "Maintenance took " + duration + " ms, reclaimed " + bytes + " bytes and " + rows + " rows");
+        return Result.success(new Data.Builder()
+                .putLong(KEY_DURATION_MS, duration)
+                .putLong(KEY_BYTES_RECLAIMED, bytes)
+                .putInt(KEY_ROWS_RECLAIMED, rows)
+                .build());
+    }
+    
+    /**
+     * Re-hash the downloaded library, at most every LIBRARY_VERIFY_INTERVAL_MS, and
+     * remove the downloads whose file is missing, truncated or no longer matches its
+     * checksum. Their tracks stream again until downloaded anew.
+     *
+     * @return downloads removed
+     */
+    private int removeCorruptDownloads() throws InterruptedException {
+        Context context = getApplicationContext();
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(Constants.PREF_LIBRARY_VERIFIED_AT, 0) < Constants.LIBRARY_VERIFY_INTERVAL_MS) {
+            return 0;
+        }
+        
+        List<String> corrupt = StorageIndex.getInstance(context).verifyLibrary();
+        StorageQuotaManager quotaManager = StorageQuotaManager.getInstance(context);
+        int removed = 0;
+        for (String trackId : corrupt) {
+            if (isStopped()) {
+                // Verified again on the next run
+                return removed;
+            }
+            try {
+                quotaManager.removeDownload(trackId);
+                Log.w(TAG, "Removed damaged download of " + trackId);
+                removed++;
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Could not remove damaged download of " + trackId, e);
+            }
+        }
+        prefs.edit().putLong(Constants.PREF_LIBRARY_VERIFIED_AT, now).apply();
+        return removed;
+    }
+    
+    /**
+     * Delete the files in the download directory that FileUtils.isLeftoverFile says
+     * nothing owns any more
+     */
+    private long deleteOrphanFiles() {
+        Set<String> trackIds = new HashSet<>(database.trackDao().getAllTrackIds());
+        Set<String> unfinished = new HashSet<>(database.downloadDao().getUnfinishedDownloadTrackIds());
+        long cutoff = System.currentTimeMillis() - ORPHAN_MIN_AGE_MS;
+        long reclaimed = 0;
+        
+        List<File> files = new ArrayList<>();
+        FileUtils.collectFiles(FileUtils.getMusicDownloadDirectory(getApplicationContext()), files);
+        for (File file : files) {
+            if (isStopped()) {
+                break;
+            }
+            if (file.lastModified() > cutoff || !FileUtils.isLeftoverFile(file, trackIds, unfinished)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                Log.d(TAG, "Deleted orphan file: " + file.getName());
+                reclaimed += length;
+            }
+        }
+        return reclaimed;
+    }
+    
+    /**
+     * Refresh the query planner statistics and give free pages back to the file system
+     *
+     * @return bytes the database file shrank by
+     */
+    private long compactDatabase() {
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        db.execSQL("ANALYZE");
+        
+        long pageSize = queryLong(db, "PRAGMA page_size");
+        long pagesBefore = queryLong(db, "PRAGMA page_count");
+        if (queryLong(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // The mode of an existing database only changes with a full VACUUM, done once
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            // VACUUM may renumber the rowids of tracks, which tracks_fts is keyed by
+            AppDatabase.rebuildSearchIndex(db);
+        } else {
+            db.execSQL("PRAGMA incremental_vacuum");
+        }
+        return Math.max(0, pagesBefore - queryLong(db, "PRAGMA page_count")) * pageSize;
+    }
+    
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.musicplayer.worker;
+
+import android.os.SystemClock;
+
+/**
+ * Coalesces per-buffer progress from a download loop. Progress is emitted to the
+ * in-memory tracker and the notification only when the percentage changes or
+ * EMIT_INTERVAL_MS has passed, and written to the downloads table only every
+ * CHECKPOINT_INTERVAL_MS or when a checkpoint is forced.
+ */
+class ProgressReporter {
+    
+    private static final long EMIT_INTERVAL_MS = 1000;
+    private static final long CHECKPOINT_INTERVAL_MS = 5000;
+    
+    interface Sink {
+        void persist(int progress, long bytes);
+        void notify(int progress);
+    }
+    
+    /**
+     * Milliseconds since boot; SystemClock outside tests
+     */
+    interface Clock {
+        long elapsedRealtime();
+    }
+    
+    private final String trackId;
+    private final Sink sink;
+    private final Clock clock;
+    private final DownloadProgressTracker tracker = DownloadProgressTracker.getInstance();
+    
+    private long totalBytes = -1;
+    private long bytes;
+    private int progress = -1;
+    private long lastEmitAt;
+    private long lastCheckpointAt;
+    private boolean dirty;
+    
+    ProgressReporter(String trackId, Sink sink) {
+        this(trackId, sink, SystemClock::elapsedRealtime);
+    }
+    
+    ProgressReporter(String trackId, Sink sink, Clock clock) {
+        this.trackId = trackId;
+        this.sink = sink;
+        this.clock = clock;
+    }
+    
+    /**
+     * Reset for a new transfer of totalBytes (-1 if unknown), starting at startBytes
+     */
+    synchronized void start(long startBytes, long totalBytes) {
+        this.totalBytes = totalBytes;
+        this.progress = -1;
+        this.lastCheckpointAt = clock.elapsedRealtime();
+        report(startBytes);
+    }
+    
+    /**
+     * Record that bytes have been written so far.
+     *
+     * @return true if this call persisted a checkpoint, so the caller can sync the file
+     */
+    synchronized boolean report(long bytes) {
+        this.bytes = bytes;
+        dirty = true;
+        int newProgress = totalBytes > 0 ? (int) ((bytes * 100) / totalBytes) : 0;
+        long now = clock.elapsedRealtime();
+        
+        if (newProgress != progress || now - lastEmitAt >= EMIT_INTERVAL_MS) {
+            boolean progressChanged = newProgress != progress;
+            progress = newProgress;
+            lastEmitAt = now;
+            tracker.update(trackId, progress, bytes, totalBytes);
+            if (progressChanged) {
+                sink.notify(progress);
+            }
+        }
+        
+        if (now - lastCheckpointAt >= CHECKPOINT_INTERVAL_MS) {
+            checkpoint();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Persist the latest progress now, e.g. before the worker stops or retries
+     */
+    synchronized void checkpoint() {
+        lastCheckpointAt = clock.elapsedRealtime();
+        if (dirty) {
+            dirty = false;
+            sink.persist(Math.max(progress, 0), bytes);
+        }
+    }
+    
+    synchronized void finish() {
+        tracker.remove(trackId);
+    }
+}
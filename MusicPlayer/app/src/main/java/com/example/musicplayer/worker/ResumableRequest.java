@@ -0,0 +1,157 @@
+package com.example.musicplayer.worker;
+
+import android.util.Log;
+
+import com.example.musicplayer.utils.Constants;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connection of a single-stream download. A partial file is resumed with a
+ * Range request guarded by If-Range, so a changed remote file restarts from byte 0,
+ * and a 416 tells whether the partial file already holds the whole remote file.
+ */
+class ResumableRequest {
+    
+    private static final String TAG = "ResumableRequest";
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    
+    private final HttpURLConnection connection;
+    private final int responseCode;
+    private final long resumeFrom;
+    
+    private ResumableRequest(HttpURLConnection connection, int responseCode, long resumeFrom) {
+        this.connection = connection;
+        this.responseCode = responseCode;
+        this.resumeFrom = resumeFrom;
+    }
+    
+    /**
+     * @param partialBytes length of the partial file on disk, 0 if there is none. Must be
+     *                     a prefix written by a single stream, never a preallocated file.
+     * @param etag         ETag the partial file was written from, if any
+     * @param lastModified Last-Modified the partial file was written from, if any
+     */
+    static ResumableRequest open(URL url, long partialBytes, String etag, String lastModified) throws IOException {
+        long resumeFrom = partialBytes;
+        String validator = chooseValidator(etag, lastModified);
+        if (resumeFrom > 0 && validator == null) {
+            // Without a validator there is no way to tell whether the remote file changed
+            Log.d(TAG, "No validator for partial download, restarting");
+            resumeFrom = 0;
+        }
+        
+        HttpURLConnection connection = openConnection(url, resumeFrom, validator);
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0) {
+            if (!isResumeValid(connection, resumeFrom, etag, lastModified)) {
+                // Range was honoured but not for the file we started with, fetch it whole
+                connection.disconnect();
+                resumeFrom = 0;
+                connection = openConnection(url, 0, null);
+                responseCode = connection.getResponseCode();
+            }
+        } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && resumeFrom > 0) {
+            // The partial file already covers the whole remote file if the sizes match
+            long remoteSize = parseContentRangeTotal(connection.getHeaderField("Content-Range"));
+            connection.disconnect();
+            if (remoteSize == resumeFrom) {
+                return new ResumableRequest(null, responseCode, resumeFrom);
+            }
+            Log.w(TAG, "Partial file does not match remote size " + remoteSize + ", restarting");
+            resumeFrom = 0;
+            connection = openConnection(url, 0, null);
+            responseCode = connection.getResponseCode();
+        } else if (responseCode == HttpURLConnection.HTTP_OK) {
+            // Server ignored the Range header or If-Range did not match
+            resumeFrom = 0;
+        }
+        return new ResumableRequest(connection, responseCode, resumeFrom);
+    }
+    
+    /**
+     * The connection to read the body from, null when the partial file is already complete
+     */
+    HttpURLConnection getConnection() { return connection; }
+    int getResponseCode() { return responseCode; }
+    /** Bytes of the partial file the body continues, 0 when the body is the whole file */
+    long getResumeFrom() { return resumeFrom; }
+    
+    boolean isComplete() {
+        return connection == null;
+    }
+    
+    /**
+     * Whether the response carries the body the caller asked for: the rest of the file
+     * when resuming, the whole file otherwise
+     */
+    boolean isSuccessful() {
+        return resumeFrom > 0 ? responseCode == HttpURLConnection.HTTP_PARTIAL
+                : responseCode == HttpURLConnection.HTTP_OK;
+    }
+    
+    private static HttpURLConnection openConnection(URL url, long rangeStart, String validator) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(Constants.CONNECT_TIMEOUT);
+        connection.setReadTimeout(Constants.READ_TIMEOUT);
+        if (rangeStart > 0) {
+            connection.setRequestProperty("Range", "bytes=" + rangeStart + "-");
+            connection.setRequestProperty("If-Range", validator);
+        }
+        return connection;
+    }
+    
+    /**
+     * Pick the validator to send with If-Range. Weak ETags are not allowed there,
+     * so fall back to Last-Modified for those.
+     */
+    static String chooseValidator(String etag, String lastModified) {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+    
+    /**
+     * Check that a 206 response continues the partial file: it has to start at the
+     * requested offset and carry the same validators the partial file was written from.
+     */
+    private static boolean isResumeValid(HttpURLConnection connection, long resumeFrom,
+                                         String etag, String lastModified) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes " + resumeFrom + "-")) {
+            Log.w(TAG, "Unexpected Content-Range: " + contentRange);
+            return false;
+        }
+        String remoteEtag = connection.getHeaderField("ETag");
+        if (etag != null && remoteEtag != null && !etag.equals(remoteEtag)) {
+            return false;
+        }
+        String remoteLastModified = connection.getHeaderField("Last-Modified");
+        return lastModified == null || remoteLastModified == null || lastModified.equals(remoteLastModified);
+    }
+    
+    /**
+     * Parse the total size out of a Content-Range header, e.g. "bytes 0-99/1234"
+     */
+    static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        return slash >= 0 ? parseLong(contentRange.substring(slash + 1)) : -1;
+    }
+    
+    static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.musicplayer.worker;
+
+import android.util.Log;
+
+import com.example.musicplayer.utils.Constants;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fetches a file as several byte ranges at the same time. Every segment writes
+ * straight to its own offset of a preallocated file through a shared FileChannel,
+ * and the segment positions are checkpointed to a small state file next to it so
+ * an interrupted download picks up each segment where it stopped.
+ */
+class SegmentedDownloader {
+    
+    private static final String TAG = "SegmentedDownloader";
+    private static final String STATE_EXTENSION = ".segments";
+    private static final int STATE_VERSION = 1;
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
+    
+    interface Listener {
+        boolean isCancelled();
+        /**
+         * @return true when progress was persisted, the file is then synced and the
+         *         segment state checkpointed to match
+         */
+        boolean onProgress(long downloadedBytes, long totalBytes);
+        /**
+         * Called from the segment threads whenever the file may have grown a longer
+         * complete prefix, see {@link #getContiguousBytes()}
+         */
+        void onContiguousBytes(long contiguousBytes);
+    }
+    
+    private final URL url;
+    private final String validator;
+    private final File targetFile;
+    private final File stateFile;
+    private final long totalBytes;
+    private final Listener listener;
+    private final int bufferSize;
+    
+    private long[] starts;
+    private long[] ends;
+    private AtomicLongArray positions;
+    private HttpURLConnection[] connections;
+    private volatile boolean aborted;
+    private volatile boolean invalidated;
+    
+    SegmentedDownloader(URL url, String validator, File targetFile, long totalBytes, Listener listener,
+                        int bufferSize) {
+        this.url = url;
+        this.validator = validator;
+        this.targetFile = targetFile;
+        this.stateFile = getStateFile(targetFile);
+        this.totalBytes = totalBytes;
+        this.listener = listener;
+        this.bufferSize = bufferSize;
+    }
+    
+    static File getStateFile(File targetFile) {
+        return new File(targetFile.getAbsolutePath() + STATE_EXTENSION);
+    }
+    
+    /**
+     * Bytes still missing, taking a resumable state file into account
+     */
+    long getRemainingBytes(int segmentCount) {
+        prepareSegments(segmentCount);
+        long remaining = 0;
+        for (int i = 0; i < starts.length; i++) {
+            remaining += ends[i] + 1 - positions.get(i);
+        }
+        return remaining;
+    }
+    
+    /**
+     * Download all segments into the target file.
+     *
+     * @return true once every segment is complete, false if the listener cancelled
+     * @throws IOException if a segment failed; progress is checkpointed so a later
+     *         call resumes from it
+     */
+    boolean download(int segmentCount) throws IOException {
+        prepareSegments(segmentCount);
+        connections = new HttpURLConnection[starts.length];
+        
+        RandomAccessFile file = new RandomAccessFile(targetFile, "rw");
+        ExecutorService executor = Executors.newFixedThreadPool(starts.length);
+        try {
+            // The state goes to disk before the file gets its full length: a full-length
+            // file without state would pass for a finished single-stream download
+            writeState(snapshotPositions());
+            if (file.length() != totalBytes) {
+                file.setLength(totalBytes);
+            }
+            FileChannel channel = file.getChannel();
+            
+            List<Future<?>> futures = new ArrayList<>();
+            // Ends the wait between polls as soon as the last segment is through
+            CountDownLatch segmentsDone = new CountDownLatch(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> {
+                    try {
+                        fetchSegment(index, channel);
+                    } finally {
+                        segmentsDone.countDown();
+                    }
+                    return null;
+                }));
+            }
+            
+            long lastCheckpoint = System.currentTimeMillis();
+            while (true) {
+                boolean allDone = true;
+                for (Future<?> future : futures) {
+                    if (!future.isDone()) {
+                        allDone = false;
+                    } else {
+                        rethrowFailure(future);
+                    }
+                }
+                
+                boolean persisted = listener.onProgress(getDownloadedBytes(), totalBytes);
+                if (allDone) {
+                    break;
+                }
+                
+                if (listener.isCancelled()) {
+                    abort();
+                    checkpoint(channel);
+                    return false;
+                }
+                
+                long now = System.currentTimeMillis();
+                if (persisted || now - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+                    checkpoint(channel);
+                    lastCheckpoint = now;
+                }
+                
+                try {
+                    segmentsDone.await(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort();
+                    checkpoint(channel);
+                    return false;
+                }
+            }
+            
+            channel.force(false);
+            stateFile.delete();
+            return true;
+        } catch (IOException e) {
+            abort();
+            checkpoint(file.getChannel());
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            file.close();
+            if (invalidated) {
+                stateFile.delete();
+                targetFile.delete();
+            }
+        }
+    }
+    
+    private void fetchSegment(int index, FileChannel channel) throws IOException {
+        long position = positions.get(index);
+        long end = ends[index];
+        if (position > end) {
+            return;
+        }
+        
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connections[index] = connection;
+        InputStream inputStream = null;
+        try {
+            connection.setConnectTimeout(Constants.CONNECT_TIMEOUT);
+            connection.setReadTimeout(Constants.READ_TIMEOUT);
+            connection.setRequestProperty("Range", "bytes=" + position + "-" + end);
+            connection.setRequestProperty("If-Range", validator);
+            
+            int responseCode = connection.getResponseCode();
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (responseCode == HttpURLConnection.HTTP_OK || (responseCode == HttpURLConnection.HTTP_PARTIAL
+                    && (contentRange == null || !contentRange.startsWith("bytes " + position + "-")))) {
+                // The remote file changed (If-Range fell back to 200) or ranges stopped working,
+                // the saved segments are worthless now
+                invalidated = true;
+                throw new IOException("Segment " + index + " not served as a range: HTTP " + responseCode);
+            } else if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Segment " + index + " failed: HTTP " + responseCode);
+            }
+            
+            inputStream = connection.getInputStream();
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            ByteBuffer buffer = DownloadBuffers.acquire(bufferSize);
+            try {
+                while (!aborted && position <= end) {
+                    buffer.limit((int) Math.min(buffer.capacity(), end + 1 - position));
+                    if (source.read(buffer) == -1) {
+                        break;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                    positions.set(index, position);
+                    listener.onContiguousBytes(getContiguousBytes());
+                }
+            } finally {
+                DownloadBuffers.release(buffer);
+            }
+            
+            if (!aborted && position <= end) {
+                throw new IOException("Segment " + index + " ended at " + position + " of " + end);
+            }
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            connection.disconnect();
+        }
+    }
+    
+    /**
+     * Reuse the segment layout from the state file if it belongs to the same remote
+     * file, otherwise split the file into segmentCount equal ranges.
+     */
+    private void prepareSegments(int segmentCount) {
+        if (starts != null) {
+            return;
+        }
+        if (stateFile.exists() && targetFile.exists() && loadState()) {
+            Log.d(TAG, "Resuming " + starts.length + " segments of " + targetFile.getName());
+            return;
+        }
+        
+        int count = (int) Math.max(1, Math.min(segmentCount, totalBytes));
+        long segmentSize = totalBytes / count;
+        starts = new long[count];
+        ends = new long[count];
+        positions = new AtomicLongArray(count);
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = i == count - 1 ? totalBytes - 1 : (i + 1) * segmentSize - 1;
+            positions.set(i, starts[i]);
+        }
+    }
+    
+    private boolean loadState() {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+            if (in.readInt() != STATE_VERSION || in.readLong() != totalBytes
+                    || !in.readUTF().equals(validator)) {
+                return false;
+            }
+            int count = in.readInt();
+            starts = new long[count];
+            ends = new long[count];
+            positions = new AtomicLongArray(count);
+            for (int i = 0; i < count; i++) {
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+                positions.set(i, in.readLong());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable segment state", e);
+            starts = null;
+            return false;
+        }
+    }
+    
+    /**
+     * Persist segment positions. The data is forced to disk first so the state file
+     * never claims bytes that could still be lost; the positions are taken before the
+     * force, as segments keep writing during it and only what came before is synced.
+     */
+    private void checkpoint(FileChannel channel) {
+        if (invalidated) {
+            return;
+        }
+        try {
+            long[] synced = snapshotPositions();
+            channel.force(false);
+            writeState(synced);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to checkpoint segments", e);
+        }
+    }
+    
+    private long[] snapshotPositions() {
+        long[] snapshot = new long[starts.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = positions.get(i);
+        }
+        return snapshot;
+    }
+    
+    private void writeState(long[] segmentPositions) throws IOException {
+        File tempState = new File(stateFile.getAbsolutePath() + Constants.TEMP_FILE_EXTENSION);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempState))) {
+            out.writeInt(STATE_VERSION);
+            out.writeLong(totalBytes);
+            out.writeUTF(validator);
+            out.writeInt(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeLong(segmentPositions[i]);
+            }
+        }
+        if (!tempState.renameTo(stateFile)) {
+            throw new IOException("Failed to save segment state for " + targetFile.getName());
+        }
+    }
+    
+    /**
+     * Length of the prefix of the file that is completely written, i.e. everything up
+     * to the first segment that is still missing bytes
+     */
+    long getContiguousBytes() {
+        for (int i = 0; i < starts.length; i++) {
+            long position = positions.get(i);
+            if (position <= ends[i]) {
+                return position;
+            }
+        }
+        return totalBytes;
+    }
+    
+    private long getDownloadedBytes() {
+        long downloaded = 0;
+        for (int i = 0; i < starts.length; i++) {
+            downloaded += positions.get(i) - starts[i];
+        }
+        return downloaded;
+    }
+    
+    private void abort() {
+        aborted = true;
+        for (HttpURLConnection connection : connections) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+    
+    private static void rethrowFailure(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Segment failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for segments", e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.musicplayer.worker;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.musicplayer.data.db.AppDatabase;
+import com.example.musicplayer.utils.Constants;
+import com.example.musicplayer.utils.FileUtils;
+
+import java.io.File;
+
+/**
+ * Moves downloads from the old flat music_downloads directory into the sharded layout
+ * one file at a time. Each file is handled completely before the next, so the worker
+ * can be stopped at any point and simply picks up the remaining files on its next run.
+ * Playback is not affected: FileUtils resolves a track to whichever location holds it,
+ * and a file that is open keeps reading after it is renamed.
+ */
+public class StorageMigrationWorker extends Worker {
+    
+    private static final String TAG = "StorageMigrationWorker";
+    public static final String KEY_MOVED_FILES = "moved_files";
+    
+    private final AppDatabase database;
+    
+    public StorageMigrationWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+        database = AppDatabase.getInstance(context);
+    }
+    
+    /**
+     * Start the migration unless the download directory is already sharded
+     */
+    public static void enqueueIfNeeded(Context context) {
+        int layout = context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(Constants.PREF_STORAGE_LAYOUT, Constants.STORAGE_LAYOUT_FLAT);
+        if (layout >= Constants.STORAGE_LAYOUT_SHARDED) {
+            return;
+        }
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(StorageMigrationWorker.class).build();
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                Constants.WORK_NAME_STORAGE_MIGRATION, ExistingWorkPolicy.KEEP, request);
+    }
+    
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        File[] files = FileUtils.getMusicDownloadDirectory(context).listFiles(File::isFile);
+        int moved = 0;
+        boolean pending = false;
+        
+        if (files != null) {
+            for (File file : files) {
+                if (isStopped()) {
+                    Log.d(TAG, "Stopped after moving " + moved + " files");
+                    return Result.retry();
+                }
+                
+                String trackId = FileUtils.getTrackIdFromFileName(file.getName());
+                if (trackId == null) {
+                    // A partial download finishes where it started and is moved on a later run
+                    pending |= file.getName().endsWith(Constants.TEMP_FILE_EXTENSION);
+                    continue;
+                }
+                
+                if (moveFile(trackId, file)) {
+                    moved++;
+                } else {
+                    pending = true;
+                }
+            }
+        }
+        
+        if (!pending) {
+            context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                    .putInt(Constants.PREF_STORAGE_LAYOUT, Constants.STORAGE_LAYOUT_SHARDED)
+                    .apply();
+        }
+        Log.d(TAG, "Moved " + moved + " files" + (pending ? ", some left for the next run" : ""));
+        return Result.success(new Data.Builder().putInt(KEY_MOVED_FILES, moved).build());
+    }
+    
+    /**
+     * Move one file into its shard. The database is pointed at the new path first, so
+     * if the process dies before the rename the next run renames and updates again,
+     * while FileUtils keeps finding the file at the old path in the meantime.
+     */
+    private boolean moveFile(String trackId, File file) {
+        String oldPath = file.getAbsolutePath();
+        File target = FileUtils.getShardedFile(getApplicationContext(), trackId, file.getName());
+        String newPath = target.getAbsolutePath();
+        
+        if (target.exists()) {
+            // Downloaded again into the new layout meanwhile, the old copy is stale
+            database.runInTransaction(() -> {
+                database.trackDao().updateLocalPath(trackId, oldPath, newPath);
+                database.storedFileDao().deleteFile(oldPath);
+            });
+            return file.delete();
+        }
+        
+        if (!FileUtils.ensureParentDirectory(target)) {
+            Log.w(TAG, "Cannot create " + target.getParent());
+            return false;
+        }
+        database.runInTransaction(() -> {
+            database.trackDao().updateLocalPath(trackId, oldPath, newPath);
+            database.storedFileDao().updatePath(oldPath, newPath);
+        });
+        if (!file.renameTo(target)) {
+            Log.w(TAG, "Failed to move " + oldPath);
+            database.runInTransaction(() -> {
+                database.trackDao().updateLocalPath(trackId, newPath, oldPath);
+                database.storedFileDao().updatePath(newPath, oldPath);
+            });
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.musicplayer.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.musicplayer.data.db.entity.Track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CatalogSnapshotTest {
+    
+    private static final long GENERATED_AT = 1_720_000_000_000L;
+    private static final long CURSOR = GENERATED_AT - 24 * 60 * 60 * 1000;
+    
+    @Test
+    public void roundTripsEveryField() throws IOException {
+        Track track = track("t1", "Title", "Artist", "Album");
+        track.setUpdatedAt(GENERATED_AT - 5);
+        track.setChecksum("0123abcd");
+        track.setChecksumAlgorithm("crc32c");
+        
+        CatalogSnapshot.Reader reader = read(write(Arrays.asList(track)));
+        assertEquals(GENERATED_AT, reader.getGeneratedAt());
+        assertEquals("updatedAt", reader.getCursorField());
+        assertEquals(CURSOR, reader.getCursor());
+        assertEquals(1, reader.getTrackCount());
+        
+        List<Track> tracks = readAll(reader);
+        assertEquals(1, tracks.size());
+        Track copy = tracks.get(0);
+        assertEquals("t1", copy.getId());
+        assertEquals("Title", copy.getTitle());
+        assertEquals("Artist", copy.getArtist());
+        assertEquals("Album", copy.getAlbum());
+        assertEquals(track.getDurationMs(), copy.getDurationMs());
+        assertEquals(track.getStreamUrl(), copy.getStreamUrl());
+        assertEquals(track.getCoverUrl(), copy.getCoverUrl());
+        assertEquals("pop,rock", copy.getTags());
+        assertTrue(copy.isFeatured());
+        assertEquals(track.getCreatedAt(), copy.getCreatedAt());
+        assertEquals(GENERATED_AT - 5, copy.getUpdatedAt());
+        assertEquals("0123abcd", copy.getChecksum());
+        assertEquals("crc32c", copy.getChecksumAlgorithm());
+    }
+    
+    @Test
+    public void missingValuesComeBackEmpty() throws IOException {
+        Track track = new Track("t1", null, null, null, 0, null, null, null, false, 0);
+        
+        Track copy = readAll(read(write(Arrays.asList(track)))).get(0);
+        assertEquals("", copy.getTitle());
+        assertEquals("", copy.getArtist());
+        assertEquals("", copy.getAlbum());
+        assertEquals("", copy.getStreamUrl());
+        assertEquals("", copy.getTags());
+        // No checksum means nothing to verify against, not an empty one
+        assertNull(copy.getChecksum());
+        assertNull(copy.getChecksumAlgorithm());
+    }
+    
+    @Test
+    public void keepsStringsWriteUtfEncodesSpecially() throws IOException {
+        String title = "Lab Pe Aati Hai لب 🎵 \u0000 end";
+        Track track = track("té", title, "نصرت", "");
+        
+        Track copy = readAll(read(write(Arrays.asList(track)))).get(0);
+        assertEquals("té", copy.getId());
+        assertEquals(title, copy.getTitle());
+        assertEquals("نصرت", copy.getArtist());
+        assertEquals("", copy.getAlbum());
+    }
+    
+    @Test
+    public void readsInBatchesSharingStrings() throws IOException {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            // More than 127 distinct albums so the string indexes need two varint bytes
+            tracks.add(track("t" + i, "Title " + i, "Artist " + (i % 3), "Album " + i));
+        }
+        
+        CatalogSnapshot.Reader reader = read(write(tracks));
+        List<Track> batch = new ArrayList<>();
+        assertEquals(100, reader.readTracks(batch, 100));
+        assertEquals(100, reader.readTracks(batch, 100));
+        assertEquals(50, reader.readTracks(batch, 100));
+        assertEquals(0, reader.readTracks(batch, 100));
+        
+        assertEquals(250, batch.size());
+        for (int i = 0; i < 250; i++) {
+            assertEquals("t" + i, batch.get(i).getId());
+            assertEquals("Album " + i, batch.get(i).getAlbum());
+        }
+        assertSame(batch.get(0).getArtist(), batch.get(3).getArtist());
+        assertSame(batch.get(1).getArtist(), batch.get(247).getArtist());
+    }
+    
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        byte[] snapshot = write(Arrays.asList(track("t1", "Title", "Artist", "Album")));
+        
+        byte[] notSnapshot = snapshot.clone();
+        notSnapshot[0] = 'X';
+        assertRejected(notSnapshot);
+        
+        byte[] newerVersion = snapshot.clone();
+        newerVersion[7] = (byte) (CatalogSnapshot.FORMAT_VERSION + 1);
+        assertRejected(newerVersion);
+    }
+    
+    @Test
+    public void truncatedSnapshotFailsInsteadOfReturningPartialTracks() throws IOException {
+        byte[] snapshot = write(Arrays.asList(track("t1", "Title", "Artist", "Album"),
+                track("t2", "Title", "Artist", "Album")));
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 3);
+        
+        CatalogSnapshot.Reader reader = read(truncated);
+        try {
+            readAll(reader);
+            fail("A truncated snapshot must not read");
+        } catch (IOException expected) {
+        }
+    }
+    
+    @Test
+    public void readsTheFixtureWrittenByTheScript() throws IOException {
+        // Written by tools/make_catalog_snapshot.py from catalog_snapshot_fixture.json
+        InputStream fixture = getClass().getClassLoader().getResourceAsStream("catalog_snapshot_fixture.bin");
+        CatalogSnapshot.Reader reader = new CatalogSnapshot.Reader(fixture);
+        assertEquals(GENERATED_AT, reader.getGeneratedAt());
+        // track_002 has no updatedAt, so only new tracks can be found after it
+        assertEquals("createdAt", reader.getCursorField());
+        assertEquals(CURSOR, reader.getCursor());
+        // The tombstone of track_003 is left out
+        assertEquals(3, reader.getTrackCount());
+        
+        List<Track> tracks = readAll(reader);
+        assertEquals(3, tracks.size());
+        Track first = tracks.get(0);
+        assertEquals("track_001", first.getId());
+        assertEquals("Lab Pe Aati Hai", first.getTitle());
+        assertEquals("Allama Iqbal", first.getArtist());
+        assertEquals("Classics", first.getAlbum());
+        assertEquals(213_000, first.getDurationMs());
+        assertEquals("https://example.com/track_001.mp3", first.getStreamUrl());
+        assertEquals("https://example.com/track_001.jpg", first.getCoverUrl());
+        assertEquals("urdu,nasheed", first.getTags());
+        assertTrue(first.isFeatured());
+        assertEquals(1_719_950_000_000L, first.getCreatedAt());
+        assertEquals(1_719_990_000_000L, first.getUpdatedAt());
+        assertEquals("0123abcd", first.getChecksum());
+        assertEquals("crc32c", first.getChecksumAlgorithm());
+        
+        Track second = tracks.get(1);
+        assertEquals("track_002", second.getId());
+        assertEquals("Dam Mast Qalandar 🎵 \u0000 end", second.getTitle());
+        assertEquals("نصرت", second.getArtist());
+        assertSame(first.getAlbum(), second.getAlbum());
+        // A double in the source loses its fraction, as DocumentSnapshot.getLong does
+        assertEquals(420_000, second.getDurationMs());
+        assertFalse(second.isFeatured());
+        assertEquals(second.getCreatedAt(), second.getUpdatedAt());
+        assertEquals("md5", second.getChecksumAlgorithm());
+        
+        Track last = tracks.get(2);
+        assertEquals("track_004", last.getId());
+        assertEquals("", last.getArtist());
+        assertEquals("", last.getTags());
+        assertNull(last.getChecksum());
+        assertNull(last.getChecksumAlgorithm());
+    }
+    
+    private static Track track(String id, String title, String artist, String album) {
+        return new Track(id, title, artist, album, 213_000, "https://example.com/" + id + ".mp3",
+                "https://example.com/" + id + ".jpg", "pop,rock", true, GENERATED_AT - 1000);
+    }
+    
+    private static byte[] write(List<Track> tracks) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CatalogSnapshot.write(out, tracks, "updatedAt", CURSOR, GENERATED_AT);
+        return out.toByteArray();
+    }
+    
+    private static CatalogSnapshot.Reader read(byte[] snapshot) throws IOException {
+        return new CatalogSnapshot.Reader(new ByteArrayInputStream(snapshot));
+    }
+    
+    private static List<Track> readAll(CatalogSnapshot.Reader reader) throws IOException {
+        List<Track> tracks = new ArrayList<>();
+        while (reader.readTracks(tracks, 64) > 0) {
+            // Keep reading
+        }
+        reader.close();
+        return tracks;
+    }
+    
+    private static void assertRejected(byte[] snapshot) {
+        try {
+            read(snapshot);
+            fail("Only snapshots of the supported version may be read");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package com.example.musicplayer.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.SharedPreferences;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.musicplayer.data.db.dao.TrackDao;
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.remote.CatalogBackend;
+import com.example.musicplayer.data.remote.FirebaseHelper;
+import com.example.musicplayer.utils.Constants;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs CatalogSyncManager against an in-memory catalog and tracks table
+ */
+public class CatalogSyncManagerTest {
+    
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final String OK = "ok";
+    
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+    
+    private final long now = System.currentTimeMillis();
+    private final FakeBackend backend = new FakeBackend();
+    private final FakeStore store = new FakeStore();
+    private final FakePreferences prefs = new FakePreferences();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private CatalogSyncManager manager;
+    
+    @Before
+    public void setUp() {
+        manager = new CatalogSyncManager(store, backend, newSearchEngine(), prefs, () -> {
+            throw new FileNotFoundException();
+        }, executor);
+        prefs.edit().putInt(Constants.PREF_CATALOG_PAGE_SIZE, 3).apply();
+        
+        for (int i = 1; i <= 7; i++) {
+            backend.put("t" + i, now - 48 * HOUR + i, false);
+        }
+        backend.manifest = new FirebaseHelper.CatalogManifest(1, 7, 0);
+    }
+    
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test
+    public void fullSyncPagesThroughTheCatalogAndDropsWhatItNoLongerHas() throws InterruptedException {
+        // Left by an earlier install or removed from the catalog without a tombstone
+        store.tracks.put("gone", track("gone", 0));
+        backend.put("t0", now - 48 * HOUR, true);
+        
+        assertEquals(OK, sync());
+        
+        // Eight documents three at a time, the whole collection each time
+        assertEquals(Arrays.asList(-1L, -1L, -1L), backend.requestedCursors);
+        assertEquals(Arrays.asList("t1", "t2", "t3", "t4", "t5", "t6", "t7"), new ArrayList<>(store.tracks.keySet()));
+        assertEquals("updatedAt", prefs.getString(Constants.PREF_CATALOG_CURSOR_FIELD, null));
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        assertTrue(cursor > now - 48 * HOUR && cursor <= now);
+        assertEquals(1, prefs.getLong(Constants.PREF_CATALOG_VERSION, -1));
+        assertTrue(backend.invalidations > 0);
+        assertTrue(manager.isCatalogComplete());
+    }
+    
+    @Test
+    public void unchangedManifestSkipsTheRefresh() throws InterruptedException {
+        assertEquals(OK, sync());
+        backend.requestedCursors.clear();
+        
+        assertEquals(OK, sync());
+        assertEquals(Collections.emptyList(), backend.requestedCursors);
+        assertEquals(1, manager.getSkippedRefreshCount());
+        
+        // A new version is fetched, from the cursor
+        backend.manifest = new FirebaseHelper.CatalogManifest(2, 7, 0);
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        assertEquals(OK, sync());
+        assertEquals(Collections.singletonList(cursor), backend.requestedCursors);
+        assertEquals(1, manager.getSkippedRefreshCount());
+    }
+    
+    @Test
+    public void deltaSyncAppliesEditsAdditionsAndTombstones() throws InterruptedException {
+        assertEquals(OK, sync());
+        long cursor = prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1);
+        backend.requestedCursors.clear();
+        
+        backend.put("t2", now - 3 * HOUR, false).setTitle("Edited");
+        backend.put("t8", now - 2 * HOUR, false);
+        backend.put("t3", now - HOUR, true);
+        backend.manifest = new FirebaseHelper.CatalogManifest(2, 7, 0);
+        
+        assertEquals(OK, sync());
+        // A full page, then the empty one that ends the query
+        assertEquals(Arrays.asList(cursor, cursor), backend.requestedCursors);
+        assertEquals("Edited", store.tracks.get("t2").getTitle());
+        assertFalse(store.tracks.containsKey("t3"));
+        assertTrue(store.tracks.containsKey("t8"));
+        assertEquals(7, store.tracks.size());
+        // The tombstone's timestamp counts too
+        assertEquals(now - HOUR, prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1));
+        assertEquals(2, prefs.getLong(Constants.PREF_CATALOG_VERSION, -1));
+    }
+    
+    @Test
+    public void cancelledDeltaSyncKeepsTheCursorItReached() throws InterruptedException {
+        assertEquals(OK, sync());
+        backend.requestedCursors.clear();
+        for (int i = 1; i <= 7; i++) {
+            backend.put("t" + i, now - 10 * HOUR + i * HOUR, false).setTitle("Edited " + i);
+        }
+        backend.manifest = new FirebaseHelper.CatalogManifest(2, 7, 0);
+        // Cancelled while the second page loads, which is still written
+        backend.beforePage = page -> {
+            if (page == 2) {
+                manager.cancel();
+            }
+        };
+        
+        assertEquals(Constants.ERROR_SYNC_CANCELLED, sync());
+        assertEquals(2, backend.requestedCursors.size());
+        assertEquals("Edited 6", store.tracks.get("t6").getTitle());
+        assertEquals("t7", store.tracks.get("t7").getTitle());
+        assertEquals(now - 4 * HOUR, prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1));
+        assertEquals(1, prefs.getLong(Constants.PREF_CATALOG_VERSION, -1));
+        
+        // The next sync goes on from there
+        backend.beforePage = null;
+        backend.requestedCursors.clear();
+        assertEquals(OK, sync());
+        assertEquals(Collections.singletonList(now - 4 * HOUR), backend.requestedCursors);
+        assertEquals("Edited 7", store.tracks.get("t7").getTitle());
+        assertEquals(now - 3 * HOUR, prefs.getLong(Constants.PREF_CATALOG_CURSOR, -1));
+        assertEquals(2, prefs.getLong(Constants.PREF_CATALOG_VERSION, -1));
+        assertNull(manager.getProgress().getValue());
+    }
+    
+    /**
+     * Peak heap and longest store call of a paged full sync against one transaction of
+     * the whole catalog, the way ingestion worked before. The store stands in for the
+     * database, so its call time is the write lock held, not SQLite's numbers.
+     */
+    @Test
+    public void pagedSyncHoldsLessHeapAndShorterWritesThanOneTransaction() throws InterruptedException {
+        Measurement paged = null;
+        Measurement whole = null;
+        for (int size : new int[] {5_000, 20_000, 50_000}) {
+            FakeBackend catalog = new FakeBackend();
+            for (int i = 0; i < size; i++) {
+                String id = String.format(Locale.ROOT, "t%06d", i);
+                Track track = catalog.put(id, now - 48 * HOUR + i, false);
+                track.setTitle("Track title " + i);
+                track.setStreamUrl("https://storage.example.com/tracks/" + id + ".mp3");
+                track.setCoverUrl("https://storage.example.com/covers/" + id + ".jpg");
+            }
+            catalog.manifest = new FirebaseHelper.CatalogManifest(1, size, 0);
+            
+            whole = measureOneTransaction(catalog);
+            paged = measurePagedSync(catalog, size);
+            System.out.printf(Locale.ROOT, "%d tracks: paged peak heap %d KB, longest write %.1f ms, "
+                            + "%d rows; one transaction %d KB, %.1f ms, %d rows%n", size,
+                    paged.peakHeapBytes / 1024, paged.longestCallNanos / 1e6, paged.largestBatch,
+                    whole.peakHeapBytes / 1024, whole.longestCallNanos / 1e6, whole.largestBatch);
+            assertEquals(Constants.CATALOG_PAGE_SIZE, paged.largestBatch);
+            assertEquals(size, whole.largestBatch);
+        }
+        // At 50,000 tracks, where the single transaction stalled the UI
+        assertTrue(paged.peakHeapBytes * 2 < whole.peakHeapBytes);
+        assertTrue(paged.longestCallNanos * 3 < whole.longestCallNanos);
+    }
+    
+    private Measurement measurePagedSync(FakeBackend catalog, int size) throws InterruptedException {
+        MeasuringStore measuring = new MeasuringStore();
+        CatalogSyncManager paged = new CatalogSyncManager(measuring, catalog, newSearchEngine(),
+                new FakePreferences(), () -> {
+            throw new FileNotFoundException();
+        }, executor);
+        measuring.startMeasuring();
+        assertEquals(OK, sync(paged));
+        assertEquals(size, measuring.getTrackCount());
+        return measuring.measurement;
+    }
+    
+    private static Measurement measureOneTransaction(FakeBackend catalog) {
+        MeasuringStore measuring = new MeasuringStore();
+        measuring.startMeasuring();
+        List<Track> all = new ArrayList<>();
+        for (Document document : catalog.documents.values()) {
+            all.add(FakeBackend.copy(document.track));
+        }
+        measuring.applyChanges(all, Collections.emptyList());
+        return measuring.measurement;
+    }
+    
+    /**
+     * Time until Home has tracks to show, and until the whole catalog is in, on a fresh
+     * install of 100,000 tracks: the bundled snapshot and a delta on top, against paging
+     * every document from Firestore. A page round trip here is 20 ms, well under what a
+     * phone sees, so the Firestore side comes out better than it would.
+     */
+    @Test
+    public void snapshotFillsAFreshInstallBeforeFirestoreCould() throws Exception {
+        int size = 100_000;
+        FakeBackend catalog = new FakeBackend();
+        List<Track> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String id = String.format(Locale.ROOT, "t%06d", i);
+            Track track = catalog.put(id, now - 48 * HOUR + i, false);
+            track.setTitle("Track title " + i);
+            track.setArtist("Artist " + i % 2_000);
+            track.setAlbum("Album " + i % 8_000);
+            track.setStreamUrl("https://storage.example.com/tracks/" + id + ".mp3");
+            tracks.add(track);
+        }
+        catalog.manifest = new FirebaseHelper.CatalogManifest(1, size, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CatalogSnapshot.write(out, tracks, CatalogSyncRun.FIELD_UPDATED_AT, now - 48 * HOUR + size - 1, now);
+        byte[] snapshot = out.toByteArray();
+        catalog.beforePage = page -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        
+        // Once before measuring, so the snapshot is not read by a cold JIT
+        timeFreshInstall(catalog, () -> new ByteArrayInputStream(snapshot));
+        FreshInstall fromSnapshot = timeFreshInstall(catalog, () -> new ByteArrayInputStream(snapshot));
+        int snapshotPages = catalog.requestedCursors.size();
+        FreshInstall fromFirestore = timeFreshInstall(catalog, () -> {
+            throw new FileNotFoundException();
+        });
+        System.out.printf(Locale.ROOT, "%d tracks, %d KB snapshot: first tracks after %.1f ms, all after "
+                        + "%.0f ms; from Firestore %.1f ms and %.0f ms%n", size, snapshot.length / 1024,
+                fromSnapshot.firstTracksNanos / 1e6, fromSnapshot.allTracksNanos / 1e6,
+                fromFirestore.firstTracksNanos / 1e6, fromFirestore.allTracksNanos / 1e6);
+        
+        // The delta after the snapshot is a single page
+        assertEquals(1, snapshotPages);
+        assertTrue(fromSnapshot.firstTracksNanos * 2 < fromFirestore.firstTracksNanos);
+        assertTrue(fromSnapshot.allTracksNanos * 3 < fromFirestore.allTracksNanos);
+    }
+    
+    private FreshInstall timeFreshInstall(FakeBackend catalog, CatalogSyncManager.SnapshotSource snapshot)
+            throws InterruptedException {
+        catalog.requestedCursors.clear();
+        TimingStore timing = new TimingStore();
+        CatalogSyncManager fresh = new CatalogSyncManager(timing, catalog, newSearchEngine(),
+                new FakePreferences(), snapshot, executor);
+        timing.startedAt = System.nanoTime();
+        assertEquals(OK, sync(fresh));
+        timing.result.allTracksNanos = System.nanoTime() - timing.startedAt;
+        assertEquals(catalog.documents.size(), timing.getTrackCount());
+        return timing.result;
+    }
+    
+    private TrackSearchEngine newSearchEngine() {
+        return new TrackSearchEngine((TrackDao) Proxy.newProxyInstance(
+                TrackDao.class.getClassLoader(), new Class<?>[] {TrackDao.class}, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+    
+    private String sync() throws InterruptedException {
+        return sync(manager);
+    }
+    
+    private String sync(CatalogSyncManager manager) throws InterruptedException {
+        BlockingQueue<String> result = new LinkedBlockingQueue<>();
+        manager.sync(new MusicRepository.OnOperationCompleteListener() {
+            @Override
+            public void onSuccess() {
+                result.add(OK);
+            }
+            
+            @Override
+            public void onError(String error) {
+                result.add(error);
+            }
+        });
+        String outcome = result.poll(60, TimeUnit.SECONDS);
+        assertTrue("Sync did not finish", outcome != null);
+        return outcome;
+    }
+    
+    private static Track track(String id, long updatedAt) {
+        Track track = new Track(id, id, "Artist", "Album", 180_000, "", "", "sufi", false, updatedAt);
+        track.setUpdatedAt(updatedAt);
+        return track;
+    }
+    
+    interface PageHook {
+        void beforePage(int page);
+    }
+    
+    /**
+     * The tracks collection, answering queries the way Firestore's are built in
+     * FirebaseHelper: by document ID for a full sync, by cursor field otherwise
+     */
+    private static class FakeBackend implements CatalogBackend {
+        final Map<String, Document> documents = new TreeMap<>();
+        final List<Long> requestedCursors = new ArrayList<>();
+        // Where each delivered page ends in its query
+        // Weak, as the app holds a delivered page only until the next one arrives
+        final Map<FirebaseHelper.TrackChanges, Integer> pageEnds = new WeakHashMap<>();
+        FirebaseHelper.CatalogManifest manifest;
+        PageHook beforePage;
+        int invalidations;
+        
+        Track put(String id, long updatedAt, boolean deleted) {
+            Document document = new Document(track(id, updatedAt), deleted);
+            documents.put(id, document);
+            return document.track;
+        }
+        
+        @Override
+        public void getCatalogManifest(FirebaseHelper.OnCatalogManifestLoadedListener listener) {
+            listener.onSuccess(manifest);
+        }
+        
+        @Override
+        public void getTrackChanges(String cursorField, long cursor, FirebaseHelper.TrackChanges after, int pageSize,
+                                    FirebaseHelper.OnTrackChangesLoadedListener listener) {
+            requestedCursors.add(cursor);
+            if (beforePage != null) {
+                beforePage.beforePage(requestedCursors.size());
+            }
+            List<Document> matching = new ArrayList<>();
+            for (Document document : documents.values()) {
+                if (cursor < 0 || document.track.getUpdatedAt() >= cursor) {
+                    matching.add(document);
+                }
+            }
+            if (cursor >= 0) {
+                matching.sort(Comparator.comparingLong(document -> document.track.getUpdatedAt()));
+            }
+            int start = after != null ? pageEnds.get(after) : 0;
+            int end = Math.min(start + pageSize, matching.size());
+            
+            FirebaseHelper.TrackChanges changes = new FirebaseHelper.TrackChanges(end - start, end - start < pageSize);
+            for (Document document : matching.subList(start, end)) {
+                Track track = document.track;
+                if (document.deleted) {
+                    changes.addDeletion(track.getId(), track.getUpdatedAt(), track.getCreatedAt());
+                } else {
+                    changes.addTrack(copy(track), track.getUpdatedAt(), track.getCreatedAt());
+                }
+            }
+            pageEnds.put(changes, end);
+            listener.onSuccess(changes);
+        }
+        
+        @Override
+        public ListenerRegistration listenTrackChanges(String cursorField, long cursor,
+                                                       FirebaseHelper.OnTrackChangesLoadedListener listener) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void searchTracks(String query, FirebaseHelper.OnTracksLoadedListener listener) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void invalidateQueryCache() {
+            invalidations++;
+        }
+        
+        /** A track with its own strings, as parsing a document makes */
+        private static Track copy(Track track) {
+            Track copy = new Track(new String(track.getId()), new String(track.getTitle()),
+                    new String(track.getArtist()), new String(track.getAlbum()), track.getDurationMs(),
+                    new String(track.getStreamUrl()), new String(track.getCoverUrl()),
+                    new String(track.getTags()), track.isFeatured(), track.getCreatedAt());
+            copy.setUpdatedAt(track.getUpdatedAt());
+            return copy;
+        }
+    }
+    
+    private static class Document {
+        final Track track;
+        final boolean deleted;
+        
+        Document(Track track, boolean deleted) {
+            this.track = track;
+            this.deleted = deleted;
+        }
+    }
+    
+    /**
+     * The tracks table, in ID order
+     */
+    private static class FakeStore implements CatalogStore {
+        final Map<String, Track> tracks = new TreeMap<>();
+        
+        @Override
+        public synchronized int getTrackCount() {
+            return tracks.size();
+        }
+        
+        @Override
+        public synchronized List<String> getAllTrackIds() {
+            return new ArrayList<>(tracks.keySet());
+        }
+        
+        @Override
+        public synchronized void insertNewTracks(List<Track> newTracks) {
+            for (Track track : newTracks) {
+                tracks.put(track.getId(), track);
+            }
+        }
+        
+        @Override
+        public synchronized int applyChanges(List<Track> changed, List<String> deletedIds) {
+            insertNewTracks(changed);
+            deleteTracks(deletedIds);
+            return changed.size();
+        }
+        
+        @Override
+        public synchronized void deleteTracks(List<String> trackIds) {
+            tracks.keySet().removeAll(trackIds);
+        }
+    }
+    
+    private static class Measurement {
+        long peakHeapBytes;
+        long longestCallNanos;
+        int largestBatch;
+    }
+    
+    /**
+     * Records the longest write and the heap in use at each one, above what was in use
+     * when measuring started. Keeps only a count of the tracks, so the heap measured is
+     * what the caller holds.
+     */
+    private static class MeasuringStore implements CatalogStore {
+        final Measurement measurement = new Measurement();
+        private long baseline;
+        private int trackCount;
+        
+        void startMeasuring() {
+            baseline = usedHeap();
+        }
+        
+        @Override
+        public synchronized int getTrackCount() {
+            return trackCount;
+        }
+        
+        @Override
+        public List<String> getAllTrackIds() {
+            return Collections.emptyList();
+        }
+        
+        @Override
+        public void insertNewTracks(List<Track> tracks) {
+            applyChanges(tracks, Collections.emptyList());
+        }
+        
+        @Override
+        public synchronized int applyChanges(List<Track> changed, List<String> deletedIds) {
+            // The batch is alive here, as is everything the caller holds
+            measurement.peakHeapBytes = Math.max(measurement.peakHeapBytes, usedHeap() - baseline);
+            measurement.largestBatch = Math.max(measurement.largestBatch, changed.size() + deletedIds.size());
+            long startedAt = System.nanoTime();
+            // What the table does per row: look up the key, then write
+            Map<String, Track> rows = new TreeMap<>();
+            for (Track track : changed) {
+                rows.put(track.getId(), track);
+            }
+            trackCount += rows.size();
+            measurement.longestCallNanos = Math.max(measurement.longestCallNanos, System.nanoTime() - startedAt);
+            return rows.size();
+        }
+        
+        @Override
+        public void deleteTracks(List<String> trackIds) {}
+        
+        /** The heap in use once collecting frees no more */
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            long used = Long.MAX_VALUE;
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+                long now = runtime.totalMemory() - runtime.freeMemory();
+                if (now >= used) {
+                    break;
+                }
+                used = now;
+            }
+            return used;
+        }
+    }
+    
+    private static class FreshInstall {
+        long firstTracksNanos;
+        long allTracksNanos;
+    }
+    
+    /**
+     * Records when the first tracks are written, which is when Home can show them.
+     * applyChanges writes through insertNewTracks too.
+     */
+    private static class TimingStore extends FakeStore {
+        final FreshInstall result = new FreshInstall();
+        volatile long startedAt;
+        
+        @Override
+        public synchronized void insertNewTracks(List<Track> newTracks) {
+            super.insertNewTracks(newTracks);
+            if (result.firstTracksNanos == 0 && !newTracks.isEmpty()) {
+                result.firstTracksNanos = System.nanoTime() - startedAt;
+            }
+        }
+    }
+    
+    private static class FakePreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+        
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+        
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+        
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+        
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+        
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+        
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+        
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+        
+        @Override
+        public Editor edit() {
+            return new FakeEditor();
+        }
+        
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+        
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+        
+        private class FakeEditor implements Editor {
+            // A null value removes the key
+            private final Map<String, Object> changes = new LinkedHashMap<>();
+            private boolean clear;
+            
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+            
+            @Override
+            public Editor putStringSet(String key, Set<String> value) {
+                changes.put(key, value);
+                return this;
+            }
+            
+            @Override
+            public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+            
+            @Override
+            public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+            
+            @Override
+            public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+            
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+            
+            @Override
+            public Editor remove(String key) {
+                changes.put(key, null);
+                return this;
+            }
+            
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+            
+            @Override
+            public boolean commit() {
+                synchronized (FakePreferences.this) {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == null) {
+                            values.remove(change.getKey());
+                        } else {
+                            values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+            
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
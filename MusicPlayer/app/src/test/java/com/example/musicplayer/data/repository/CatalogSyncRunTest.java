@@ -0,0 +1,118 @@
+package com.example.musicplayer.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.Constants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CatalogSyncRunTest {
+    
+    private static final long NOW = 1_720_000_000_000L;
+    private static final long SKEW = Constants.CATALOG_CLOCK_SKEW_MS;
+    private static final String UPDATED_AT = CatalogSyncRun.FIELD_UPDATED_AT;
+    private static final String CREATED_AT = CatalogSyncRun.FIELD_CREATED_AT;
+    
+    @Test
+    public void deltaCursorFollowsPagesAndNeverMovesBack() {
+        CatalogSyncRun run = new CatalogSyncRun(false, UPDATED_AT, 5000, 2, NOW);
+        assertEquals(5000, run.getNextCursor(UPDATED_AT));
+        
+        run.addPage(tracks("a", "b"), 2, 0, 2, 6000, 100, false);
+        assertEquals(6000, run.getNextCursor(UPDATED_AT));
+        
+        // A tombstone is newer than every live track on the page and still moves the cursor
+        run.addPage(tracks("c"), 2, 1, 1, 7000, 200, false);
+        assertEquals(7000, run.getNextCursor(UPDATED_AT));
+        
+        // Nothing below the cursor it started from, even if a page only has older values
+        run.addPage(Collections.<Track>emptyList(), 0, 0, 0, -1, -1, false);
+        assertEquals(7000, run.getNextCursor(UPDATED_AT));
+        assertEquals(5000, run.getNextCursor(CREATED_AT));
+        
+        assertEquals(3, run.pages);
+        assertEquals(4, run.documents);
+        assertEquals(1, run.deleted);
+        assertEquals(3, run.written);
+    }
+    
+    @Test
+    public void deltaKeepsItsField() {
+        CatalogSyncRun run = new CatalogSyncRun(false, CREATED_AT, 5000, 10, NOW);
+        run.addPage(tracks("a"), 1, 0, 1, 9000, 5500, true);
+        
+        assertEquals(CREATED_AT, run.getNextField());
+        assertEquals(5500, run.getNextCursor(run.getNextField()));
+    }
+    
+    @Test
+    public void fullSyncCursorIsStartTimeLessSkew() {
+        CatalogSyncRun run = new CatalogSyncRun(true, UPDATED_AT, -1, 10, NOW);
+        // Timestamps from documents written after the start must not be trusted
+        run.addPage(tracks("a", "b"), 2, 0, 2, NOW + 60_000, NOW + 60_000, false);
+        
+        assertEquals(UPDATED_AT, run.getNextField());
+        assertEquals(NOW - SKEW, run.getNextCursor(UPDATED_AT));
+        assertEquals(0, new CatalogSyncRun(true, UPDATED_AT, -1, 10, SKEW / 2).getNextCursor(UPDATED_AT));
+    }
+    
+    @Test
+    public void fullSyncFallsBackToCreatedAtWhenUpdatedAtIsMissing() {
+        CatalogSyncRun run = new CatalogSyncRun(true, UPDATED_AT, -1, 10, NOW);
+        run.addPage(tracks("a"), 1, 0, 1, 100, 100, false);
+        run.addPage(tracks("b"), 1, 0, 1, -1, 200, true);
+        run.addPage(tracks("c"), 1, 0, 1, 300, 300, false);
+        
+        assertEquals(CREATED_AT, run.getNextField());
+    }
+    
+    @Test
+    public void fullSyncFindsTracksDeletedWithoutTombstone() {
+        CatalogSyncRun run = new CatalogSyncRun(true, UPDATED_AT, -1, 2, NOW);
+        run.addPage(tracks("a", "b"), 2, 0, 2, 100, 100, false);
+        // "d" is a tombstone on the second page, so it is not in the tracks of the page
+        run.addPage(tracks("c"), 2, 1, 1, 200, 200, false);
+        
+        assertEquals(Arrays.asList("d", "x"), run.findMissing(Arrays.asList("a", "b", "c", "d", "x")));
+        assertEquals(Collections.emptyList(), run.findMissing(Arrays.asList("a", "c")));
+    }
+    
+    @Test
+    public void deltaSyncNeverReportsMissingTracks() {
+        CatalogSyncRun run = new CatalogSyncRun(false, UPDATED_AT, 5000, 2, NOW);
+        run.addPage(tracks("a"), 1, 0, 1, 6000, 100, false);
+        
+        // Unchanged tracks are simply not on any page of a delta
+        assertEquals(Collections.emptyList(), run.findMissing(Arrays.asList("a", "b", "c")));
+    }
+    
+    @Test
+    public void cursorValidity() {
+        long syncedAt = NOW - 60_000;
+        assertTrue(CatalogSyncRun.isCursorValid(5000, 10, syncedAt, NOW));
+        assertTrue(CatalogSyncRun.isCursorValid(NOW + SKEW, 10, syncedAt, NOW));
+        
+        assertFalse("No cursor", CatalogSyncRun.isCursorValid(-1, 10, syncedAt, NOW));
+        assertFalse("Table emptied since", CatalogSyncRun.isCursorValid(5000, 0, syncedAt, NOW));
+        assertFalse("From the future", CatalogSyncRun.isCursorValid(NOW + SKEW + 1, 10, syncedAt, NOW));
+        long expired = NOW - Constants.CATALOG_TOMBSTONE_RETENTION_MS;
+        assertFalse("Tombstones may be purged", CatalogSyncRun.isCursorValid(5000, 10, expired, NOW));
+        assertTrue(CatalogSyncRun.isCursorValid(5000, 10, expired + 1, NOW));
+    }
+    
+    private static List<Track> tracks(String... ids) {
+        List<Track> tracks = new ArrayList<>();
+        for (String id : ids) {
+            tracks.add(new Track(id, id, "", "", 0, "", "", "", false, 0));
+        }
+        return tracks;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.musicplayer.data.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.data.remote.CatalogBackend;
+import com.example.musicplayer.data.remote.FirebaseHelper;
+import com.example.musicplayer.utils.Constants;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Drives HybridTrackSearch by hand: the test sets the local results, answers the
+ * remote query and fires the timeout
+ */
+public class HybridTrackSearchTest {
+    
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+    
+    private final MutableLiveData<List<Track>> local = new MutableLiveData<>();
+    private final FakeCatalog catalog = new FakeCatalog();
+    private final FakeBackend backend = new FakeBackend();
+    private final FakeTimeouts timeouts = new FakeTimeouts();
+    private final List<HybridTrackSearch.Results> emitted = new ArrayList<>();
+    private HybridTrackSearch search;
+    
+    @Before
+    public void setUp() {
+        search = new HybridTrackSearch(catalog, backend, timeouts);
+    }
+    
+    @Test
+    public void remoteHitsFollowTheLocalOnesWithoutDuplicates() {
+        start("bol");
+        local.setValue(tracks("a", "b"));
+        assertEquals(Arrays.asList("a", "b"), ids(last()));
+        assertTrue(last().isRemotePending());
+        assertEquals("bol", backend.query);
+        
+        backend.listener.onSuccess(tracks("b", "c"));
+        assertEquals(Arrays.asList("a", "b", "c"), ids(last()));
+        assertFalse(last().isRemotePending());
+        assertFalse(last().isRemoteFailed());
+        assertEquals(Arrays.asList("b", "c"), ids(catalog.stored));
+        assertTrue(timeouts.isCancelled());
+        
+        // Stored remote hits come back with the local results and keep their place
+        local.setValue(tracks("a", "b", "c"));
+        assertEquals(Arrays.asList("a", "b", "c"), ids(last()));
+    }
+    
+    @Test
+    public void mergedResultsStopAtTheLimit() {
+        start("bol");
+        List<Track> remote = new ArrayList<>();
+        List<Track> localHits = new ArrayList<>();
+        for (int i = 0; i < Constants.SEARCH_RESULT_LIMIT; i++) {
+            remote.add(track("r" + i));
+            if (i < Constants.SEARCH_RESULT_LIMIT - 10) {
+                localHits.add(track("l" + i));
+            }
+        }
+        // A remote hit the local results already have takes no slot
+        remote.add(0, track("l0"));
+        local.setValue(localHits);
+        backend.listener.onSuccess(remote);
+        
+        List<String> ids = ids(last());
+        assertEquals(Constants.SEARCH_RESULT_LIMIT, ids.size());
+        assertEquals(ids(localHits), ids.subList(0, localHits.size()));
+        assertEquals(Arrays.asList("r0", "r1", "r2", "r3", "r4", "r5", "r6", "r7", "r8", "r9"),
+                ids.subList(localHits.size(), ids.size()));
+    }
+    
+    @Test
+    public void timeoutShowsTheLocalResultsAndLateHitsAreOnlyStored() {
+        start("bol");
+        local.setValue(tracks("a"));
+        assertEquals(Constants.SEARCH_REMOTE_TIMEOUT_MS, timeouts.delayMs);
+        
+        timeouts.fire();
+        assertEquals(Arrays.asList("a"), ids(last()));
+        assertFalse(last().isRemotePending());
+        assertTrue(last().isRemoteFailed());
+        
+        int emissions = emitted.size();
+        backend.listener.onSuccess(tracks("b"));
+        assertEquals(emissions, emitted.size());
+        assertEquals(Arrays.asList("b"), ids(catalog.stored));
+    }
+    
+    @Test
+    public void remoteErrorShowsTheLocalResults() {
+        start("bol");
+        local.setValue(tracks("a"));
+        
+        backend.listener.onError("unavailable");
+        assertEquals(Arrays.asList("a"), ids(last()));
+        assertFalse(last().isRemotePending());
+        assertTrue(last().isRemoteFailed());
+        assertTrue(timeouts.isCancelled());
+        
+        // The cancelled timeout changes nothing if it runs anyway
+        int emissions = emitted.size();
+        timeouts.fire();
+        assertEquals(emissions, emitted.size());
+        assertNull(catalog.stored);
+    }
+    
+    @Test
+    public void completeCatalogAndBlankQueriesStayLocal() {
+        catalog.complete = true;
+        start("bol");
+        local.setValue(tracks("a"));
+        assertFalse(last().isRemotePending());
+        
+        catalog.complete = false;
+        start("  ");
+        local.setValue(tracks("a"));
+        assertFalse(last().isRemotePending());
+        
+        assertNull(backend.query);
+        assertNull(timeouts.timeout);
+    }
+    
+    private void start(String query) {
+        LiveData<HybridTrackSearch.Results> results = search.search(query);
+        results.observeForever(emitted::add);
+    }
+    
+    private HybridTrackSearch.Results last() {
+        return emitted.get(emitted.size() - 1);
+    }
+    
+    private static List<String> ids(HybridTrackSearch.Results results) {
+        return ids(results.getTracks());
+    }
+    
+    private static List<String> ids(List<Track> tracks) {
+        assertNotNull(tracks);
+        List<String> ids = new ArrayList<>();
+        for (Track track : tracks) {
+            ids.add(track.getId());
+        }
+        return ids;
+    }
+    
+    private static List<Track> tracks(String... ids) {
+        List<Track> tracks = new ArrayList<>();
+        for (String id : ids) {
+            tracks.add(track(id));
+        }
+        return tracks;
+    }
+    
+    private static Track track(String id) {
+        return new Track(id, "Bol " + id, "Artist", "Album", 0, "", "", "", false, 0);
+    }
+    
+    private class FakeCatalog implements HybridTrackSearch.LocalCatalog {
+        boolean complete;
+        List<Track> stored;
+        
+        @Override
+        public LiveData<List<Track>> search(String query) {
+            return local;
+        }
+        
+        @Override
+        public boolean isComplete() {
+            return complete;
+        }
+        
+        @Override
+        public void store(List<Track> tracks) {
+            stored = tracks;
+        }
+    }
+    
+    private static class FakeTimeouts implements HybridTrackSearch.Timeouts {
+        Runnable timeout;
+        long delayMs;
+        private boolean cancelled;
+        
+        @Override
+        public void postDelayed(Runnable timeout, long delayMs) {
+            this.timeout = timeout;
+            this.delayMs = delayMs;
+        }
+        
+        @Override
+        public void removeCallbacks(Runnable timeout) {
+            cancelled = timeout == this.timeout;
+        }
+        
+        boolean isCancelled() {
+            return cancelled;
+        }
+        
+        void fire() {
+            timeout.run();
+        }
+    }
+    
+    /**
+     * Holds on to the remote query so the test can answer it
+     */
+    private static class FakeBackend implements CatalogBackend {
+        String query;
+        FirebaseHelper.OnTracksLoadedListener listener;
+        
+        @Override
+        public void searchTracks(String query, FirebaseHelper.OnTracksLoadedListener listener) {
+            this.query = query;
+            this.listener = listener;
+        }
+        
+        @Override
+        public void getCatalogManifest(FirebaseHelper.OnCatalogManifestLoadedListener listener) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void getTrackChanges(String cursorField, long cursor, FirebaseHelper.TrackChanges after, int pageSize,
+                                    FirebaseHelper.OnTrackChangesLoadedListener listener) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public ListenerRegistration listenTrackChanges(String cursorField, long cursor,
+                                                       FirebaseHelper.OnTrackChangesLoadedListener listener) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void invalidateQueryCache() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
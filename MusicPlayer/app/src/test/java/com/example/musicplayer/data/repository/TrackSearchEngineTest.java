@@ -0,0 +1,231 @@
+package com.example.musicplayer.data.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.lifecycle.Observer;
+
+import com.example.musicplayer.data.db.dao.TrackDao;
+import com.example.musicplayer.data.db.entity.Track;
+import com.example.musicplayer.utils.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class TrackSearchEngineTest {
+    
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+    
+    private final List<TrackDao.SearchableTrack> stored = new ArrayList<>();
+    private final BlockingQueue<List<TrackSearchEngine.Hit>> delivered = new LinkedBlockingQueue<>();
+    private final Observer<List<TrackSearchEngine.Hit>> observer = delivered::add;
+    private TrackSearchEngine engine;
+    
+    @Before
+    public void setUp() {
+        engine = new TrackSearchEngine(trackDao(stored));
+        engine.getResults().observeForever(observer);
+    }
+    
+    @After
+    public void tearDown() {
+        engine.getResults().removeObserver(observer);
+    }
+    
+    @Test
+    public void everyWordMustMatchTheStartOfAWord() throws InterruptedException {
+        store("1", "Tere Bin", "Atif Aslam", "Bol", "pop,romantic");
+        store("2", "Woh Lamhe", "Atif Aslam", "Zeher", "pop,romantic");
+        store("3", "Sayonee", "Junoon", "Azadi", "rock,sufi");
+        
+        assertEquals(Arrays.asList("1", "2"), ids(search("atif")));
+        assertEquals(Arrays.asList("2"), ids(search("ati lam")));
+        assertEquals(Arrays.asList("3"), ids(search("SUF")));
+        assertEquals(Collections.emptyList(), ids(search("tif")));
+        assertEquals(Collections.emptyList(), ids(search("atif sufi")));
+    }
+    
+    @Test
+    public void ranksByFieldThenExactWord() throws InterruptedException {
+        store("tags", "One", "Someone", "Album", "qawwali");
+        store("album", "Two", "Someone", "Qawwali Collection", "");
+        store("artist", "Three", "Qawwali Group", "Album", "");
+        store("title", "Qawwali Night", "Someone", "Album", "");
+        store("prefix", "Qawwalis", "Someone", "Album", "");
+        
+        // Title, artist, album, tags; a whole word counts half again, so an artist that
+        // is exactly the word beats a title that only starts with it
+        assertEquals(Arrays.asList("title", "artist", "prefix", "album", "tags"), ids(search("qawwali")));
+    }
+    
+    @Test
+    public void equalScoresKeepCatalogOrderAndOnlyTheBestAreReturned() throws InterruptedException {
+        int limit = Constants.SEARCH_SUGGESTION_LIMIT;
+        for (int i = 0; i < limit + 10; i++) {
+            store("plain" + i, "Songbook " + i, "Band", "", "");
+        }
+        store("best", "Song", "Band", "", "");
+        
+        List<TrackSearchEngine.Hit> hits = search("song");
+        assertEquals(limit, hits.size());
+        assertEquals("best", hits.get(0).getTrackId());
+        for (int i = 1; i < limit; i++) {
+            assertEquals("plain" + (i - 1), hits.get(i).getTrackId());
+        }
+    }
+    
+    @Test
+    public void hitsCarryHighlightRanges() throws InterruptedException {
+        store("1", "Ali Zafar Live", "Ali Zafar", "", "");
+        
+        TrackSearchEngine.Hit hit = search("zaf").get(0);
+        assertEquals("Ali Zafar Live", hit.getTitle());
+        assertArrayEquals(new int[] {4, 7}, hit.getTitleMatches().get(0));
+        assertArrayEquals(new int[] {4, 7}, hit.getArtistMatches().get(0));
+    }
+    
+    @Test
+    public void urduMatchesWithoutDiacritics() throws InterruptedException {
+        store("1", "مُحَبّت", "نصرت فتح علی خان", "", "");
+        
+        assertEquals(Arrays.asList("1"), ids(search("محبت")));
+        assertEquals(Arrays.asList("1"), ids(search("علي")));
+    }
+    
+    @Test
+    public void updateAddsChangesAndRemovesTracks() throws InterruptedException {
+        store("1", "Dil Dil Pakistan", "Vital Signs", "", "");
+        store("2", "Aitebaar", "Vital Signs", "", "");
+        assertEquals(Arrays.asList("1", "2"), ids(search("vital")));
+        
+        Track renamed = track("1", "Yeh Shaam", "Vital Signs");
+        Track added = track("3", "Tum Mil Gaye", "Vital Signs");
+        engine.update(Arrays.asList(renamed, added), Collections.singletonList("2"));
+        
+        assertEquals(Arrays.asList("1", "3"), ids(search("vital")));
+        assertEquals(Collections.emptyList(), ids(search("pakistan")));
+        assertEquals(Arrays.asList("1"), ids(search("shaam")));
+        assertEquals(Collections.emptyList(), ids(search("aitebaar")));
+    }
+    
+    @Test
+    public void unchangedTrackKeepsItsPlace() throws InterruptedException {
+        store("1", "Song A", "Band", "", "");
+        store("2", "Song B", "Band", "", "");
+        search("song");
+        
+        // A sync writing the same fields again must not move track 1 behind track 2
+        engine.update(Collections.singletonList(track("1", "Song A", "Band")), Collections.<String>emptyList());
+        assertEquals(Arrays.asList("1", "2"), ids(search("band")));
+    }
+    
+    @Test
+    public void updateBeforeFirstQueryIsLeftToTheDatabase() throws InterruptedException {
+        store("1", "Khamoshi", "Strings", "", "");
+        // Not loaded yet: the table already has the track, applying it twice would duplicate it
+        engine.update(Collections.singletonList(track("1", "Khamoshi", "Strings")), Collections.<String>emptyList());
+        
+        assertEquals(Arrays.asList("1"), ids(search("strings")));
+    }
+    
+    @Test
+    public void manyDeletesCompactTheIndex() throws InterruptedException {
+        for (int i = 0; i < 3000; i++) {
+            store("t" + i, "Track " + i, i % 2 == 0 ? "Even" : "Odd", "", "");
+        }
+        search("even");
+        
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 3000; i += 2) {
+            removed.add("t" + i);
+        }
+        engine.update(Collections.<Track>emptyList(), removed);
+        engine.update(Collections.singletonList(track("t0", "Back Again", "Even")), Collections.<String>emptyList());
+        
+        assertEquals(Arrays.asList("t0"), ids(search("even")));
+        assertEquals(Constants.SEARCH_SUGGESTION_LIMIT, search("odd").size());
+        assertEquals("t1", search("odd").get(0).getTrackId());
+    }
+    
+    @Test
+    public void supersededQueryDoesNotDeliver() throws InterruptedException {
+        store("1", "Junoon", "Junoon", "", "");
+        store("2", "Jal", "Jal", "", "");
+        
+        engine.search("junoon");
+        engine.search("jal");
+        assertEquals(Arrays.asList("2"), ids(next()));
+        assertNull(delivered.poll(3 * Constants.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS));
+        assertTrue(engine.getLatencyStats().getSamples() >= 1);
+    }
+    
+    @Test
+    public void emptyQueryClearsResults() throws InterruptedException {
+        store("1", "Junoon", "Junoon", "", "");
+        
+        engine.search(" -- ");
+        assertEquals(Collections.emptyList(), next());
+    }
+    
+    private List<TrackSearchEngine.Hit> search(String query) throws InterruptedException {
+        engine.search(query);
+        return next();
+    }
+    
+    private List<TrackSearchEngine.Hit> next() throws InterruptedException {
+        List<TrackSearchEngine.Hit> hits = delivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No results delivered", hits);
+        return hits;
+    }
+    
+    private void store(String id, String title, String artist, String album, String tags) {
+        TrackDao.SearchableTrack track = new TrackDao.SearchableTrack();
+        track.setId(id);
+        track.setTitle(title);
+        track.setArtist(artist);
+        track.setAlbum(album);
+        track.setTags(tags);
+        stored.add(track);
+    }
+    
+    private static Track track(String id, String title, String artist) {
+        return new Track(id, title, artist, "", 0, "", "", "", false, 0);
+    }
+    
+    private static List<String> ids(List<TrackSearchEngine.Hit> hits) {
+        List<String> ids = new ArrayList<>();
+        for (TrackSearchEngine.Hit hit : hits) {
+            ids.add(hit.getTrackId());
+        }
+        return ids;
+    }
+    
+    /**
+     * A TrackDao that only answers the query the index is built from
+     */
+    private static TrackDao trackDao(List<TrackDao.SearchableTrack> tracks) {
+        return (TrackDao) Proxy.newProxyInstance(TrackDao.class.getClassLoader(), new Class<?>[] {TrackDao.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getSearchableTracks")) {
+                        return new ArrayList<>(tracks);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.musicplayer.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+public class FileUtilsTest {
+    
+    // Same as FileUtils.HASH_WINDOW_SIZE, the file spans two full windows and a bit
+    private static final long WINDOW = 32 * 1024 * 1024;
+    private static final long FILE_SIZE = 2 * WINDOW + 12_345;
+    
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    
+    private static File file;
+    
+    /**
+     * Mostly a sparse file, with random bytes wherever a window starts or ends so a
+     * misplaced window shows up in every digest
+     */
+    @BeforeClass
+    public static void createFile() throws IOException {
+        file = folder.newFile("track.mp3");
+        Random random = new Random(7);
+        byte[] patch = new byte[64 * 1024];
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(FILE_SIZE);
+            for (long boundary : new long[] {0, WINDOW, 2 * WINDOW, FILE_SIZE}) {
+                long start = Math.max(0, boundary - patch.length / 2);
+                random.nextBytes(patch);
+                out.seek(start);
+                out.write(patch, 0, (int) Math.min(patch.length, FILE_SIZE - start));
+            }
+        }
+    }
+    
+    @Test
+    public void mappedHashMatchesMessageDigestAcrossWindows() throws Exception {
+        assertEquals(reference("MD5", FILE_SIZE), FileUtils.hashFile(file, HashAlgorithm.MD5));
+        assertEquals(reference("SHA-256", FILE_SIZE), FileUtils.hashFile(file, HashAlgorithm.SHA256));
+        assertEquals(streamed(HashAlgorithm.CRC32C, FILE_SIZE), FileUtils.hashFile(file, HashAlgorithm.CRC32C));
+    }
+    
+    @Test
+    public void hashesPrefixesEndingAtWindowBoundaries() throws Exception {
+        for (long length : new long[] {1, WINDOW - 1, WINDOW, WINDOW + 1, 2 * WINDOW, FILE_SIZE - 1}) {
+            assertEquals("length " + length, reference("MD5", length),
+                    FileUtils.hashFile(file, length, HashAlgorithm.MD5));
+        }
+    }
+    
+    @Test
+    public void resumedHashContinuesLikeOneHash() throws Exception {
+        // What DownloadWorker does before appending to a partial file
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            Hasher hasher = algorithm.newHasher();
+            FileUtils.updateHash(hasher, file, WINDOW + 10);
+            byte[] rest = read(WINDOW + 10, FILE_SIZE);
+            hasher.update(rest, 0, rest.length);
+            assertEquals(algorithm.getName(), FileUtils.hashFile(file, algorithm), hasher.digestHex());
+        }
+    }
+    
+    @Test
+    public void digestMatchesAgreesWithMappedHash() throws Exception {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            String hex = FileUtils.hashFile(file, algorithm);
+            Hasher hasher = algorithm.newHasher();
+            FileUtils.updateHash(hasher, file, FILE_SIZE);
+            assertTrue(algorithm.getName(), hasher.digestMatches(hex));
+        }
+    }
+    
+    /**
+     * JMH-style comparison, without JMH: a warm-up pass, then the best of several, for
+     * the calculateMD5 this class had and hashFile with each algorithm
+     */
+    @Test
+    public void mappedHashingAgainstTheOldCalculateMd5() throws Exception {
+        double legacy = megabytesPerSecond(() -> legacyMd5(file));
+        double md5 = megabytesPerSecond(() -> FileUtils.hashFile(file, HashAlgorithm.MD5));
+        double sha256 = megabytesPerSecond(() -> FileUtils.hashFile(file, HashAlgorithm.SHA256));
+        double crc32c = megabytesPerSecond(() -> FileUtils.hashFile(file, HashAlgorithm.CRC32C));
+        System.out.printf(Locale.ROOT, "MB/s over %d MB: old calculateMD5 %.0f, hashFile md5 %.0f, "
+                + "sha256 %.0f, crc32c %.0f%n", FILE_SIZE >> 20, legacy, md5, sha256, crc32c);
+        
+        assertEquals(legacyMd5(file), FileUtils.hashFile(file, HashAlgorithm.MD5));
+        // MD5 itself is the bulk of the cost, mapping saves the copies around it
+        assertTrue("hashFile md5 " + md5 + " vs old " + legacy, md5 > legacy * 0.9);
+        assertTrue("hashFile crc32c " + crc32c + " vs old " + legacy, crc32c > legacy);
+    }
+    
+    @Test
+    public void refusesLengthBeyondFile() {
+        try {
+            FileUtils.hashFile(file, FILE_SIZE + 1, HashAlgorithm.MD5);
+            fail("Hashing past the end of the file must fail");
+        } catch (IOException expected) {
+        }
+    }
+    
+    @Test
+    public void partialTrackIdOfTempAndSegmentFiles() {
+        assertEquals("t1", FileUtils.getPartialTrackId("t1.mp3.tmp"));
+        assertEquals("t1", FileUtils.getPartialTrackId("t1.mp3.tmp.segments"));
+        assertEquals("t1", FileUtils.getPartialTrackId("t1.mp3.tmp.segments.tmp"));
+        assertNull(FileUtils.getPartialTrackId("t1.mp3"));
+        assertNull(FileUtils.getPartialTrackId("notes.tmp"));
+    }
+    
+    @Test
+    public void ensureParentDirectoryCreatesTheShard() throws IOException {
+        File target = new File(folder.newFolder("downloads"), "a" + File.separator + "7" + File.separator + "t1.mp3");
+        assertFalse(target.getParentFile().exists());
+        assertTrue(FileUtils.ensureParentDirectory(target));
+        assertTrue(target.getParentFile().isDirectory());
+        assertTrue(FileUtils.ensureParentDirectory(target));
+    }
+    
+    @Test
+    public void leftoverFilesAreFoundInEveryShard() throws IOException {
+        File root = folder.newFolder("leftovers");
+        write(root, "a/7/t1.mp3", 10);
+        write(root, "a/7/t1_cover.jpg", 10);
+        write(root, "a/7/t2.mp3.tmp", 10);
+        write(root, "a/7/t2.mp3.tmp.segments", 10);
+        // Just opened by a running download
+        write(root, "b/2/t7.mp3.tmp", 0);
+        File emptyOrphan = write(root, "b/2/t8.mp3.tmp", 0);
+        File orphan = write(root, "3/c/t3.mp3.tmp", 10);
+        File orphanState = write(root, "3/c/t3.mp3.tmp.segments", 10);
+        File empty = write(root, "f/0/t4.mp3", 0);
+        File legacyOrphan = write(root, "t5.mp3.tmp", 10);
+        File removedFromCatalog = write(root, "9/9/t6.mp3", 10);
+        write(root, "f/0/notes.txt", 10);
+        
+        List<File> files = new ArrayList<>();
+        FileUtils.collectFiles(root, files);
+        assertEquals(12, files.size());
+        
+        Set<String> trackIds = new HashSet<>(Arrays.asList("t1", "t2", "t3", "t4", "t5", "t7", "t8"));
+        Set<String> unfinished = new HashSet<>(Arrays.asList("t2", "t7"));
+        Set<String> leftovers = new HashSet<>();
+        for (File file : files) {
+            if (FileUtils.isLeftoverFile(file, trackIds, unfinished)) {
+                leftovers.add(file.getPath());
+            }
+        }
+        Set<String> expected = new HashSet<>();
+        for (File file : new File[] {orphan, orphanState, emptyOrphan, empty, legacyOrphan, removedFromCatalog}) {
+            expected.add(file.getPath());
+        }
+        // Kept: t1's audio and cover, the downloads of t2 and t7 and the unknown file
+        assertEquals(expected, leftovers);
+    }
+    
+    private static File write(File root, String path, int length) throws IOException {
+        File file = new File(root, path.replace('/', File.separatorChar));
+        assertTrue(FileUtils.ensureParentDirectory(file));
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length);
+        }
+        return file;
+    }
+    
+    private static double megabytesPerSecond(FileHash hash) throws Exception {
+        long best = Long.MAX_VALUE;
+        String first = null;
+        for (int pass = 0; pass < 6; pass++) {
+            long startedAt = System.nanoTime();
+            String hex = hash.run();
+            long elapsed = System.nanoTime() - startedAt;
+            if (pass == 0) {
+                first = hex;
+            } else {
+                assertEquals(first, hex);
+                best = Math.min(best, elapsed);
+            }
+        }
+        return FILE_SIZE / (1024.0 * 1024.0) / (best / 1e9);
+    }
+    
+    private interface FileHash {
+        String run() throws Exception;
+    }
+    
+    /**
+     * calculateMD5 as it was: an 8 KB read buffer and String.format per digest byte
+     */
+    private static String legacyMd5(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        try (FileInputStream fis = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                md.update(buffer, 0, bytesRead);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+    
+    private static String reference(String algorithm, long length) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return HashAlgorithm.toHex(digest.digest());
+    }
+    
+    private static String streamed(HashAlgorithm algorithm, long length) throws IOException {
+        Hasher hasher = algorithm.newHasher();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                hasher.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return hasher.digestHex();
+    }
+    
+    private static byte[] read(long from, long to) throws IOException {
+        byte[] bytes = new byte[(int) (to - from)];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(from);
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.musicplayer.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+public class HashAlgorithmTest {
+    
+    private static final byte[] DATA = new byte[100_003];
+    
+    static {
+        new Random(42).nextBytes(DATA);
+    }
+    
+    @Test
+    public void digestsMatchMessageDigest() throws NoSuchAlgorithmException {
+        assertEquals(reference("MD5", DATA), hash(HashAlgorithm.MD5, DATA));
+        assertEquals(reference("SHA-256", DATA), hash(HashAlgorithm.SHA256, DATA));
+    }
+    
+    @Test
+    public void crc32cMatchesKnownValues() {
+        // Check values from RFC 3720, appendix B.4
+        assertEquals("e3069283", hash(HashAlgorithm.CRC32C, "123456789".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("8a9136aa", hash(HashAlgorithm.CRC32C, new byte[32]));
+        assertEquals("00000000", hash(HashAlgorithm.CRC32C, new byte[0]));
+    }
+    
+    @Test
+    public void digestMatchesAgreesWithDigestHex() {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            String hex = hash(algorithm, DATA);
+            assertTrue(algorithm.getName(), matches(algorithm, DATA, hex));
+            assertTrue(algorithm.getName(), matches(algorithm, DATA, hex.toUpperCase(Locale.ROOT)));
+            
+            char last = hex.charAt(hex.length() - 1);
+            String changed = hex.substring(0, hex.length() - 1) + (last == '0' ? '1' : '0');
+            assertFalse(algorithm.getName(), matches(algorithm, DATA, changed));
+            assertFalse(algorithm.getName(), matches(algorithm, DATA, hex.substring(1)));
+            assertFalse(algorithm.getName(), matches(algorithm, DATA, hex.substring(1) + "g"));
+            assertFalse(algorithm.getName(), matches(algorithm, DATA, null));
+        }
+    }
+    
+    @Test
+    public void bufferAndArrayUpdatesAgree() {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            String expected = hash(algorithm, DATA);
+            
+            // Uneven pieces, alternating heap arrays, heap buffers and direct buffers
+            Hasher hasher = algorithm.newHasher();
+            int offset = 0;
+            int piece = 1;
+            while (offset < DATA.length) {
+                int length = Math.min(piece, DATA.length - offset);
+                if (piece % 3 == 0) {
+                    hasher.update(DATA, offset, length);
+                } else {
+                    ByteBuffer buffer = piece % 3 == 1 ? ByteBuffer.allocate(length) : ByteBuffer.allocateDirect(length);
+                    buffer.put(DATA, offset, length).flip();
+                    hasher.update(buffer);
+                    assertEquals("update must leave the position alone", 0, buffer.position());
+                }
+                offset += length;
+                piece = piece * 2 + 1;
+            }
+            assertEquals(algorithm.getName(), expected, hasher.digestHex());
+        }
+    }
+    
+    @Test
+    public void hashesOnlyRemainingBytesOfBuffer() {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            ByteBuffer buffer = ByteBuffer.wrap(DATA);
+            buffer.position(10).limit(1000);
+            Hasher hasher = algorithm.newHasher();
+            hasher.update(buffer);
+            
+            Hasher expected = algorithm.newHasher();
+            expected.update(DATA, 10, 990);
+            assertEquals(algorithm.getName(), expected.digestHex(), hasher.digestHex());
+            assertEquals(10, buffer.position());
+        }
+    }
+    
+    @Test
+    public void crc32cImplementationsAgree() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            int offset = random.nextInt(64);
+            int length = random.nextInt(4096);
+            Hasher slicing = new HashAlgorithm.Crc32cHasher();
+            Hasher platform = new HashAlgorithm.PlatformCrc32cHasher();
+            slicing.update(DATA, offset, length);
+            platform.update(DATA, offset, length);
+            
+            // Direct buffers in both byte orders and a heap buffer that starts inside its array
+            ByteBuffer direct = ByteBuffer.allocateDirect(length + 16);
+            direct.put(DATA, offset, length).flip();
+            direct.order(round % 2 == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            slicing.update(direct);
+            platform.update(direct);
+            ByteBuffer heap = ByteBuffer.wrap(DATA, offset, length + 8).slice();
+            heap.position(3);
+            slicing.update(heap);
+            platform.update(heap);
+            
+            assertEquals(platform.digestHex(), slicing.digestHex());
+        }
+    }
+    
+    /**
+     * Measures what the class comment claims: CRC-32C is cheaper than MD5. On a device
+     * the numbers differ, the order should not.
+     */
+    @Test
+    public void crc32cIsCheaperThanMd5() {
+        byte[] data = new byte[8 * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        
+        double md5 = megabytesPerSecond(() -> new HashAlgorithm.DigestHasher("MD5"), data);
+        double sha256 = megabytesPerSecond(() -> new HashAlgorithm.DigestHasher("SHA-256"), data);
+        double bytewise = megabytesPerSecond(BytewiseCrc32cHasher::new, data);
+        double slicing = megabytesPerSecond(HashAlgorithm.Crc32cHasher::new, data);
+        double platform = megabytesPerSecond(HashAlgorithm.PlatformCrc32cHasher::new, data);
+        System.out.printf(Locale.ROOT, "MB/s: md5 %.0f, sha256 %.0f, crc32c byte-wise %.0f, "
+                + "slicing-by-8 %.0f, platform %.0f%n", md5, sha256, bytewise, slicing, platform);
+        
+        // Measured here: slicing-by-8 2.5 times byte-wise and 1.5 times MD5, the platform 40 times MD5
+        assertTrue("slicing-by-8 " + slicing + " vs byte-wise " + bytewise, slicing > 1.5 * bytewise);
+        assertTrue("slicing-by-8 " + slicing + " vs md5 " + md5, slicing > md5);
+        assertTrue("platform " + platform + " vs slicing-by-8 " + slicing, platform > slicing);
+    }
+    
+    @Test
+    public void looksUpNamesIgnoringCase() {
+        assertSame(HashAlgorithm.MD5, HashAlgorithm.fromName("md5"));
+        assertSame(HashAlgorithm.SHA256, HashAlgorithm.fromName("SHA256"));
+        assertSame(HashAlgorithm.CRC32C, HashAlgorithm.fromName("Crc32c"));
+        assertNull(HashAlgorithm.fromName("sha1"));
+        assertNull(HashAlgorithm.fromName(null));
+    }
+    
+    /**
+     * Best of several passes over data, after a warm-up pass for the JIT
+     */
+    private static double megabytesPerSecond(Supplier<Hasher> hashers, byte[] data) {
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < 10; pass++) {
+            long startedAt = System.nanoTime();
+            Hasher hasher = hashers.get();
+            for (int offset = 0; offset < data.length; offset += 64 * 1024) {
+                hasher.update(data, offset, 64 * 1024);
+            }
+            assertFalse(hasher.digestHex().isEmpty());
+            if (pass > 0) {
+                best = Math.min(best, System.nanoTime() - startedAt);
+            }
+        }
+        return data.length / (1024.0 * 1024.0) / (best / 1e9);
+    }
+    
+    /**
+     * One table lookup per byte, the CRC-32C this class had before slicing-by-8
+     */
+    private static class BytewiseCrc32cHasher implements Hasher {
+        private static final int[] TABLE = new int[256];
+        
+        static {
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[n] = crc;
+            }
+        }
+        
+        private int crc = 0xFFFFFFFF;
+        
+        @Override
+        public void update(ByteBuffer buffer) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            int value = crc;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                value = (value >>> 8) ^ TABLE[(value ^ bytes[i]) & 0xff];
+            }
+            crc = value;
+        }
+        
+        @Override
+        public String digestHex() {
+            return Integer.toHexString(~crc);
+        }
+        
+        @Override
+        public boolean digestMatches(CharSequence expectedHex) {
+            throw new UnsupportedOperationException();
+        }
+    }
+    
+    private static String reference(String algorithm, byte[] data) throws NoSuchAlgorithmException {
+        return HashAlgorithm.toHex(MessageDigest.getInstance(algorithm).digest(data));
+    }
+    
+    private static String hash(HashAlgorithm algorithm, byte[] data) {
+        Hasher hasher = algorithm.newHasher();
+        hasher.update(data, 0, data.length);
+        return hasher.digestHex();
+    }
+    
+    private static boolean matches(HashAlgorithm algorithm, byte[] data, String hex) {
+        Hasher hasher = algorithm.newHasher();
+        hasher.update(data, 0, data.length);
+        return hasher.digestMatches(hex);
+    }
+}
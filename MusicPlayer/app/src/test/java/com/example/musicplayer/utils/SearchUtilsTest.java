@@ -0,0 +1,282 @@
+package com.example.musicplayer.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+public class SearchUtilsTest {
+    
+    // Title, artist, album and tags, the columns of tracks_fts
+    private static final int COLUMNS = 4;
+    private static final int TITLE = 0;
+    private static final int TAGS = 3;
+    
+    // Words of the generated catalogs
+    private static final String[] ARTISTS = {"Ali Zafar", "Atif Aslam", "Abida Parveen", "Nusrat Fateh Ali Khan",
+            "Junoon", "Strings", "Noori", "Vital Signs", "Quratulain Balouch", "Rahat Fateh Ali Khan"};
+    private static final String[] WORDS = {"Dil", "Jaan", "Ishq", "Yaar", "Zindagi", "Raat", "Mahiya", "Sajna",
+            "Dua", "Safar", "Khamoshi", "Rang", "Barish", "Sanam", "Jugni", "Chand"};
+    private static final String[] GENRES = {"sufi", "pop", "rock", "qawwali", "ghazal", "folk", "classical"};
+    
+    @Test
+    public void normalizeStripsUrduMarksAndFoldsLetterVariants() {
+        // Zabar, pesh and shadda on "mohabbat", tatweel inside "ishq"
+        assertEquals("محبت", SearchUtils.normalize("مُحَبّت"));
+        assertEquals("عشق", SearchUtils.normalize("عـشق"));
+        // Arabic yeh and kaf become the Urdu forms
+        assertEquals("یک", SearchUtils.normalize("يك"));
+        assertEquals("Ali Zafar", SearchUtils.normalize("Ali Zafar"));
+        assertEquals("", SearchUtils.normalize(null));
+    }
+    
+    @Test
+    public void normalizeSqlAppliesEveryReplacementOfNormalize() {
+        String sql = SearchUtils.normalizeSql("title");
+        assertTrue(sql.contains("title"));
+        // One replace() per ignored mark and letter variant, around the column
+        assertEquals(18, sql.split("replace\\(", -1).length - 1);
+        assertTrue(sql.contains("char(1611), ''"));
+        assertTrue(sql.contains("char(1600), ''"));
+        assertTrue(sql.contains("char(1610), char(1740)"));
+        assertTrue(sql.contains("char(1603), char(1705)"));
+    }
+    
+    @Test
+    public void tokenizeSplitsOnAnythingButLettersAndDigits() {
+        assertEquals(Arrays.asList("dil", "dil", "pakistan", "80", "s"),
+                SearchUtils.tokenize("  Dil-Dil PAKISTAN (80's)"));
+        assertEquals(Arrays.asList("a", "r", "rahman"), SearchUtils.tokenize("A.R. Rahman"));
+        assertEquals(Arrays.asList("محبت", "ہے"), SearchUtils.tokenize("مُحَبّت، ہے!"));
+        assertEquals(Collections.emptyList(), SearchUtils.tokenize(" -*\"() "));
+    }
+    
+    @Test
+    public void ftsQueryMatchesWordPrefixesAndCannotInjectSyntax() {
+        assertEquals("ali* zaf*", SearchUtils.toFtsQuery("Ali Zaf"));
+        assertEquals("ali* zafar* or* near*", SearchUtils.toFtsQuery("ali\" zafar* OR NEAR("));
+        assertEquals("محبت*", SearchUtils.toFtsQuery("مُحَبّت"));
+        assertNull(SearchUtils.toFtsQuery("  \"*-  "));
+        assertNull(SearchUtils.toFtsQuery(""));
+    }
+    
+    @Test
+    public void ftsQueryKeepsAtMostEightWords() {
+        assertEquals("a* b* c* d* e* f* g* h*", SearchUtils.toFtsQuery("a b c d e f g h i j"));
+    }
+    
+    @Test
+    public void scoreWeighsColumnsAndRareWords() {
+        int rows = 1000;
+        double titleHit = SearchUtils.score(matchInfo(rows, hit(TITLE, 1, 10)));
+        double tagsHit = SearchUtils.score(matchInfo(rows, hit(TAGS, 1, 10)));
+        assertTrue("title outweighs tags", titleHit > tagsHit);
+        
+        double rareTitle = SearchUtils.score(matchInfo(rows, hit(TITLE, 1, 2)));
+        double commonTitle = SearchUtils.score(matchInfo(rows, hit(TITLE, 1, 900)));
+        assertTrue("a rare word counts more", rareTitle > commonTitle);
+        
+        // A rare word in the tags beats a word every track has in its title
+        double rareTags = SearchUtils.score(matchInfo(rows, hit(TAGS, 1, 2)));
+        double everywhereTitle = SearchUtils.score(matchInfo(rows, hit(TITLE, 1, rows)));
+        assertTrue(rareTags > everywhereTitle);
+        
+        double twice = SearchUtils.score(matchInfo(rows, hit(TITLE, 2, 10)));
+        assertEquals(2 * titleHit, twice, 1e-9);
+    }
+    
+    @Test
+    public void scoreSumsPhrases() {
+        int rows = 100;
+        double first = SearchUtils.score(matchInfo(rows, hit(TITLE, 1, 5)));
+        double second = SearchUtils.score(matchInfo(rows, hit(TAGS, 1, 20)));
+        double both = SearchUtils.score(matchInfo(rows, hit(TITLE, 1, 5), hit(TAGS, 1, 20)));
+        assertEquals(first + second, both, 1e-9);
+    }
+    
+    @Test
+    public void scoreOfMalformedMatchInfoIsZero() {
+        assertEquals(0, SearchUtils.score(null), 0);
+        assertEquals(0, SearchUtils.score(new byte[8]), 0);
+        byte[] truncated = Arrays.copyOf(matchInfo(10, hit(TITLE, 1, 1)), 20);
+        assertEquals(0, SearchUtils.score(truncated), 0);
+    }
+    
+    @Test
+    public void prefixMatchesPointIntoTheOriginalText() {
+        List<int[]> ranges = SearchUtils.findPrefixMatches("Ali Zafar - Jhoom", SearchUtils.tokenize("zaf al"));
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new int[] {0, 2}, ranges.get(0));
+        assertArrayEquals(new int[] {4, 7}, ranges.get(1));
+    }
+    
+    @Test
+    public void prefixMatchesUseTheLongestToken() {
+        List<int[]> ranges = SearchUtils.findPrefixMatches("Junoon", SearchUtils.tokenize("j junoo"));
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new int[] {0, 5}, ranges.get(0));
+    }
+    
+    @Test
+    public void prefixMatchesSpanDiacriticsOfTheText() {
+        // "محب" typed plainly covers the marks written on the letters of the title
+        String title = "مُحَبّت";
+        List<int[]> ranges = SearchUtils.findPrefixMatches(title, SearchUtils.tokenize("محب"));
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new int[] {0, 6}, ranges.get(0));
+        
+        assertEquals(0, SearchUtils.findPrefixMatches("Junoon", SearchUtils.tokenize("oon")).size());
+        assertEquals(0, SearchUtils.findPrefixMatches(null, SearchUtils.tokenize("a")).size());
+    }
+    
+    /**
+     * Per-keystroke cost on the JVM of the search that replaced LIKE '%q%', on generated
+     * catalogs of 10,000 and 100,000 tracks. The LIKE side is its scan: every row, four
+     * columns, a case-insensitive substring test. The FTS side is what runs in Java once
+     * tracks_fts has answered: scoring the candidates and keeping the best. The index
+     * lookup itself needs SQLite and is not measured here.
+     */
+    @Test
+    public void rankingStaysFlatWhileALikeScanGrowsWithTheCatalog() {
+        List<String> queries = Arrays.asList("ali", "zaf", "dil", "qawwali", "strings");
+        long[] scanNanos = new long[2];
+        long[] rankNanos = new long[2];
+        int[] sizes = {10_000, 100_000};
+        for (int s = 0; s < sizes.length; s++) {
+            String[][] catalog = generateCatalog(sizes[s]);
+            for (String query : queries) {
+                int[] matching = likeScan(catalog, query);
+                List<byte[]> candidates = candidates(catalog, matching, query);
+                // Best of several runs, the first ones include the JIT
+                long scan = Long.MAX_VALUE;
+                long rank = Long.MAX_VALUE;
+                for (int run = 0; run < 7; run++) {
+                    long startedAt = System.nanoTime();
+                    assertEquals(matching.length, likeScan(catalog, query).length);
+                    scan = Math.min(scan, System.nanoTime() - startedAt);
+                    
+                    startedAt = System.nanoTime();
+                    assertEquals(Math.min(candidates.size(), Constants.SEARCH_RESULT_LIMIT), rank(candidates).size());
+                    rank = Math.min(rank, System.nanoTime() - startedAt);
+                }
+                scanNanos[s] += scan / queries.size();
+                rankNanos[s] += rank / queries.size();
+            }
+            System.out.printf(Locale.ROOT, "%d tracks: LIKE scan %.2f ms, ranking FTS candidates %.3f ms per query%n",
+                    sizes[s], scanNanos[s] / 1e6, rankNanos[s] / 1e6);
+        }
+        // The scan grows with the catalog, ranking is capped by SEARCH_CANDIDATE_LIMIT
+        assertTrue(scanNanos[1] > 4 * scanNanos[0]);
+        assertTrue(rankNanos[1] * 10 < scanNanos[1]);
+    }
+    
+    /**
+     * Rows of title, artist, album and tags
+     */
+    private static String[][] generateCatalog(int size) {
+        Random random = new Random(size);
+        String[][] catalog = new String[size][];
+        for (int i = 0; i < size; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            String artist = ARTISTS[random.nextInt(ARTISTS.length)];
+            String album = artist + " Vol. " + (1 + random.nextInt(12));
+            String tags = GENRES[random.nextInt(GENRES.length)] + "," + GENRES[random.nextInt(GENRES.length)];
+            catalog[i] = new String[] {title, artist, album, tags};
+        }
+        return catalog;
+    }
+    
+    /**
+     * What title LIKE '%q%' OR artist LIKE ... OR tags LIKE ... does: test every row
+     */
+    private static int[] likeScan(String[][] catalog, String query) {
+        int[] matching = new int[catalog.length];
+        int count = 0;
+        for (int row = 0; row < catalog.length; row++) {
+            for (String column : catalog[row]) {
+                if (containsIgnoreCase(column, query)) {
+                    matching[count++] = row;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(matching, count);
+    }
+    
+    private static boolean containsIgnoreCase(String text, String query) {
+        for (int i = 0; i + query.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The matchinfo rows tracks_fts would return for a one-word query, at most
+     * SEARCH_CANDIDATE_LIMIT of them
+     */
+    private static List<byte[]> candidates(String[][] catalog, int[] matching, String query) {
+        List<byte[]> candidates = new ArrayList<>();
+        for (int i = 0; i < matching.length && candidates.size() < Constants.SEARCH_CANDIDATE_LIMIT; i++) {
+            String[] columns = catalog[matching[i]];
+            int column = 0;
+            while (!containsIgnoreCase(columns[column], query)) {
+                column++;
+            }
+            candidates.add(matchInfo(catalog.length, hit(column, 1, matching.length)));
+        }
+        return candidates;
+    }
+    
+    /**
+     * What MusicRepository does with the candidates: score each, keep the best
+     */
+    private static List<Integer> rank(List<byte[]> candidates) {
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            scores.put(i, SearchUtils.score(candidates.get(i)));
+        }
+        List<Integer> ranked = new ArrayList<>(scores.keySet());
+        Collections.sort(ranked, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        return ranked.subList(0, Math.min(ranked.size(), Constants.SEARCH_RESULT_LIMIT));
+    }
+    
+    /**
+     * Hits of one phrase in one column: this row's hits and the number of rows with any
+     */
+    private static int[] hit(int column, int hits, int rowsWithHits) {
+        return new int[] {column, hits, rowsWithHits};
+    }
+    
+    /**
+     * matchinfo(tracks_fts, 'pcnx') for a row, one phrase per hit
+     */
+    private static byte[] matchInfo(int rows, int[]... phraseHits) {
+        int phrases = phraseHits.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (3 + 3 * phrases * COLUMNS)).order(ByteOrder.nativeOrder());
+        buffer.putInt(phrases).putInt(COLUMNS).putInt(rows);
+        for (int[] phraseHit : phraseHits) {
+            for (int c = 0; c < COLUMNS; c++) {
+                boolean hit = c == phraseHit[0];
+                buffer.putInt(hit ? phraseHit[1] : 0);
+                buffer.putInt(hit ? phraseHit[1] : 0);
+                buffer.putInt(hit ? phraseHit[2] : 0);
+            }
+        }
+        return buffer.array();
+    }
+}
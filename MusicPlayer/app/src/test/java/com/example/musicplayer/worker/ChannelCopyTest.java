@@ -0,0 +1,117 @@
+package com.example.musicplayer.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.musicplayer.utils.Constants;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the stream copy DownloadWorker had, through a heap byte[8192], with the
+ * channel copy it has now, through a pooled direct buffer, on local files. CPU time is
+ * measured on the copying thread; the device numbers this was built for are not.
+ */
+public class ChannelCopyTest {
+    
+    private static final int SIZE = 32 * 1024 * 1024;
+    private static final int PASSES = 5;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    
+    @Test
+    public void measuresStreamAgainstChannelCopy() throws IOException {
+        assertTrue(threads.isCurrentThreadCpuTimeSupported());
+        byte[] content = new byte[SIZE];
+        new Random(3).nextBytes(content);
+        File source = folder.newFile("source.mp3");
+        Files.write(source.toPath(), content);
+        File target = new File(folder.getRoot(), "target.mp3.tmp");
+        
+        long stream = Long.MAX_VALUE;
+        long channelFromStream = Long.MAX_VALUE;
+        long channelFromFile = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            stream = Math.min(stream, cpuNanos(() -> streamCopy(connectionLike(source), target)));
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+            channelFromStream = Math.min(channelFromStream, cpuNanos(() -> channelCopy(connectionLike(source), target)));
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+            channelFromFile = Math.min(channelFromFile, cpuNanos(() -> channelCopy(new FileInputStream(source), target)));
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        }
+        System.out.printf(Locale.ROOT, "CPU ms for 32 MB: stream copy %d, channel copy from a stream %d, "
+                + "from a file %d%n", stream / 1_000_000, channelFromStream / 1_000_000, channelFromFile / 1_000_000);
+        
+        // Measured here: stream 28 ms, channel from a stream 22 ms, from a file 15 ms
+        assertTrue("channel " + channelFromStream + " vs stream " + stream, channelFromStream < stream * 1.5);
+        assertTrue("channel from a file " + channelFromFile + " vs stream " + stream, channelFromFile < stream);
+    }
+    
+    /**
+     * A stream Channels.newChannel cannot see through, as the one of an HTTP connection
+     */
+    private static InputStream connectionLike(File file) throws IOException {
+        return new FilterInputStream(new FileInputStream(file)) {};
+    }
+    
+    private static void streamCopy(InputStream in, File target) throws IOException {
+        try (InputStream input = in; FileOutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+    
+    /**
+     * The loop of DownloadWorker.downloadTrack without its progress and hashing
+     */
+    private static void channelCopy(InputStream in, File target) throws IOException {
+        ByteBuffer buffer = DownloadBuffers.acquire(Constants.DEFAULT_DOWNLOAD_BUFFER_KB * 1024);
+        try (InputStream input = in; FileOutputStream out = new FileOutputStream(target)) {
+            ReadableByteChannel source = Channels.newChannel(input);
+            FileChannel channel = out.getChannel();
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            DownloadBuffers.release(buffer);
+        }
+    }
+    
+    private long cpuNanos(Copy copy) throws IOException {
+        long startedAt = threads.getCurrentThreadCpuTime();
+        copy.run();
+        return threads.getCurrentThreadCpuTime() - startedAt;
+    }
+    
+    private interface Copy {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.musicplayer.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DownloadBuffersTest {
+    
+    @Test
+    public void reusesReleasedBufferCleared() {
+        ByteBuffer buffer = DownloadBuffers.acquire(4096);
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+        buffer.put(new byte[100]).flip();
+        DownloadBuffers.release(buffer);
+        
+        ByteBuffer reused = DownloadBuffers.acquire(4096);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(4096, reused.limit());
+        DownloadBuffers.release(reused);
+    }
+    
+    @Test
+    public void doesNotHandOutBufferOfOtherSize() {
+        ByteBuffer small = DownloadBuffers.acquire(1024);
+        DownloadBuffers.release(small);
+        
+        ByteBuffer large = DownloadBuffers.acquire(8192);
+        assertNotSame(small, large);
+        assertEquals(8192, large.capacity());
+        DownloadBuffers.release(large);
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.musicplayer.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.example.musicplayer.service.DownloadAwareDataSource;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a track through DownloadAwareDataSource while a thread writes its .tmp file the
+ * way DownloadWorker does, with RangeServer as the network the data source falls back to
+ */
+public class PartialFilePlaybackTest {
+    
+    private static final byte[] CONTENT = RangeServer.randomContent(512 * 1024);
+    private static final String TRACK_ID = "partial-track";
+    private static final int CHUNK = 16 * 1024;
+    // Longer than DownloadAwareDataSource.PARTIAL_READ_WAIT_MS
+    private static final long STALL_MS = 3000;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private final DownloadProgressTracker tracker = DownloadProgressTracker.getInstance();
+    private RangeServer server;
+    private File tempFile;
+    private HttpDataSource upstream;
+    private CountingListener listener;
+    private DownloadAwareDataSource dataSource;
+    private Thread writer;
+    
+    @Before
+    public void setUp() throws IOException {
+        server = new RangeServer(CONTENT, "\"v1\"");
+        tempFile = new File(folder.getRoot(), TRACK_ID + ".mp3.tmp");
+        upstream = new HttpDataSource(server);
+        listener = new CountingListener();
+        // No context: every read here finds the partial file before looking on disk
+        dataSource = new DownloadAwareDataSource(null, upstream);
+        dataSource.addTransferListener(listener);
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        if (writer != null) {
+            writer.interrupt();
+            writer.join();
+        }
+        tracker.closePartialFile(TRACK_ID);
+        server.stop();
+    }
+    
+    @Test
+    public void readsAGrowingFileWithoutTheNetwork() throws Exception {
+        startWriter(CONTENT.length, -1, End.FINISH);
+        
+        assertArrayEquals(CONTENT, readAll(dataSpec(0, C.LENGTH_UNSET)));
+        assertEquals(0, server.getRequests().size());
+        assertEquals(CONTENT.length, listener.localBytes);
+        assertEquals(1, listener.localEnds);
+    }
+    
+    @Test
+    public void downloadFinishingMidReadIsReadToTheEnd() throws Exception {
+        // The reader catches up with the first half and waits, less than its timeout,
+        // for the rest; the download then finishes and renames the .tmp under it
+        startWriter(CONTENT.length, CONTENT.length / 2, End.FINISH);
+        
+        assertArrayEquals(CONTENT, readAll(dataSpec(0, C.LENGTH_UNSET)));
+        assertEquals(0, server.getRequests().size());
+        assertEquals(CONTENT.length, listener.localBytes);
+    }
+    
+    @Test
+    public void stalledDownloadSwitchesToTheNetworkWhereTheFileEnds() throws Exception {
+        int written = 200 * 1024;
+        startWriter(written, -1, End.STALL);
+        
+        long startedAt = System.currentTimeMillis();
+        assertArrayEquals(CONTENT, readAll(dataSpec(0, C.LENGTH_UNSET)));
+        assertTrue(System.currentTimeMillis() - startedAt >= 2000);
+        
+        assertEquals(1, upstream.opened.size());
+        assertEquals(written, upstream.opened.get(0).position);
+        assertEquals(CONTENT.length - written, upstream.opened.get(0).length);
+        assertEquals(Arrays.asList("bytes=" + written + "-" + (CONTENT.length - 1)), ranges());
+        // Only the bytes from disk count as local, the rest is the network's transfer
+        assertEquals(written, listener.localBytes);
+        assertEquals(1, listener.localEnds);
+    }
+    
+    @Test
+    public void stalledSubrangeContinuesWithTheRestOfTheRange() throws Exception {
+        int position = 100 * 1024;
+        int length = 200 * 1024;
+        int written = 150 * 1024;
+        startWriter(written, -1, End.STALL);
+        
+        byte[] read = readAll(dataSpec(position, length));
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, position, position + length), read);
+        assertEquals(written, upstream.opened.get(0).position);
+        assertEquals(position + length - written, upstream.opened.get(0).length);
+        assertEquals(Arrays.asList("bytes=" + written + "-" + (position + length - 1)), ranges());
+    }
+    
+    @Test
+    public void failedDownloadFallsBackWithoutWaiting() throws Exception {
+        int written = 64 * 1024;
+        // Stops writing short of the end while the reader waits, as a failed download does
+        startWriter(written, -1, End.FAIL);
+        
+        long startedAt = System.currentTimeMillis();
+        assertArrayEquals(CONTENT, readAll(dataSpec(0, C.LENGTH_UNSET)));
+        assertTrue(System.currentTimeMillis() - startedAt < 2000);
+        assertEquals(Arrays.asList("bytes=" + written + "-" + (CONTENT.length - 1)), ranges());
+    }
+    
+    private enum End {
+        // Closes the partial file and renames it, as a completed download does
+        FINISH,
+        // Closes the partial file a moment later without renaming it
+        FAIL,
+        // Keeps the partial file open and writes nothing more
+        STALL
+    }
+    
+    /**
+     * Write the first bytes of the content in chunks, publishing each one. With
+     * pauseAt >= 0 the writer rests there for a while before going on.
+     */
+    private void startWriter(int bytes, int pauseAt, End end) throws Exception {
+        tracker.openPartialFile(TRACK_ID, tempFile, 0, CONTENT.length);
+        CountDownLatch started = new CountDownLatch(1);
+        writer = new Thread(() -> {
+            try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+                started.countDown();
+                for (int written = 0; written < bytes; ) {
+                    if (written == pauseAt) {
+                        Thread.sleep(500);
+                    }
+                    int length = Math.min(CHUNK, bytes - written);
+                    if (pauseAt > written) {
+                        length = Math.min(length, pauseAt - written);
+                    }
+                    out.seek(written);
+                    out.write(CONTENT, written, length);
+                    written += length;
+                    tracker.advancePartialFile(TRACK_ID, written);
+                    Thread.sleep(2);
+                }
+                if (end == End.FINISH) {
+                    tracker.closePartialFile(TRACK_ID);
+                    assertTrue(tempFile.renameTo(new File(folder.getRoot(), TRACK_ID + ".mp3")));
+                } else if (end == End.FAIL) {
+                    Thread.sleep(300);
+                    tracker.closePartialFile(TRACK_ID);
+                } else {
+                    Thread.sleep(STALL_MS);
+                }
+            } catch (InterruptedException e) {
+                // Test over
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        started.await(5, TimeUnit.SECONDS);
+    }
+    
+    private byte[] readAll(DataSpec dataSpec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10_000];
+        try {
+            dataSource.open(dataSpec);
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+        return out.toByteArray();
+    }
+    
+    private List<String> ranges() {
+        List<String> ranges = new ArrayList<>();
+        for (RangeServer.Request request : server.getRequests()) {
+            ranges.add(request.range);
+        }
+        return ranges;
+    }
+    
+    @SuppressWarnings("deprecation")
+    private static DataSpec dataSpec(long position, long length) {
+        // The key is what matches the data source to the download
+        return new DataSpec(Uri.parse(RangeServer.PATH), position, length, TRACK_ID);
+    }
+    
+    /**
+     * The network side: plain ranged requests to the RangeServer
+     */
+    private static class HttpDataSource implements DataSource {
+        final List<DataSpec> opened = new ArrayList<>();
+        private final RangeServer server;
+        private HttpURLConnection connection;
+        private InputStream in;
+        
+        HttpDataSource(RangeServer server) {
+            this.server = server;
+        }
+        
+        @Override
+        public void addTransferListener(TransferListener transferListener) {}
+        
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            opened.add(dataSpec);
+            connection = (HttpURLConnection) server.getUrl().openConnection();
+            String end = dataSpec.length == C.LENGTH_UNSET ? "" : String.valueOf(dataSpec.position + dataSpec.length - 1);
+            connection.setRequestProperty("Range", "bytes=" + dataSpec.position + "-" + end);
+            in = connection.getInputStream();
+            return connection.getContentLengthLong();
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            return read == -1 ? C.RESULT_END_OF_INPUT : read;
+        }
+        
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return null;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+            if (connection != null) {
+                connection.disconnect();
+                connection = null;
+            }
+        }
+    }
+    
+    private static class CountingListener implements TransferListener {
+        long localBytes;
+        int localEnds;
+        
+        @Override
+        public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {}
+        
+        @Override
+        public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {}
+        
+        @Override
+        public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+            if (!isNetwork) {
+                localBytes += bytesTransferred;
+            }
+        }
+        
+        @Override
+        public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+            if (!isNetwork) {
+                localEnds++;
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.musicplayer.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the reporter on a clock the test moves, since SystemClock returns 0 on the JVM
+ */
+public class ProgressReporterTest {
+    
+    private static final String TRACK_ID = "track";
+    private static final int CHUNK = 8 * 1024;
+    
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+    
+    private final RecordingSink sink = new RecordingSink();
+    private final FakeClock clock = new FakeClock();
+    
+    @Test
+    public void notifiesOncePerPercentAndPersistsNothingPerChunk() {
+        long total = 1000L * CHUNK;
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(0, total);
+        for (long bytes = CHUNK; bytes <= total; bytes += CHUNK) {
+            assertFalse(reporter.report(bytes));
+        }
+        
+        assertEquals(101, sink.notified.size());
+        for (int i = 0; i <= 100; i++) {
+            assertEquals(i, (int) sink.notified.get(i));
+        }
+        assertEquals(0, sink.persisted.size());
+        DownloadProgressTracker.Progress progress = DownloadProgressTracker.getInstance().getProgress(TRACK_ID);
+        assertEquals(total, progress.getBytes());
+        reporter.finish();
+    }
+    
+    @Test
+    public void persistsOnceEveryFiveSecondsOfADownload() {
+        // 10 MB in 8 KB chunks at 500 KB/s, 20 s in all
+        long total = 10L * 1024 * 1024;
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(0, total);
+        int chunks = 0;
+        int checkpoints = 0;
+        for (long bytes = CHUNK; bytes <= total; bytes += CHUNK) {
+            clock.now += 16;
+            chunks++;
+            if (reporter.report(bytes)) {
+                checkpoints++;
+            }
+        }
+        // The worker forces the last one when the transfer ends
+        reporter.checkpoint();
+        
+        assertEquals(4, checkpoints);
+        assertEquals(5, sink.persisted.size());
+        assertEquals(total, (long) sink.persisted.get(4));
+        // One write per chunk before the reporter, now one per 5 s of transfer
+        double megabytes = total / (1024.0 * 1024.0);
+        assertEquals(128, chunks / megabytes, 0);
+        assertEquals(0.5, sink.persisted.size() / megabytes, 0);
+        reporter.finish();
+    }
+    
+    @Test
+    public void emitsEverySecondWhileThePercentageStands() {
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(0, -1);
+        DownloadProgressTracker tracker = DownloadProgressTracker.getInstance();
+        List<Long> emitted = new ArrayList<>();
+        long lastBytes = 0;
+        // A chunk every 100 ms for 3 s
+        for (int i = 1; i <= 30; i++) {
+            clock.now += 100;
+            reporter.report((long) i * CHUNK);
+            long bytes = tracker.getProgress(TRACK_ID).getBytes();
+            if (bytes != lastBytes) {
+                emitted.add(clock.now);
+                lastBytes = bytes;
+            }
+        }
+        
+        assertEquals(Arrays.asList(1000L, 2000L, 3000L), emitted);
+        // Only a new percentage rebuilds the notification
+        assertEquals(1, sink.notified.size());
+        assertEquals(0, sink.persisted.size());
+        reporter.finish();
+    }
+    
+    @Test
+    public void checkpointPersistsLatestBytesOnce() {
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(0, 100L * CHUNK);
+        reporter.report(CHUNK);
+        reporter.report(7L * CHUNK);
+        
+        reporter.checkpoint();
+        reporter.checkpoint();
+        
+        assertEquals(1, sink.persisted.size());
+        assertEquals(7L * CHUNK, (long) sink.persisted.get(0));
+        assertEquals(7, (int) sink.persistedProgress.get(0));
+        reporter.finish();
+    }
+    
+    @Test
+    public void resumedTransferStartsAtExistingBytes() {
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(50L * CHUNK, 100L * CHUNK);
+        
+        assertEquals(1, sink.notified.size());
+        assertEquals(50, (int) sink.notified.get(0));
+        reporter.checkpoint();
+        assertEquals(50L * CHUNK, (long) sink.persisted.get(0));
+        reporter.finish();
+    }
+    
+    @Test
+    public void unknownSizeReportsZeroPercent() {
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(0, -1);
+        for (int i = 1; i <= 100; i++) {
+            reporter.report((long) i * CHUNK);
+        }
+        
+        assertEquals(1, sink.notified.size());
+        assertEquals(0, (int) sink.notified.get(0));
+        reporter.checkpoint();
+        assertEquals(100L * CHUNK, (long) sink.persisted.get(0));
+        reporter.finish();
+    }
+    
+    @Test
+    public void finishRemovesLiveProgress() {
+        ProgressReporter reporter = new ProgressReporter(TRACK_ID, sink, clock);
+        reporter.start(0, 10L * CHUNK);
+        reporter.finish();
+        
+        assertNull(DownloadProgressTracker.getInstance().getProgress(TRACK_ID));
+    }
+    
+    private static class FakeClock implements ProgressReporter.Clock {
+        long now;
+        
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+    }
+    
+    private static class RecordingSink implements ProgressReporter.Sink {
+        final List<Integer> notified = new ArrayList<>();
+        final List<Long> persisted = new ArrayList<>();
+        final List<Integer> persistedProgress = new ArrayList<>();
+        
+        @Override
+        public void persist(int progress, long bytes) {
+            persistedProgress.add(progress);
+            persisted.add(bytes);
+        }
+        
+        @Override
+        public void notify(int progress) {
+            notified.add(progress);
+        }
+    }
+}
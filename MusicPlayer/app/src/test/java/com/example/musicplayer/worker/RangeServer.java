@@ -0,0 +1,176 @@
+package com.example.musicplayer.worker;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server standing in for the track host. Serves one file with an ETag and
+ * honours Range and If-Range the way a CDN does, with switches for the ways real
+ * servers let a download down.
+ */
+class RangeServer {
+    
+    static final String PATH = "/track.mp3";
+    
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Request> requests = new ArrayList<>();
+    private final byte[] content;
+    
+    private volatile String etag;
+    private volatile boolean ignoreRange;
+    // Bytes of each body sent before it ends early, -1 to send all of it
+    private volatile long dropAfterBytes = -1;
+    // Rate of each response on its own, like a per-connection limit of a CDN; 0 for none
+    private volatile int bytesPerSecond;
+    
+    RangeServer(byte[] content, String etag) throws IOException {
+        this.content = content;
+        this.etag = etag;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+    
+    URL getUrl() throws MalformedURLException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), PATH);
+    }
+    
+    void setEtag(String etag) {
+        this.etag = etag;
+    }
+    
+    void setIgnoreRange(boolean ignoreRange) {
+        this.ignoreRange = ignoreRange;
+    }
+    
+    void setDropAfterBytes(long dropAfterBytes) {
+        this.dropAfterBytes = dropAfterBytes;
+    }
+    
+    void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    
+    List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+    
+    void clearRequests() {
+        synchronized (requests) {
+            requests.clear();
+        }
+    }
+    
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        String range = headers.getFirst("Range");
+        String ifRange = headers.getFirst("If-Range");
+        synchronized (requests) {
+            requests.add(new Request(range, ifRange));
+        }
+        
+        long length = content.length;
+        long start = 0;
+        long end = length - 1;
+        int status = 200;
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (range != null && !ignoreRange && (ifRange == null || ifRange.equals(etag))) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (start >= length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        
+        long bodyLength = end + 1 - start;
+        long dropAfter = dropAfterBytes;
+        if (dropAfter >= 0 && dropAfter < bodyLength) {
+            // Chunked, so the short body ends cleanly instead of leaving the client waiting
+            // for the promised length until its read timeout
+            exchange.sendResponseHeaders(status, 0);
+            bodyLength = dropAfter;
+        } else {
+            exchange.sendResponseHeaders(status, bodyLength);
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            int rate = bytesPerSecond;
+            if (rate <= 0) {
+                out.write(content, (int) start, (int) bodyLength);
+            } else {
+                writeThrottled(out, (int) start, (int) bodyLength, rate);
+            }
+        }
+    }
+    
+    /**
+     * Send in tenth-of-a-second slices, each no earlier than the rate allows
+     */
+    private void writeThrottled(OutputStream out, int start, int length, int rate) throws IOException {
+        int slice = Math.max(1, rate / 10);
+        long startedAt = System.nanoTime();
+        for (int sent = 0; sent < length; ) {
+            long due = startedAt + sent * 1_000_000_000L / rate;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    throw new IOException("Server stopped", e);
+                }
+            }
+            int size = Math.min(slice, length - sent);
+            out.write(content, start + sent, size);
+            out.flush();
+            sent += size;
+        }
+    }
+    
+    /**
+     * The range headers of one request as the server received them
+     */
+    static class Request {
+        final String range;
+        final String ifRange;
+        
+        Request(String range, String ifRange) {
+            this.range = range;
+            this.ifRange = ifRange;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.musicplayer.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResumableRequestTest {
+    
+    private static final byte[] CONTENT = RangeServer.randomContent(10_000);
+    private static final String ETAG = "\"v1\"";
+    
+    private RangeServer server;
+    
+    @Before
+    public void setUp() throws IOException {
+        server = new RangeServer(CONTENT, ETAG);
+    }
+    
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+    
+    @Test
+    public void resumesFromPartialFile() throws IOException {
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), 4000, ETAG, null);
+        
+        assertEquals(206, request.getResponseCode());
+        assertEquals(4000, request.getResumeFrom());
+        assertTrue(request.isSuccessful());
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 4000, CONTENT.length), readBody(request));
+        List<RangeServer.Request> requests = server.getRequests();
+        assertEquals(1, requests.size());
+        assertEquals("bytes=4000-", requests.get(0).range);
+        assertEquals(ETAG, requests.get(0).ifRange);
+    }
+    
+    @Test
+    public void restartsWhenServerIgnoresRange() throws IOException {
+        server.setIgnoreRange(true);
+        
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), 4000, ETAG, null);
+        
+        assertEquals(200, request.getResponseCode());
+        assertEquals(0, request.getResumeFrom());
+        assertTrue(request.isSuccessful());
+        assertArrayEquals(CONTENT, readBody(request));
+    }
+    
+    @Test
+    public void restartsWhenIfRangeDoesNotMatch() throws IOException {
+        server.setEtag("\"v2\"");
+        
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), 4000, ETAG, null);
+        
+        assertEquals(200, request.getResponseCode());
+        assertEquals(0, request.getResumeFrom());
+        assertArrayEquals(CONTENT, readBody(request));
+        assertEquals(1, server.getRequests().size());
+    }
+    
+    @Test
+    public void completeWhenPartialFileHasRemoteSize() throws IOException {
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), CONTENT.length, ETAG, null);
+        
+        assertEquals(416, request.getResponseCode());
+        assertTrue(request.isComplete());
+        assertNull(request.getConnection());
+        assertEquals(CONTENT.length, request.getResumeFrom());
+        assertEquals(1, server.getRequests().size());
+    }
+    
+    @Test
+    public void restartsWhenPartialFileIsLargerThanRemote() throws IOException {
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), CONTENT.length + 500, ETAG, null);
+        
+        assertFalse(request.isComplete());
+        assertEquals(200, request.getResponseCode());
+        assertEquals(0, request.getResumeFrom());
+        assertArrayEquals(CONTENT, readBody(request));
+        List<RangeServer.Request> requests = server.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("bytes=" + (CONTENT.length + 500) + "-", requests.get(0).range);
+        assertNull(requests.get(1).range);
+    }
+    
+    @Test
+    public void restartsWithoutValidator() throws IOException {
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), 4000, null, null);
+        
+        assertEquals(200, request.getResponseCode());
+        assertEquals(0, request.getResumeFrom());
+        assertArrayEquals(CONTENT, readBody(request));
+        assertNull(server.getRequests().get(0).range);
+    }
+    
+    @Test
+    public void fetchesWholeFileWithoutPartialFile() throws IOException {
+        ResumableRequest request = ResumableRequest.open(server.getUrl(), 0, ETAG, null);
+        
+        assertEquals(200, request.getResponseCode());
+        assertTrue(request.isSuccessful());
+        assertArrayEquals(CONTENT, readBody(request));
+        assertNull(server.getRequests().get(0).range);
+    }
+    
+    @Test
+    public void weakEtagFallsBackToLastModified() {
+        String lastModified = "Wed, 21 Oct 2015 07:28:00 GMT";
+        assertEquals(lastModified, ResumableRequest.chooseValidator("W/\"v1\"", lastModified));
+        assertEquals(ETAG, ResumableRequest.chooseValidator(ETAG, lastModified));
+        assertNull(ResumableRequest.chooseValidator("W/\"v1\"", null));
+    }
+    
+    @Test
+    public void parsesContentRangeTotal() {
+        assertEquals(1234, ResumableRequest.parseContentRangeTotal("bytes 0-99/1234"));
+        assertEquals(1000, ResumableRequest.parseContentRangeTotal("bytes */1000"));
+        assertEquals(-1, ResumableRequest.parseContentRangeTotal("bytes 0-99/*"));
+        assertEquals(-1, ResumableRequest.parseContentRangeTotal(null));
+    }
+    
+    private static byte[] readBody(ResumableRequest request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = request.getConnection().getInputStream()) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            request.getConnection().disconnect();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.musicplayer.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Kills a segmented download at each stage and checks that the next run, which only
+ * has the files on disk, finishes with exactly the remote content
+ */
+public class SegmentedDownloaderTest {
+    
+    private static final int SEGMENTS = 4;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final byte[] CONTENT = RangeServer.randomContent(1024 * 1024);
+    private static final String ETAG = "\"v1\"";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private RangeServer server;
+    private File target;
+    private File state;
+    
+    @Before
+    public void setUp() throws IOException {
+        server = new RangeServer(CONTENT, ETAG);
+        target = new File(folder.getRoot(), "track.mp3.tmp");
+        state = SegmentedDownloader.getStateFile(target);
+    }
+    
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+    
+    @Test
+    public void downloadsAllSegments() throws IOException {
+        assertTrue(newDownloader(new TestListener()).download(SEGMENTS));
+        
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertFalse(state.exists());
+        assertEquals(SEGMENTS, server.getRequests().size());
+        for (RangeServer.Request request : server.getRequests()) {
+            assertEquals(ETAG, request.ifRange);
+        }
+    }
+    
+    @Test
+    public void resumesAfterKillBeforeFirstCheckpoint() throws IOException {
+        TestListener listener = new TestListener();
+        listener.killAt = 0;
+        killedDownload(newDownloader(listener));
+        
+        // The preallocated file must never be on disk without the state describing it
+        assertTrue(state.exists());
+        assertEquals(CONTENT.length, target.length());
+        
+        SegmentedDownloader resumed = newDownloader(new TestListener());
+        assertEquals(CONTENT.length, resumed.getRemainingBytes(SEGMENTS));
+        assertTrue(resumed.download(SEGMENTS));
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertFalse(state.exists());
+    }
+    
+    @Test
+    public void resumesAfterConnectionsDrop() throws IOException {
+        server.setDropAfterBytes(100 * 1024);
+        try {
+            newDownloader(new TestListener()).download(SEGMENTS);
+            fail("Dropped connections must fail the download");
+        } catch (IOException expected) {
+        }
+        assertTrue(state.exists());
+        
+        server.setDropAfterBytes(-1);
+        server.clearRequests();
+        SegmentedDownloader resumed = newDownloader(new TestListener());
+        long remaining = resumed.getRemainingBytes(SEGMENTS);
+        assertTrue("Checkpoint kept no progress", remaining < CONTENT.length);
+        assertTrue(resumed.download(SEGMENTS));
+        
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertFalse(state.exists());
+        long requested = 0;
+        for (RangeServer.Request request : server.getRequests()) {
+            String[] bounds = request.range.substring("bytes=".length()).split("-");
+            requested += Long.parseLong(bounds[1]) + 1 - Long.parseLong(bounds[0]);
+        }
+        assertEquals(remaining, requested);
+    }
+    
+    @Test
+    public void resumesAfterCancel() throws IOException {
+        TestListener listener = new TestListener();
+        listener.cancelled = true;
+        assertFalse(newDownloader(listener).download(SEGMENTS));
+        assertTrue(state.exists());
+        
+        assertTrue(newDownloader(new TestListener()).download(SEGMENTS));
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertFalse(state.exists());
+    }
+    
+    @Test
+    public void resumesAfterKillOnceAllBytesArrived() throws IOException {
+        TestListener listener = new TestListener();
+        listener.killAt = CONTENT.length;
+        killedDownload(newDownloader(listener));
+        assertTrue(state.exists());
+        
+        assertTrue(newDownloader(new TestListener()).download(SEGMENTS));
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertFalse(state.exists());
+    }
+    
+    @Test
+    public void fullLengthFileWithoutStateIsNotTrusted() throws IOException {
+        TestListener listener = new TestListener();
+        listener.killAt = 0;
+        killedDownload(newDownloader(listener));
+        assertTrue(state.delete());
+        
+        // Only the state says what was written, the preallocated length says nothing
+        assertEquals(CONTENT.length, target.length());
+        assertEquals(CONTENT.length, newDownloader(new TestListener()).getRemainingBytes(SEGMENTS));
+    }
+    
+    @Test
+    public void changedRemoteFileDiscardsPartialDownload() throws IOException {
+        TestListener listener = new TestListener();
+        listener.cancelled = true;
+        newDownloader(listener).download(SEGMENTS);
+        assertTrue(state.exists());
+        
+        // If-Range no longer matches, so the server sends the whole new file
+        server.setEtag("\"v2\"");
+        try {
+            newDownloader(new TestListener()).download(SEGMENTS);
+            fail("A changed remote file must not be stitched onto the old segments");
+        } catch (IOException expected) {
+        }
+        assertFalse(state.exists());
+        assertFalse(target.exists());
+    }
+    
+    @Test
+    public void stateOfOtherValidatorIsIgnored() throws IOException {
+        TestListener listener = new TestListener();
+        listener.killAt = 0;
+        killedDownload(newDownloader(listener));
+        
+        SegmentedDownloader other = new SegmentedDownloader(server.getUrl(), "\"v2\"", target,
+                CONTENT.length, new TestListener(), BUFFER_SIZE);
+        assertEquals(CONTENT.length, other.getRemainingBytes(SEGMENTS));
+    }
+    
+    /**
+     * The benchmark the segmented mode was built for: a server that limits each connection,
+     * as CDNs do, is read faster by several connections at once
+     */
+    @Test
+    public void segmentsMultiplyThroughputOfAThrottledServer() throws IOException {
+        // 1 MB at 512 KB/s per connection: 2 s over one connection, 0.5 s over four
+        server.setBytesPerSecond(512 * 1024);
+        
+        long single = timedDownload(1);
+        assertTrue(target.delete());
+        long segmented = timedDownload(SEGMENTS);
+        System.out.printf(Locale.ROOT, "Throttled 1 MB: 1 segment %d ms (%.0f KB/s), %d segments %d ms (%.0f KB/s)%n",
+                single, kilobytesPerSecond(single), SEGMENTS, segmented, kilobytesPerSecond(segmented));
+        
+        assertTrue("one segment took " + single + " ms", single >= 1900);
+        assertTrue(SEGMENTS + " segments took " + segmented + " ms", segmented * 2.5 < single);
+    }
+    
+    private long timedDownload(int segments) throws IOException {
+        long startedAt = System.nanoTime();
+        assertTrue(newDownloader(new TestListener()).download(segments));
+        long elapsedMs = (System.nanoTime() - startedAt) / 1_000_000;
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        return elapsedMs;
+    }
+    
+    private static double kilobytesPerSecond(long elapsedMs) {
+        return CONTENT.length / 1024.0 / (elapsedMs / 1000.0);
+    }
+    
+    private SegmentedDownloader newDownloader(TestListener listener) throws IOException {
+        return new SegmentedDownloader(server.getUrl(), ETAG, target, CONTENT.length, listener, BUFFER_SIZE);
+    }
+    
+    private static void killedDownload(SegmentedDownloader downloader) throws IOException {
+        try {
+            downloader.download(SEGMENTS);
+            fail("Download was not killed");
+        } catch (Killed expected) {
+        }
+    }
+    
+    /**
+     * Stands in for the process dying: nothing after the throw gets to run
+     */
+    private static class Killed extends RuntimeException {
+    }
+    
+    private static class TestListener implements SegmentedDownloader.Listener {
+        volatile boolean cancelled;
+        // Die on the first progress report with at least this many bytes, -1 never
+        volatile long killAt = -1;
+        
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        @Override
+        public boolean onProgress(long downloadedBytes, long totalBytes) {
+            if (killAt >= 0 && downloadedBytes >= killAt) {
+                throw new Killed();
+            }
+            return false;
+        }
+        
+        @Override
+        public void onContiguousBytes(long contiguousBytes) {
+        }
+    }
+}
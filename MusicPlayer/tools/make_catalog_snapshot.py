@@ -0,0 +1,211 @@
+#!/usr/bin/env python3
+"""Write the catalog snapshot bundled with the app (assets/catalog_snapshot.bin).
+
+The tracks come either from the public Firestore REST API of a project or from a
+JSON file laid out like firebase_sample_data.json ({"tracks": {id: fields}}). The
+output is read by CatalogSnapshot.Reader, so the layout here has to follow
+CatalogSnapshot.write exactly:
+
+    magic "MPCS", version 1, generatedAt, cursor field, cursor,
+    string table (varint count, strings), varint track count, tracks
+
+Integers are big endian, strings are modified UTF-8 with a 2-byte length as written
+by DataOutput.writeUTF, and shared strings are varint indexes into the table.
+
+Usage:
+    make_catalog_snapshot.py --project <firebase-project-id> <output>
+    make_catalog_snapshot.py --input firebase_sample_data.json <output>
+
+The test fixture app/src/test/resources/catalog_snapshot_fixture.bin is written with
+    make_catalog_snapshot.py --generated-at 1720000000000 \
+        --input app/src/test/resources/catalog_snapshot_fixture.json \
+        app/src/test/resources/catalog_snapshot_fixture.bin
+"""
+
+import argparse
+import json
+import math
+import struct
+import sys
+import time
+import urllib.parse
+import urllib.request
+
+MAGIC = 0x4D504353  # "MPCS"
+FORMAT_VERSION = 1
+# Same as Constants.CATALOG_CLOCK_SKEW_MS
+CLOCK_SKEW_MS = 24 * 60 * 60 * 1000
+DEFAULT_CHECKSUM_ALGORITHM = "md5"
+FIRESTORE_URL = "https://firestore.googleapis.com/v1/projects/{}/databases/(default)/documents/tracks"
+
+
+def modified_utf8(value):
+    encoded = value.encode("utf-16-be", "surrogatepass")
+    out = bytearray()
+    for unit in struct.unpack(">%dH" % (len(encoded) // 2), encoded):
+        if 0 < unit < 0x80:
+            out.append(unit)
+        elif unit < 0x800:
+            out += bytes((0xC0 | (unit >> 6), 0x80 | (unit & 0x3F)))
+        else:
+            out += bytes((0xE0 | (unit >> 12), 0x80 | ((unit >> 6) & 0x3F), 0x80 | (unit & 0x3F)))
+    if len(out) > 0xFFFF:
+        raise ValueError("String too long for writeUTF: %r..." % value[:40])
+    return struct.pack(">H", len(out)) + bytes(out)
+
+
+def varint(value):
+    out = bytearray()
+    while value & ~0x7F:
+        out.append((value & 0x7F) | 0x80)
+        value >>= 7
+    out.append(value)
+    return bytes(out)
+
+
+def decode_value(value):
+    """Plain Python value of a Firestore REST API value"""
+    if "arrayValue" in value:
+        return [decode_value(v) for v in value["arrayValue"].get("values", [])]
+    if "integerValue" in value:
+        return int(value["integerValue"])
+    if "doubleValue" in value:
+        # Sent as a number, or as a string for NaN and the infinities
+        return float(value["doubleValue"])
+    if "nullValue" in value:
+        return None
+    for key in ("stringValue", "booleanValue", "timestampValue"):
+        if key in value:
+            return value[key]
+    return None
+
+
+def fetch_documents(project):
+    documents = {}
+    token = None
+    while True:
+        query = {"pageSize": 300}
+        if token:
+            query["pageToken"] = token
+        url = FIRESTORE_URL.format(project) + "?" + urllib.parse.urlencode(query)
+        with urllib.request.urlopen(url) as response:
+            page = json.load(response)
+        for document in page.get("documents", []):
+            fields = {k: decode_value(v) for k, v in document.get("fields", {}).items()}
+            documents[document["name"].rsplit("/", 1)[1]] = fields
+        token = page.get("nextPageToken")
+        if not token:
+            return documents
+
+
+def get_long(track_id, fields, name):
+    """A number field as DocumentSnapshot.getLong reads it: doubles lose their fraction,
+    anything else, Firestore timestamps included, is rejected"""
+    value = fields.get(name)
+    if value is None:
+        return None
+    if isinstance(value, float) and math.isfinite(value):
+        value = int(value)
+    if isinstance(value, bool) or not isinstance(value, int) or not -2 ** 63 <= value < 2 ** 63:
+        raise ValueError("Track %s: %s must be a number of milliseconds, not %r"
+                         % (track_id, name, value))
+    return value
+
+
+def to_track(track_id, fields, now):
+    """The track FirebaseHelper.documentToTrack makes of a document, None for tombstones"""
+    if fields.get("deleted") is True:
+        return None
+    created_at = get_long(track_id, fields, "createdAt")
+    created_at = created_at if created_at is not None else now
+    updated_at = get_long(track_id, fields, "updatedAt")
+    checksum = fields.get("checksum") or ""
+    return {
+        "id": track_id,
+        "title": fields.get("title") or "",
+        "artist": fields.get("artist") or "",
+        "album": fields.get("album") or "",
+        "durationMs": get_long(track_id, fields, "durationMs") or 0,
+        "streamUrl": fields.get("streamUrl") or "",
+        "coverUrl": fields.get("coverUrl") or "",
+        "tags": ",".join(fields.get("tags") or []),
+        "featured": bool(fields.get("featured")),
+        "createdAt": created_at,
+        "updatedAt": updated_at if updated_at is not None else created_at,
+        "checksum": checksum,
+        "checksumAlgorithm": (fields.get("checksumAlgorithm") or DEFAULT_CHECKSUM_ALGORITHM) if checksum else "",
+    }
+
+
+def write_snapshot(out, tracks, cursor_field, cursor, generated_at):
+    index = {}
+    table = []
+    for track in tracks:
+        for key in ("artist", "album", "tags", "checksumAlgorithm"):
+            if track[key] not in index:
+                index[track[key]] = len(table)
+                table.append(track[key])
+
+    out.write(struct.pack(">iiq", MAGIC, FORMAT_VERSION, generated_at))
+    out.write(modified_utf8(cursor_field))
+    out.write(struct.pack(">q", cursor))
+    out.write(varint(len(table)))
+    for value in table:
+        out.write(modified_utf8(value))
+
+    out.write(varint(len(tracks)))
+    for track in tracks:
+        out.write(modified_utf8(track["id"]))
+        out.write(modified_utf8(track["title"]))
+        out.write(varint(index[track["artist"]]))
+        out.write(varint(index[track["album"]]))
+        out.write(struct.pack(">q", track["durationMs"]))
+        out.write(modified_utf8(track["streamUrl"]))
+        out.write(modified_utf8(track["coverUrl"]))
+        out.write(varint(index[track["tags"]]))
+        out.write(struct.pack(">?qq", track["featured"], track["createdAt"], track["updatedAt"]))
+        out.write(modified_utf8(track["checksum"]))
+        out.write(varint(index[track["checksumAlgorithm"]]))
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Write the bundled catalog snapshot")
+    source = parser.add_mutually_exclusive_group(required=True)
+    source.add_argument("--project", help="Firebase project to read the tracks collection from")
+    source.add_argument("--input", help="JSON file laid out like firebase_sample_data.json")
+    parser.add_argument("--generated-at", type=int,
+                        help="Time of the snapshot in epoch milliseconds, for reproducible output")
+    parser.add_argument("output")
+    args = parser.parse_args()
+
+    # Taken before reading, like SyncRun.startedAt, so nothing written meanwhile is skipped
+    generated_at = args.generated_at if args.generated_at is not None else int(time.time() * 1000)
+    if args.project:
+        documents = fetch_documents(args.project)
+    else:
+        with open(args.input, encoding="utf-8") as f:
+            documents = json.load(f)["tracks"]
+
+    tracks = []
+    missing_updated_at = False
+    for track_id in sorted(documents):
+        fields = documents[track_id]
+        missing_updated_at |= fields.get("updatedAt") is None
+        try:
+            track = to_track(track_id, fields, generated_at)
+        except ValueError as e:
+            sys.exit("make_catalog_snapshot.py: %s" % e)
+        if track is not None:
+            tracks.append(track)
+
+    # Same choice as a full sync: without updatedAt everywhere only new tracks can be found
+    cursor_field = "createdAt" if missing_updated_at else "updatedAt"
+    cursor = max(0, generated_at - CLOCK_SKEW_MS)
+    with open(args.output, "wb") as out:
+        write_snapshot(out, tracks, cursor_field, cursor, generated_at)
+    print("Wrote %d tracks to %s (%s cursor %d)" % (len(tracks), args.output, cursor_field, cursor),
+          file=sys.stderr)
+
+
+if __name__ == "__main__":
+    main()